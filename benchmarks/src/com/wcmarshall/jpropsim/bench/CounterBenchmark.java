@@ -0,0 +1,52 @@
+package com.wcmarshall.jpropsim.bench;
+
+import com.wcmarshall.jpropsim.Counter;
+import com.wcmarshall.jpropsim.Hub;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One {@link Counter#tick(int, int, int)} in a selection of CTR modes
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CounterBenchmark {
+
+    // CTRMODE values: disabled, NCO single ended, DUTY single ended, POS detector, LOGIC always
+    @Param({ "0", "4", "6", "8", "31" })
+    public int mode;
+
+    private Counter counter;
+    private int ctr, frq, phs;
+
+    @Setup
+    public void setup() throws IOException {
+        Hub hub = new Hub();
+        counter = new Counter(hub.getCog(0));
+        // APIN 0, BPIN 1
+        ctr = (mode << 26) | (1 << 9);
+        frq = 0x1234567;
+    }
+
+    @Benchmark
+    public int tick() {
+        phs = counter.tick(ctr, frq, phs);
+        return phs;
+    }
+}
@@ -0,0 +1,42 @@
+package com.wcmarshall.jpropsim.bench;
+
+import com.wcmarshall.jpropsim.Hub;
+import com.wcmarshall.jpropsim.disassembler.Disassembler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Listing of the whole Spin interpreter
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DisassemblerBenchmark {
+
+    private final Disassembler disassembler = new Disassembler();
+    private int[] interpreter;
+
+    @Setup
+    public void setup() throws IOException {
+        interpreter = Programs.interpreter(new Hub());
+    }
+
+    @Benchmark
+    public String generateListing() {
+        return disassembler.generateListing(interpreter);
+    }
+}
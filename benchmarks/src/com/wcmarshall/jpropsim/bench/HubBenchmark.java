@@ -0,0 +1,64 @@
+package com.wcmarshall.jpropsim.bench;
+
+import com.wcmarshall.jpropsim.Hub;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long accesses to hub RAM and ROM
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HubBenchmark {
+
+    private static final int LONGS = 1024;
+
+    private Hub hub;
+
+    @Setup
+    public void setup() throws IOException {
+        hub = new Hub();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LONGS)
+    public int getLongRam() {
+        int sum = 0;
+        for (int addr = 0; addr < 4 * LONGS; addr += 4)
+            sum += hub.getLong(addr);
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LONGS)
+    public int getLongRom() {
+        int sum = 0;
+        for (int addr = 0xF004; addr < 0xF004 + 4 * LONGS; addr += 4)
+            sum += hub.getLong(addr);
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LONGS)
+    public Hub setLong() {
+        for (int addr = 0; addr < 4 * LONGS; addr += 4)
+            hub.setLong(addr, addr);
+        return hub;
+    }
+}
@@ -0,0 +1,102 @@
+package com.wcmarshall.jpropsim.bench;
+
+import com.wcmarshall.jpropsim.Cog;
+import com.wcmarshall.jpropsim.Hub;
+import com.wcmarshall.jpropsim.disassembler.Instruction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Instruction decode, and execution of a cog running a loop of a single opcode
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class InstructionBenchmark {
+
+    private int[] interpreter;
+
+    @Setup
+    public void setup() throws IOException {
+        interpreter = Programs.interpreter(new Hub());
+    }
+
+    /**
+     * A hub with cog 0 running LOOP_LENGTH copies of one instruction followed by JMP #0
+     */
+    @State(Scope.Thread)
+    public static class Loop {
+
+        private static final int LOOP_LENGTH = 64;
+        private static final int DEST = 0x180, SRC = 0x181;
+
+        @Param({ "MOV", "ADD", "AND", "SHL", "MUXC", "CMP", "DJNZ", "RDLONG", "WRLONG", "WAITCNT" })
+        public String opcode;
+
+        private Hub hub;
+
+        @Setup
+        public void setup() throws IOException {
+            hub = new Hub();
+            int instruction = encoding(opcode);
+            for (int i = 0; i < LOOP_LENGTH; i++)
+                hub.setLong(4 * i, instruction);
+            hub.setLong(4 * LOOP_LENGTH, Programs.encode(0b010111, false, true, 0, 0));
+            hub.getCog(0).start(0, 0, true);
+        }
+
+        private static int encoding(String opcode) {
+            switch (opcode) {
+                case "MOV": return Programs.encode(0b101000, true, false, DEST, SRC);
+                case "ADD": return Programs.encode(0b100000, true, true, DEST, 1);
+                case "AND": return Programs.encode(0b011000, true, false, DEST, SRC);
+                case "SHL": return Programs.encode(0b001011, true, true, DEST, 1);
+                case "MUXC": return Programs.encode(0b011100, true, true, DEST, 1);
+                case "CMP": return Programs.encode(0b100001, false, false, DEST, SRC);
+                // jumps back to the top of the loop on every pass, DEST only reaches 0 after 2^32 decrements
+                case "DJNZ": return Programs.encode(0b111001, true, true, DEST, 0);
+                case "RDLONG": return Programs.encode(0b000010, true, false, DEST, SRC);
+                case "WRLONG": return Programs.encode(0b000010, false, true, DEST, 0x100);
+                // waits for CNT + 0, the minimum of 6 cycles once CNT has passed
+                case "WAITCNT": return Programs.encode(0b111110, true, true, DEST, 0);
+                default: throw new IllegalArgumentException(opcode);
+            }
+        }
+    }
+
+    /**
+     * Decodes every long of the Spin interpreter
+     */
+    @Benchmark
+    @OperationsPerInvocation(0x1F0)
+    public void decode(Blackhole bh) {
+        for (int encoded : interpreter)
+            bh.consume(new Instruction(encoded));
+    }
+
+    /**
+     * One hub cycle with a single cog executing the opcode loop
+     */
+    @Benchmark
+    public Cog execute(Loop loop) {
+        loop.hub.tick();
+        return loop.hub.getCog(0);
+    }
+}
@@ -0,0 +1,39 @@
+package com.wcmarshall.jpropsim.bench;
+
+import com.wcmarshall.jpropsim.Hub;
+
+/**
+ * Encodings and images shared by the benchmarks
+ */
+final class Programs {
+
+    static final int COND_ALWAYS = 0b1111;
+
+    private Programs() {
+    }
+
+    /**
+     * Encodes a PASM instruction
+     *
+     * @param opcode 6 bit instruction field
+     * @param r write result flag
+     * @param immediate source is an immediate value
+     * @param dest destination register
+     * @param src source register or immediate value
+     * @return encoded instruction
+     */
+    static int encode(int opcode, boolean r, boolean immediate, int dest, int src) {
+        return (opcode << 26) | ((r ? 1 : 0) << 23) | ((immediate ? 1 : 0) << 22) | (COND_ALWAYS << 18)
+                | ((dest & 0x1FF) << 9) | (src & 0x1FF);
+    }
+
+    /**
+     * @return the ROM Spin interpreter as 0x1F0 longs, as loaded into a cog
+     */
+    static int[] interpreter(Hub hub) {
+        int[] image = new int[0x1F0];
+        for (int i = 0; i < image.length; i++)
+            image[i] = hub.getLong(0xF004 + 4 * i);
+        return image;
+    }
+}
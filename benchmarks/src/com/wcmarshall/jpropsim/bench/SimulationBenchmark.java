@@ -0,0 +1,91 @@
+package com.wcmarshall.jpropsim.bench;
+
+import com.wcmarshall.jpropsim.Fusions;
+import com.wcmarshall.jpropsim.Hub;
+import com.wcmarshall.jpropsim.spin.SpinTiming;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end simulation speed. {@link #run()} scores simulated cycles per second; {@link #boot()} times a
+ * full boot, with cog 0 loading the interpreter from ROM one long per hub window, up to the interpreter's
+ * first instruction, or to the native interpreter attaching in its place.
+ */
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SimulationBenchmark {
+
+    private static final int CYCLES = 100_000;
+
+    @Param({ "PropPWM.binary" })
+    public String image;
+
+    @Param({ "false", "true" })
+    public boolean nativeSpin;
+
+    /**
+     * interpret, translate, or translate with the standard fusions
+     */
+    @Param({ "interpret", "translate", "fuse" })
+    public String tier;
+
+    private Hub hub;
+
+    /**
+     * A fresh hub for every iteration, so each one runs the program from its start
+     */
+    @Setup(Level.Iteration)
+    public void setup() throws IOException {
+        hub = new Hub(new File(image), true, timing());
+        if (nativeSpin && hub.getCog(0).getSpinInterpreter() == null)
+            throw new IllegalStateException(image + " does not start the native interpreter on cog 0");
+        configure(hub);
+    }
+
+    private SpinTiming timing() {
+        return nativeSpin ? new SpinTiming() : null;
+    }
+
+    private void configure(Hub h) {
+        if (tier.equals("fuse"))
+            h.setFusions(Fusions.standard());
+        h.setTranslation(!tier.equals("interpret"));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(CYCLES)
+    public Hub run() {
+        hub.run(CYCLES);
+        return hub;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Hub boot() throws IOException {
+        Hub booted = new Hub(new File(image), false, timing());
+        configure(booted);
+        while (!booted.getCog(0).isProgramLoaded())
+            booted.tick();
+        return booted;
+    }
+}
@@ -0,0 +1,243 @@
+package com.wcmarshall.jpropsim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Several chips on one board, each a {@link Hub} run on its own thread, with output pins of one wired to
+ * input pins of another.
+ *
+ * The chips share one system clock, and are kept in step conservatively: a change on a wire reaches the
+ * chip at the far end a fixed latency of at least one cycle after it was driven, so a chip can run ahead
+ * until it is that latency past the slowest chip driving it, without ever receiving a change in its past.
+ * A chip only waits when it has reached that horizon, and is woken as soon as the chips driving it move on;
+ * chips with no wires into them run freely, publishing their progress every quantum of cycles. Longer
+ * latencies let the chips run further apart between waits, at the cost of the wires being slower than a
+ * trace on a real board.
+ *
+ * Changes cross between threads as events, queued for the receiving chip and scheduled on its hub before it
+ * runs on. A chip's hub, peripherals and anything scheduled on it are only touched by its own thread while
+ * the board runs.
+ */
+public class Board {
+
+    private static final long DEFAULT_QUANTUM = 4096;
+
+    /**
+     * A pin level due on a chip's input pin
+     */
+    private static class Change extends Event {
+        private final int pin;
+        private final boolean level;
+
+        Change(long time, int pin, boolean level) {
+            super(time);
+            this.pin = pin;
+            this.level = level;
+        }
+
+        @Override
+        public void fire(Hub hub) {
+            hub.setPinIn(pin, level);
+        }
+    }
+
+    /**
+     * A chip, the progress it has published and the changes on their way to it
+     */
+    private static class Chip {
+        final Hub hub;
+        final List<Wire> inputs = new ArrayList<>();
+        final List<Chip> driven = new ArrayList<>();
+        final ConcurrentLinkedQueue<Change> inbox = new ConcurrentLinkedQueue<>();
+        // cycles run, published after any changes driven in them are queued
+        volatile long time;
+        Thread thread;
+
+        Chip(Hub hub) {
+            this.hub = hub;
+        }
+    }
+
+    /**
+     * A wire from an output pin on one chip to an input pin on another, watching the driving pin
+     */
+    private static class Wire implements Peripheral {
+        final Chip from, to;
+        final int fromPin, toPin;
+        final long latency;
+        boolean level;
+
+        Wire(Chip from, int fromPin, Chip to, int toPin, long latency) {
+            this.from = from;
+            this.fromPin = fromPin;
+            this.to = to;
+            this.toPin = toPin;
+            this.latency = latency;
+        }
+
+        @Override
+        public int getPinMask() {
+            return 1 << fromPin;
+        }
+
+        @Override
+        public void attach(Hub hub) {
+            level = Peripheral.pinLevel(fromPin, hub.getOuta(), hub.getDira());
+            to.hub.setPinIn(toPin, level);
+        }
+
+        @Override
+        public void pinsChanged(Hub hub, int outa, int dira, int changed) {
+            boolean now = Peripheral.pinLevel(fromPin, outa, dira);
+            if (now != level) {
+                level = now;
+                to.inbox.add(new Change(hub.getCycles() + latency, toPin, now));
+            }
+        }
+    }
+
+    private final List<Chip> chips = new ArrayList<>();
+    private long quantum = DEFAULT_QUANTUM;
+    private volatile boolean stopRequested = false;
+    private volatile Throwable failure = null;
+
+    /**
+     * @param hub chip to add, at the same cycle count as any already on the board
+     */
+    public void addChip(Hub hub) {
+        if (find(hub) != null)
+            throw new IllegalArgumentException("Chip is already on the board");
+        chips.add(new Chip(hub));
+    }
+
+    /**
+     * Wires an output pin to an input pin with a latency of one cycle
+     *
+     * @see #connect(Hub, int, Hub, int, long)
+     */
+    public void connect(Hub from, int fromPin, Hub to, int toPin) {
+        connect(from, fromPin, to, toPin, 1);
+    }
+
+    /**
+     * Wires an output pin of one chip to an input pin of another. The input follows the level of the output
+     * as a peripheral sees it, high while nothing drives it.
+     *
+     * @param latency cycles from a change being driven to it reaching the input, at least 1
+     */
+    public void connect(Hub from, int fromPin, Hub to, int toPin, long latency) {
+        Chip source = find(from), target = find(to);
+        if (source == null || target == null)
+            throw new IllegalArgumentException("Both chips must be on the board");
+        if (source == target)
+            throw new IllegalArgumentException("A wire must join two chips");
+        if (fromPin < 0 || fromPin > 31 || toPin < 0 || toPin > 31)
+            throw new IllegalArgumentException("Wires must join port A pins");
+        if (latency < 1)
+            throw new IllegalArgumentException("Wire latency must be at least one cycle");
+        Wire wire = new Wire(source, fromPin, target, toPin, latency);
+        target.inputs.add(wire);
+        if (!source.driven.contains(target))
+            source.driven.add(target);
+        from.addPeripheral(wire);
+    }
+
+    /**
+     * @param quantum most cycles a chip runs before publishing its progress to the chips it drives
+     */
+    public void setQuantum(long quantum) {
+        if (quantum < 1)
+            throw new IllegalArgumentException("Quantum must be at least one cycle");
+        this.quantum = quantum;
+    }
+
+    /**
+     * Asks every chip to stop, from any thread
+     */
+    public void requestStop() {
+        stopRequested = true;
+        for (Chip chip : chips) {
+            chip.hub.requestStop();
+            LockSupport.unpark(chip.thread);
+        }
+    }
+
+    /**
+     * Runs every chip for a number of cycles, each on its own thread, and waits for them all
+     *
+     * @param count cycles to run
+     * @throws IllegalStateException if the chips are not at the same cycle count
+     * @throws RuntimeException wrapping anything thrown on a chip's thread
+     */
+    public void run(long count) throws InterruptedException {
+        if (chips.isEmpty())
+            return;
+        long start = chips.get(0).hub.getCycles();
+        for (Chip chip : chips) {
+            if (chip.hub.getCycles() != start)
+                throw new IllegalStateException("Chips must start at the same cycle count");
+            chip.time = start;
+            chip.hub.clearStopRequest();
+        }
+        long end = start + count;
+        stopRequested = false;
+        failure = null;
+        for (Chip chip : chips)
+            chip.thread = new Thread(() -> runChip(chip, end), "jpropsim-chip-" + chips.indexOf(chip));
+        for (Chip chip : chips)
+            chip.thread.start();
+        try {
+            for (Chip chip : chips)
+                chip.thread.join();
+        } finally {
+            for (Chip chip : chips) {
+                if (chip.thread.isAlive()) {
+                    requestStop();
+                    chip.thread.join();
+                }
+            }
+        }
+        if (failure != null)
+            throw new RuntimeException("Chip failed", failure);
+    }
+
+    private void runChip(Chip chip, long end) {
+        try {
+            Hub hub = chip.hub;
+            while (!stopRequested) {
+                long now = hub.getCycles();
+                if (now >= end)
+                    return;
+                // the input wires are settled until here
+                long horizon = end;
+                for (Wire wire : chip.inputs)
+                    horizon = Math.min(horizon, wire.from.time + wire.latency);
+                if (horizon <= now) {
+                    LockSupport.park(this);
+                    continue;
+                }
+                Change change;
+                while ((change = chip.inbox.poll()) != null)
+                    hub.schedule(change);
+                hub.run(Math.min(horizon - now, quantum));
+                chip.time = hub.getCycles();
+                for (Chip driven : chip.driven)
+                    LockSupport.unpark(driven.thread);
+            }
+        } catch (Throwable t) {
+            failure = t;
+            requestStop();
+        }
+    }
+
+    private Chip find(Hub hub) {
+        for (Chip chip : chips) {
+            if (chip.hub == hub)
+                return chip;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,202 @@
+package com.wcmarshall.jpropsim;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import com.wcmarshall.jpropsim.jfr.FileReadEvent;
+
+/**
+ * Boot path of the P8X32A, following the ROM booter (P8X32A_Emulation/booter.src).
+ *
+ * A serial load fills hub RAM with the longs the host sends, clears whatever the image did not
+ * cover, plants two $FFF9FFFF longs below DBASE for the interpreter's initial stack frame and checks
+ * that every byte of RAM sums to zero. An EEPROM boot copies the first 32KB of the EEPROM into RAM
+ * as they are, with no markers and no checksum. Either way the booter checks PBASE and relaunches
+ * cog 0 with the Spin interpreter from ROM. The serial and I2C protocols themselves are not
+ * simulated; the image is placed in RAM directly.
+ */
+public class Booter {
+
+    /**
+     * Where the booter takes the image from
+     */
+    public enum Source {
+        /** a .binary image, sent by the host over the serial port */
+        SERIAL,
+        /** a .eeprom image, read from the boot EEPROM */
+        EEPROM;
+
+        /**
+         * @return EEPROM for a file named .eeprom, SERIAL for anything else
+         */
+        public static Source of(File file) {
+            return file.getName().toLowerCase().endsWith(".eeprom") ? EEPROM : SERIAL;
+        }
+    }
+
+    public static final int RAM_SIZE = 0x8000;
+
+    public static final int INTERPRETER_ADDR = 0xF004;
+    public static final int INTERPRETER_PAR = 0x0004;
+
+    private static final int CLKFREQ_OFFSET = 0x0000;
+    private static final int CLKMODE_OFFSET = 0x0004;
+    private static final int PBASE_OFFSET = 0x0006;
+    private static final int VBASE_OFFSET = 0x0008;
+    private static final int DBASE_OFFSET = 0x000A;
+
+    private static final int PBASE = 0x0010;
+    private static final int LOAD_LONGS = 0x1F0;
+    private static final int STACK_MARKER = 0xFFF9FFFF;
+
+    /**
+     * Reads a .binary (RAM image up to VBASE) or .eeprom (full 32KB dump, or more for larger parts)
+     * file. Only the first 32KB are used, as the booter reads no further.
+     *
+     * @param file image to read
+     * @return image bytes, at most 32KB
+     * @throws IOException if the file cannot be read or is too short to hold a header
+     */
+    public static byte[] readImage(File file) throws IOException {
+        int length = (int) Math.min(file.length(), RAM_SIZE);
+        if (length < 0x10)
+            throw new IOException("Image is too short to contain a header: " + file);
+
+        FileReadEvent event = new FileReadEvent();
+        event.begin();
+        byte[] image = new byte[length];
+        try (FileInputStream input = new FileInputStream(file)) {
+            int offset = 0;
+            while (offset < length) {
+                int count = input.read(image, offset, length - offset);
+                if (count < 0)
+                    throw new IOException("Unexpected end of image: " + file);
+                offset += count;
+            }
+        }
+        if (event.shouldCommit()) {
+            event.path = file.getPath();
+            event.bytes = length;
+            event.commit();
+        }
+        return image;
+    }
+
+    /**
+     * Builds the contents of hub RAM exactly as the booter leaves it before launching the interpreter,
+     * for an image sent over the serial port
+     *
+     * @param image .binary image
+     * @return 32KB RAM image
+     * @throws IOException if the image fails the booter's PBASE or checksum tests
+     */
+    public static byte[] prepareRam(byte[] image) throws IOException {
+        return prepareRam(image, Source.SERIAL);
+    }
+
+    /**
+     * Builds the contents of hub RAM exactly as the booter leaves it before launching the interpreter
+     *
+     * @param image .binary or .eeprom image
+     * @param source where the booter takes the image from
+     * @return 32KB RAM image
+     * @throws IOException if the image fails the booter's PBASE test, or for a serial load its DBASE or
+     *                     checksum tests
+     */
+    public static byte[] prepareRam(byte[] image, Source source) throws IOException {
+        byte[] ram = new byte[RAM_SIZE];
+        // serial loads are whole longs, everything beyond is zeroed; an EEPROM boot copies every byte, and
+        // anything past the end of a short .eeprom file is taken as zero
+        int length = Math.min((source == Source.SERIAL) ? image.length & ~0b11 : image.length, RAM_SIZE);
+        System.arraycopy(image, 0, ram, 0, length);
+
+        int pbase = getWord(ram, PBASE_OFFSET);
+        if (pbase != PBASE)
+            throw new IOException(String.format("Invalid PBASE $%04X, expected $%04X", pbase, PBASE));
+        if (source == Source.EEPROM)
+            return ram;
+
+        int dbase = getWord(ram, DBASE_OFFSET);
+        if (dbase < 8 || dbase > RAM_SIZE)
+            throw new IOException(String.format("Invalid DBASE $%04X", dbase));
+        putLong(ram, dbase - 4, STACK_MARKER);
+        putLong(ram, dbase - 8, STACK_MARKER);
+
+        int sum = 0;
+        for (byte b : ram)
+            sum += b;
+        if ((sum & 0xFF) != 0)
+            throw new IOException(String.format("Checksum error, RAM sums to $%02X", sum & 0xFF));
+
+        return ram;
+    }
+
+    /**
+     * Boots a hub from an image sent over the serial port
+     *
+     * @see #boot(Hub, byte[], Source, boolean)
+     */
+    public static void boot(Hub hub, byte[] image, boolean fast) throws IOException {
+        boot(hub, image, Source.SERIAL, fast);
+    }
+
+    /**
+     * Boots a hub from an image. Every cog is stopped, RAM is replaced, and cog 0 is started with the
+     * interpreter and PAR pointing at the image header.
+     *
+     * @param hub hub to boot
+     * @param image .binary or .eeprom image
+     * @param source where the booter takes the image from
+     * @param fast if true, cog 0 starts with the interpreter already in cog RAM, landing directly in
+     *             the post-boot state instead of spending 496 hub windows loading it. The clock is moved
+     *             on by the cycles the load would have taken, so both boots go on identically
+     * @throws IOException if the image fails the booter's checks, in which case the hub is untouched
+     */
+    public static void boot(Hub hub, byte[] image, Source source, boolean fast) throws IOException {
+        byte[] ram = prepareRam(image, source);
+
+        for (int i = 0; i < 8; i++)
+            hub.getCog(i).stop();
+        hub.loadRam(ram);
+        if (fast)
+            hub.advanceStopped(loadCycles(hub.getCnt(), hub.getAlignment(), 0));
+        hub.getCog(0).start(INTERPRETER_ADDR, INTERPRETER_PAR, fast);
+    }
+
+    /**
+     * @return cycles from starting a cog to its first instruction, one long being loaded on each of its hub
+     * windows and the program starting on the cycle after the last
+     */
+    private static long loadCycles(int cnt, int alignment, int cogId) {
+        int windows = 0;
+        for (long n = 0; ; n++) {
+            if (alignment == cogId && ++windows == LOAD_LONGS)
+                return n + 1;
+            // as in Hub.tick(), alignment moves on each time CNT becomes even
+            if ((++cnt & 1) == 0)
+                alignment = (alignment + 1) % 8;
+        }
+    }
+
+    public static int getClkfreq(byte[] image) {
+        return getWord(image, CLKFREQ_OFFSET) | (getWord(image, CLKFREQ_OFFSET + 2) << 16);
+    }
+
+    public static int getClkmode(byte[] image) {
+        return image[CLKMODE_OFFSET] & 0xFF;
+    }
+
+    public static int getVbase(byte[] image) {
+        return getWord(image, VBASE_OFFSET);
+    }
+
+    private static int getWord(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8);
+    }
+
+    private static void putLong(byte[] data, int offset, int value) {
+        for (int i = 0; i < 4; i++)
+            data[offset + i] = (byte) (value >> 8 * i);
+    }
+}
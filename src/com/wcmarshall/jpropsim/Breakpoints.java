@@ -0,0 +1,313 @@
+package com.wcmarshall.jpropsim;
+
+import java.util.Arrays;
+
+/**
+ * Breakpoints on cog PC, watchpoints on hub RAM and cog register writes, and pin edge triggers.
+ *
+ * Everything is compiled into flat tables that the simulator consults only where something is set: a
+ * per-address flag array in each cog with a breakpoint or watched register, and a bitmap of 64 byte hub
+ * pages plus a byte map of the watched hub addresses. Nothing is checked while no breakpoints are installed.
+ * A hit asks the hub to stop, and {@link Hub#run(long, java.util.function.Predicate)} returns after the cycle
+ * in which it fired. Only the first hit of a run is kept.
+ *
+ * Cogs running Spin natively do not pass through PASM addresses or the interpreter's registers, so PC
+ * breakpoints and register watches on them only fire once they return to PASM. Install with {@link Hub#setBreakpoints(Breakpoints)}.
+ */
+public class Breakpoints {
+
+    public enum Kind { PC, HUB_WRITE, REGISTER_WRITE, PIN_EDGE }
+
+    /**
+     * What stopped the simulation
+     */
+    public static class Hit {
+        private final Kind kind;
+        private final int cog, address, value;
+        private final long cycle;
+
+        Hit(Kind kind, int cog, int address, int value, long cycle) {
+            this.kind = kind;
+            this.cog = cog;
+            this.address = address;
+            this.value = value;
+            this.cycle = cycle;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * @return cog that hit, or -1 for pin edges and hub writes from outside the simulation
+         */
+        public int getCog() {
+            return cog;
+        }
+
+        /**
+         * @return cog address, hub address, register or pin
+         */
+        public int getAddress() {
+            return address;
+        }
+
+        /**
+         * @return value written, or the new level of the pin
+         */
+        public int getValue() {
+            return value;
+        }
+
+        public long getCycle() {
+            return cycle;
+        }
+
+        @Override
+        public String toString() {
+            switch (kind) {
+                case PC:
+                    return String.format("cog %d breakpoint at $%03X", cog, address);
+                case HUB_WRITE:
+                    return String.format("cog %d wrote $%X to hub $%04X", cog, value, address);
+                case REGISTER_WRITE:
+                    return String.format("cog %d wrote $%08X to register $%03X", cog, value, address);
+                default:
+                    return String.format("P%d %s", address, (value != 0) ? "rising" : "falling");
+            }
+        }
+    }
+
+    private static final int NUM_COGS = 8;
+    private static final int COG_RAM_SIZE = 512;
+    private static final int HUB_RAM_SIZE = 32768;
+    private static final int PAGE_SHIFT = 6;
+
+    private Hub hub;
+
+    // null for cogs without any
+    private final boolean[][] pcBreaks = new boolean[NUM_COGS][];
+    private final boolean[][] registerWatches = new boolean[NUM_COGS][];
+
+    // one bit per 64 byte page, consulted before the per-byte map
+    private final long[] hubPages = new long[HUB_RAM_SIZE >> PAGE_SHIFT >> 6];
+    private final boolean[] hubWatches = new boolean[HUB_RAM_SIZE];
+    private int hubWatchCount = 0;
+
+    private int risingMask = 0, fallingMask = 0;
+    private int lastLevels = 0;
+
+    private final Peripheral pinWatch = new Peripheral() {
+        @Override
+        public int getPinMask() {
+            return risingMask | fallingMask;
+        }
+
+        @Override
+        public void pinsChanged(Hub hub, int outa, int dira, int changed) {
+            pins(hub);
+        }
+    };
+
+    private Hit hit;
+
+    /**
+     * Stops when a cog issues the instruction at an address
+     */
+    public void addBreakpoint(int cog, int address) {
+        cog &= 0b111;
+        if (pcBreaks[cog] == null)
+            pcBreaks[cog] = new boolean[COG_RAM_SIZE];
+        pcBreaks[cog][address & 0x1FF] = true;
+        refresh();
+    }
+
+    public void removeBreakpoint(int cog, int address) {
+        cog &= 0b111;
+        if (pcBreaks[cog] == null) return;
+        pcBreaks[cog][address & 0x1FF] = false;
+        if (isEmpty(pcBreaks[cog]))
+            pcBreaks[cog] = null;
+        refresh();
+    }
+
+    /**
+     * Stops when a cog writes a register, including through a counter
+     */
+    public void addRegisterWatch(int cog, int register) {
+        cog &= 0b111;
+        if (registerWatches[cog] == null)
+            registerWatches[cog] = new boolean[COG_RAM_SIZE];
+        registerWatches[cog][register & 0x1FF] = true;
+        refresh();
+    }
+
+    public void removeRegisterWatch(int cog, int register) {
+        cog &= 0b111;
+        if (registerWatches[cog] == null) return;
+        registerWatches[cog][register & 0x1FF] = false;
+        if (isEmpty(registerWatches[cog]))
+            registerWatches[cog] = null;
+        refresh();
+    }
+
+    /**
+     * Stops when any byte in a range of hub RAM is written
+     *
+     * @param address first hub address
+     * @param length bytes
+     */
+    public void addHubWatch(int address, int length) {
+        for (int a = address; a < address + length; a++) {
+            int i = a & (HUB_RAM_SIZE - 1);
+            if (!hubWatches[i]) {
+                hubWatches[i] = true;
+                hubWatchCount++;
+            }
+            int page = i >> PAGE_SHIFT;
+            hubPages[page >> 6] |= 1L << page;
+        }
+        refresh();
+    }
+
+    public void removeHubWatch(int address, int length) {
+        for (int a = address; a < address + length; a++) {
+            int i = a & (HUB_RAM_SIZE - 1);
+            if (hubWatches[i]) {
+                hubWatches[i] = false;
+                hubWatchCount--;
+            }
+        }
+        Arrays.fill(hubPages, 0);
+        for (int i = 0; i < HUB_RAM_SIZE; i++) {
+            if (hubWatches[i]) {
+                int page = i >> PAGE_SHIFT;
+                hubPages[page >> 6] |= 1L << page;
+            }
+        }
+        refresh();
+    }
+
+    /**
+     * Stops on an edge of a pin, as seen from outside the chip
+     *
+     * @param pin port A pin
+     * @param rising stop on low to high
+     * @param falling stop on high to low
+     */
+    public void addPinEdge(int pin, boolean rising, boolean falling) {
+        int mask = 1 << (pin & 31);
+        if (rising) risingMask |= mask;
+        if (falling) fallingMask |= mask;
+        refresh();
+    }
+
+    public void removePinEdge(int pin) {
+        int mask = 1 << (pin & 31);
+        risingMask &= ~mask;
+        fallingMask &= ~mask;
+        refresh();
+    }
+
+    /**
+     * @return first hit since the last {@link #clearHit()}, or null
+     */
+    public Hit getHit() {
+        return hit;
+    }
+
+    public void clearHit() {
+        hit = null;
+    }
+
+    void attach(Hub hub) {
+        this.hub = hub;
+        lastLevels = levels(hub);
+        refresh();
+    }
+
+    void detach(Hub hub) {
+        for (int i = 0; i < NUM_COGS; i++) {
+            hub.getCog(i).setBreakpointTables(null, null);
+        }
+        hub.removePeripheral(pinWatch);
+        this.hub = null;
+    }
+
+    /**
+     * Pushes the tables to the cogs, and watches pins only while there are edge triggers
+     */
+    private void refresh() {
+        if (hub == null) return;
+        for (int i = 0; i < NUM_COGS; i++) {
+            hub.getCog(i).setBreakpointTables(pcBreaks[i], registerWatches[i]);
+        }
+        hub.breakpointsChanged(getHubPages(), risingMask | fallingMask);
+        hub.removePeripheral(pinWatch);
+        if ((risingMask | fallingMask) != 0) {
+            lastLevels = levels(hub);
+            hub.addPeripheral(pinWatch);
+        }
+    }
+
+    /**
+     * @return bitmap of 64 byte hub pages holding a watched address, or null if no hub address is watched
+     */
+    long[] getHubPages() {
+        return (hubWatchCount == 0) ? null : hubPages;
+    }
+
+    private static boolean isEmpty(boolean[] flags) {
+        for (boolean f : flags) {
+            if (f) return false;
+        }
+        return true;
+    }
+
+    private static int levels(Hub hub) {
+        int dira = hub.getDira();
+        return (hub.getOuta() & dira) | (hub.getPinInputs() & ~dira);
+    }
+
+    private void stop(Hit h) {
+        if (hit == null)
+            hit = h;
+        hub.requestStop();
+    }
+
+    void pc(Cog cog, int pc) {
+        stop(new Hit(Kind.PC, cog.getID(), pc, 0, hub.getCycles()));
+    }
+
+    void registerWrite(Cog cog, int register, int value) {
+        stop(new Hit(Kind.REGISTER_WRITE, cog.getID(), register, value, hub.getCycles()));
+    }
+
+    /**
+     * Called for writes that touch a watched page
+     *
+     * @param cog cog that wrote, or null for writes from outside the simulation
+     */
+    void hubWrite(Cog cog, int base, int value, int count) {
+        for (int i = 0; i < count; i++) {
+            if (hubWatches[base + i]) {
+                stop(new Hit(Kind.HUB_WRITE, (cog == null) ? -1 : cog.getID(), base, value, hub.getCycles()));
+                return;
+            }
+        }
+    }
+
+    /**
+     * Called when a pin input from outside changes, and by the pin peripheral on output changes
+     */
+    void pins(Hub hub) {
+        int levels = levels(hub);
+        int changed = levels ^ lastLevels;
+        lastLevels = levels;
+        int edges = (changed & levels & risingMask) | (changed & ~levels & fallingMask);
+        if (edges != 0) {
+            int pin = Integer.numberOfTrailingZeros(edges);
+            stop(new Hit(Kind.PIN_EDGE, -1, pin, (levels >>> pin) & 1, hub.getCycles()));
+        }
+    }
+}
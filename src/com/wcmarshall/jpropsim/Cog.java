@@ -1,6 +1,9 @@
 package com.wcmarshall.jpropsim;
 
 import com.wcmarshall.jpropsim.disassembler.Instruction;
+import com.wcmarshall.jpropsim.jfr.CogLoadEvent;
+import com.wcmarshall.jpropsim.spin.SpinInterpreter;
+import com.wcmarshall.jpropsim.spin.SpinProfiler;
 
 public class Cog {
 
@@ -21,6 +24,12 @@ public class Cog {
     public static final int VCFG_ADDR = 0x1FE;
     public static final int VSCL_ADDR = 0x1FF;
 
+    private static final int WAITCNT = 0b111110;
+    private static final int WAITVID = 0b111111;
+
+    // suspended by idle skipping in a WAITCNT, WAITPEQ or WAITPNE, or in a loop that cannot change anything
+    private static final int AWAKE = 0, WAITING = 1, LOOPING = 2;
+
     private final Hub hub;
 
     private final int id;
@@ -37,12 +46,53 @@ public class Cog {
     private Instruction current, next;
 
     private Counter counterA, counterB;
+    // the counters have ticked up to, not including, this cycle; later ticks are applied to PHSA and PHSB
+    // when they are read, or on the cycle a counter is due to drive a pin
+    private long counterSince;
+    private long counterDue = Long.MAX_VALUE;
+    // a counter mode reads pins, so must be brought up to date when they change
+    private boolean counterReadsPins;
+    // clocked by counter A, so ticks with the counters on every cycle it is enabled
+    private VideoGenerator video;
+
+    private SpinInterpreter spin;
+    private SpinProfiler spinProfiler;
+    private boolean spinImage = false;
+    // set once a native interpreter hands the cog back to PASM, so that none is attached again
+    private boolean spinDetached = false;
+    private PasmProfiler pasmProfiler;
+    private InstructionTrace trace;
+    private long loadStart;
+
+    // null unless a breakpoint or register watch is set on this cog
+    private boolean[] pcBreaks, registerWatches;
+
+    private Translator translator;
+    // the translator, while nothing needs to see each instruction
+    private Translator activeTranslator;
+    // block being run, the operation in it the PC is at, and the cycles until that operation next acts
+    private Translator.Block block;
+    private int blockOp, blockWait;
+
+    // a profiler, trace or breakpoint needs to see each instruction
+    private boolean observed;
+    private int idleState = AWAKE;
+    // ticks spent suspended, and the tick on which a WAITCNT falls due
+    private long idleTicks, idleWake;
+    // loop watched for an iteration that leaves its registers unchanged: when it was last entered, the
+    // registers and flags it was entered with, and its period once suspended
+    private Translator.Block loopBlock;
+    private long loopEntered;
+    private int[] loopValues = new int[0];
+    private boolean loopZ, loopC;
+    private int loopPeriod;
 
     public Cog(Hub hub, int id) {
         this.id = id;
         this.hub = hub;
         this.counterA = new Counter(this);
         this.counterB = new Counter(this);
+        this.video = new VideoGenerator(this);
     }
 
     public int getID() {
@@ -55,17 +105,358 @@ public class Cog {
 
     public void setPC(int n) {
         pc = n;
+        block = null;
+        if (pc == SpinInterpreter.LOOP_ADDR && spin == null && spinImage && !spinDetached
+                && hub.getSpinTiming() != null)
+            spin = SpinInterpreter.resume(this, hub.getSpinTiming());
+        if (activeTranslator != null && enterBlock())
+            return;
+        if (loopBlock != null)
+            forgetLoop();
         current = new Instruction(cogram[pc]);
         next = new Instruction(cogram[pc+1]);
+        if (pc == SpinInterpreter.LOOP_ADDR && spinProfiler != null && spin == null)
+            spinFetch();
+        if (pcBreaks != null && pcBreaks[pc])
+            hub.getBreakpoints().pc(this, pc);
     }
 
     public void incrementPC() {
         pc++;
+        block = null;
+        if (pc == SpinInterpreter.LOOP_ADDR && spin == null && spinImage && !spinDetached
+                && hub.getSpinTiming() != null)
+            spin = SpinInterpreter.resume(this, hub.getSpinTiming());
+        // the prefetched instruction must still be what the block was translated from
+        if (activeTranslator != null && next.getEncodedInstr() == cogram[pc] && enterBlock())
+            return;
+        if (loopBlock != null)
+            forgetLoop();
         current = next;
         next = new Instruction(cogram[pc+1]);
+        if (pc == SpinInterpreter.LOOP_ADDR && spinProfiler != null && spin == null)
+            spinFetch();
+        if (pcBreaks != null && pcBreaks[pc])
+            hub.getBreakpoints().pc(this, pc);
+    }
+
+    /**
+     * Called by the hub's {@link Breakpoints} with the flags of this cog's addresses, each null if none are set
+     */
+    void setBreakpointTables(boolean[] pcBreaks, boolean[] registerWatches) {
+        this.pcBreaks = pcBreaks;
+        this.registerWatches = registerWatches;
+        updateTranslation();
+    }
+
+    /**
+     * @param translator translator for this cog's code, or null to interpret every instruction
+     */
+    void setTranslator(Translator translator) {
+        this.translator = translator;
+        updateTranslation();
+    }
+
+    Translator getTranslator() {
+        return translator;
+    }
+
+    /**
+     * Blocks are only entered while no profiler, trace or breakpoint needs to see each instruction
+     */
+    private void updateTranslation() {
+        observed = pasmProfiler != null || trace != null || spinProfiler != null || pcBreaks != null
+                || registerWatches != null;
+        activeTranslator = observed ? null : translator;
+        settle();
+    }
+
+    private boolean enterBlock() {
+        Translator.Block b = activeTranslator.enter(pc);
+        if (b == null)
+            return false;
+        block = b;
+        blockOp = 0;
+        // decoded on demand should anything look at the cog while it is in the block
+        current = null;
+        next = null;
+        if (b.loopRegisters != null && idleAllowed()) {
+            // the first operation is issued on waking, so that it still holds how it last ran
+            if (loopEntered(b))
+                return true;
+        } else if (loopBlock != null) {
+            forgetLoop();
+        }
+        blockWait = b.ops[0].issue(this);
+        return true;
+    }
+
+    /**
+     * Suspends the cog if a loop has just gone round without changing anything, otherwise starts watching it
+     *
+     * @return true if suspended
+     */
+    private boolean loopEntered(Translator.Block b) {
+        long now = hub.getCycles();
+        if (b == loopBlock && loopUnchanged(b)) {
+            long period = now - loopEntered;
+            // reads must meet the hub window at the same point of each iteration
+            if (!b.readsHub || period % 16 == 0) {
+                loopPeriod = (int) period;
+                suspend(LOOPING, Long.MAX_VALUE, b.readsPins, b.readsHub);
+                return true;
+            }
+        }
+        loopBlock = b;
+        loopEntered = now;
+        int[] registers = b.loopRegisters;
+        if (loopValues.length != registers.length)
+            loopValues = new int[registers.length];
+        for (int i = 0; i < registers.length; i++)
+            loopValues[i] = cogram[registers[i]];
+        loopZ = zflag;
+        loopC = cflag;
+        hub.setIdleWatch(this, b.readsPins, b.readsHub, false);
+        return false;
+    }
+
+    private boolean loopUnchanged(Translator.Block b) {
+        if (zflag != loopZ || cflag != loopC)
+            return false;
+        int[] registers = b.loopRegisters;
+        for (int i = 0; i < registers.length; i++) {
+            if (cogram[registers[i]] != loopValues[i])
+                return false;
+        }
+        return true;
+    }
+
+    private void forgetLoop() {
+        loopBlock = null;
+        hub.setIdleWatch(this, false, false, false);
+    }
+
+    private boolean idleAllowed() {
+        return !observed && hub.isIdleSkipping() && hub.getMetrics() == null;
+    }
+
+    private void suspend(int state, long wake, boolean pins, boolean hubRam) {
+        idleState = state;
+        idleTicks = 0;
+        idleWake = wake;
+        hub.setIdleWatch(this, pins, hubRam, true);
+    }
+
+    /**
+     * Wakes the cog if idle skipping suspended it, bringing its PC, registers and the progress of the
+     * instruction it is in to where they would be had it kept running. Call before looking at a cog that
+     * may be suspended; changes the cog could notice wake it by themselves.
+     */
+    public void settle() {
+        if (idleState == AWAKE && loopBlock == null)
+            return;
+        int state = idleState;
+        idleState = AWAKE;
+        if (state == LOOPING)
+            catchUp();
+        forgetLoop();
+    }
+
+    /**
+     * Replays the operations the skipped part of the loop's last iteration completed, and resumes the one it
+     * was in
+     */
+    private void catchUp() {
+        Translator.Op[] ops = block.ops;
+        int elapsed = (int) (idleTicks % loopPeriod);
+        int k = 0;
+        while (elapsed >= ops[k].lastCycles()) {
+            // elapsed is less than a whole iteration, so the jump back is never replayed
+            if (!(ops[k] instanceof Translator.Replayable))
+                throw new IllegalStateException(String.format("Cannot replay $%03X in the loop at $%03X",
+                        ops[k].address, block.start));
+            elapsed -= ops[k].lastCycles();
+            pc = ops[k].address;
+            ((Translator.Replayable) ops[k]).replay(this);
+            k++;
+        }
+        blockOp = k;
+        pc = ops[k].address;
+        current = null;
+        next = null;
+        blockWait = ops[k].resume(elapsed);
+    }
+
+    /**
+     * Called by the hub before an input pin or a DIRA register changes
+     */
+    void pinsChanging() {
+        if (idleState != AWAKE)
+            settle();
+        else
+            forgetLoop();
+    }
+
+    /**
+     * Called by the hub before bytes of hub RAM are written
+     */
+    void hubWriting(int base, int count) {
+        if (loopBlock != null && loopBlock.readsHub(base, count)) {
+            if (idleState != AWAKE)
+                settle();
+            else
+                forgetLoop();
+        }
+    }
+
+    /**
+     * @return true if the cog is suspended, so that the hub can skip cycles for it
+     */
+    boolean isIdle() {
+        return idleState != AWAKE;
+    }
+
+    /**
+     * @return cycles the hub can skip before the cog must tick again, for its WAITCNT or its counters
+     */
+    long idleCyclesLeft() {
+        long left = counterDue - hub.getCycles();
+        return (idleWake == Long.MAX_VALUE) ? left : Math.min(left, idleWake - idleTicks - 1);
+    }
+
+    /**
+     * Called by the hub after skipping cycles for a suspended cog
+     */
+    void idleSkipped(long cycles) {
+        idleTicks += cycles;
+    }
+
+    /**
+     * Lets the current operation of a block act, and moves on to the next one when it is done
+     */
+    private void stepBlock() {
+        Translator.Block b = block;
+        int wait = b.ops[blockOp].act(this);
+        if (wait == Translator.JUMPED)
+            return;
+        if (wait > 0) {
+            blockWait = wait;
+            return;
+        }
+        if (++blockOp == b.ops.length) {
+            setPC(b.end());
+            return;
+        }
+        Translator.Op op = b.ops[blockOp];
+        pc = op.address;
+        current = null;
+        next = null;
+        blockWait = op.issue(this);
+    }
+
+    /**
+     * Called by a fused operation as it completes one of its instructions and goes on to the next
+     */
+    void advanceBlockPC() {
+        pc++;
+        current = null;
+        next = null;
+    }
+
+    /**
+     * Called by an operation to show an instruction in a changed state, such as DJNZ falling through, in
+     * place of the one decoded from cog RAM
+     */
+    void holdInstruction(Instruction instruction) {
+        current = instruction;
+    }
+
+    private void clearBlock() {
+        block = null;
+        idleState = AWAKE;
+        forgetLoop();
+        if (translator != null)
+            translator.reset();
+    }
+
+    private void spinFetch() {
+        spinProfiler.fetch(this, cogram[SpinInterpreter.PBASE_ADDR], cogram[SpinInterpreter.PCURR_ADDR]);
+    }
+
+    public boolean isProgramLoaded() {
+        return prog_loaded;
+    }
+
+    public int getHubProgramAddress() {
+        return hub_prog_addr;
+    }
+
+    public int getProgramLoadCount() {
+        return prog_load_count;
+    }
+
+    /**
+     * @return instruction being executed, or null if the cog has not begun executing
+     */
+    public Instruction getCurrentInstruction() {
+        if (block != null && current == null)
+            decodeBlock();
+        return current;
+    }
+
+    /**
+     * @return instruction already fetched into the pipeline behind the current one
+     */
+    public Instruction getNextInstruction() {
+        if (block != null && next == null)
+            decodeBlock();
+        return next;
+    }
+
+    private void decodeBlock() {
+        if (current == null)
+            current = new Instruction(cogram[pc]);
+        if (next == null)
+            next = new Instruction(cogram[pc+1]);
+    }
+
+    /**
+     * Restores state saved by {@link Snapshot}. The in-flight instructions are decoded from their saved
+     * encodings rather than cog RAM, so a pipelined fetch of since-modified code is preserved.
+     */
+    void restore(boolean running, boolean prog_loaded, int hub_prog_addr, int prog_load_count, int pc,
+                 boolean zflag, boolean cflag, int[] cogram, int current, int next) {
+        this.running = running;
+        this.prog_loaded = prog_loaded;
+        this.hub_prog_addr = hub_prog_addr;
+        this.prog_load_count = prog_load_count;
+        this.spin = null;
+        this.spinDetached = false;
+        this.spinImage = hub_prog_addr == SpinInterpreter.INTERPRETER_ADDR;
+        this.spinProfiler = spinImage ? hub.getSpinProfiler() : null;
+        updateTranslation();
+        clearBlock();
+        video.reset();
+        this.pc = pc;
+        this.zflag = zflag;
+        this.cflag = cflag;
+        startCounters(hub.getCycles());
+        for (int i = 0; i < this.cogram.length; i++) {
+            setLong(i, cogram[i]);
+        }
+        // PAR and the other read-only registers are skipped by setLong
+        this.cogram[PAR_ADDR] = cogram[PAR_ADDR];
+        if (prog_loaded) {
+            this.current = new Instruction(current);
+            this.next = new Instruction(next);
+        } else {
+            this.current = null;
+            this.next = null;
+        }
     }
 
     public int[] getCogram() {
+        syncCounters();
         return cogram.clone();
     }
 
@@ -94,18 +485,55 @@ public class Cog {
             case INB_ADDR:
                 // unimplemented on P8X32A
                 return 0;
+            case PHSA_ADDR:
+            case PHSB_ADDR:
+                syncCounters();
+                return cogram[addr];
             default:
                 return cogram[addr];
         }
     }
 
     public void setLong(int addr, int value) {
+        if (registerWatches != null && registerWatches[addr])
+            hub.getBreakpoints().registerWrite(this, addr, value);
+        if (addr < PAR_ADDR) {
+            // an outside write, such as from a debugger, may change what a suspended cog would do
+            if (idleState != AWAKE)
+                settle();
+            if (translator != null)
+                translator.written(addr);
+        }
         switch (addr) {
             case PAR_ADDR:
             case CNT_ADDR:
             case INA_ADDR:
             case INB_ADDR:
                 return;
+            case OUTA_ADDR:
+            case DIRA_ADDR:
+                if (cogram[addr] != value) {
+                    if (addr == DIRA_ADDR)
+                        hub.pinsChanging();
+                    else
+                        // a counter driving a pin puts it back on its next tick
+                        counterDue = Math.min(counterDue, nextTick());
+                    hub.markPinsDirty();
+                }
+                cogram[addr] = value;
+                return;
+            case CTRA_ADDR:
+            case CTRB_ADDR:
+            case FRQA_ADDR:
+            case FRQB_ADDR:
+            case PHSA_ADDR:
+            case PHSB_ADDR:
+            case VCFG_ADDR:
+                // ticks so far count with the old settings, the next with the new
+                syncCounters();
+                cogram[addr] = value;
+                counterDue = Math.min(counterDue, nextTick());
+                return;
             default:
                 cogram[addr] = value;
         }
@@ -135,6 +563,18 @@ public class Cog {
     }
 
     public void start(int hub_prog_addr, int arg) {
+        start(hub_prog_addr, arg, false);
+    }
+
+    /**
+     * Starts the cog
+     *
+     * @param hub_prog_addr hub address of the program to load
+     * @param arg value for PAR
+     * @param preload if true, the program is copied into cog RAM immediately and the cog begins executing
+     *                on its next tick, instead of loading one long per hub window as the hardware does
+     */
+    public void start(int hub_prog_addr, int arg, boolean preload) {
         for (int i = 0; i < 0x1ff; i++) {
             setLong(i, 0);
         }
@@ -142,13 +582,220 @@ public class Cog {
         this.prog_loaded = false;
         this.hub_prog_addr = hub_prog_addr;
         this.prog_load_count = 0;
+        this.loadStart = hub.getCycles();
+        this.current = null;
+        this.next = null;
+        this.spin = null;
+        this.spinDetached = false;
+        this.spinImage = false;
+        this.spinProfiler = null;
+        updateTranslation();
+        clearBlock();
+        video.reset();
         this.setCFlag(false);
         this.setZFlag(false);
         cogram[PAR_ADDR] = arg;
+
+        if (preload) {
+            for (; prog_load_count <= 0x1ef; prog_load_count++) {
+                this.setLong(prog_load_count, hub.getLong(this.hub_prog_addr + 4 * prog_load_count));
+            }
+            prog_loaded = true;
+            startCounters(nextTick());
+            setPC(0);
+            loadComplete();
+        }
+    }
+
+    private void loadComplete() {
+        spinImage = SpinInterpreter.matches(this);
+        spinProfiler = spinImage ? hub.getSpinProfiler() : null;
+        updateTranslation();
+        if (spinImage && hub.getSpinTiming() != null)
+            spin = SpinInterpreter.attach(this, hub.getSpinTiming());
+
+        CogLoadEvent event = new CogLoadEvent();
+        if (event.shouldCommit()) {
+            event.cog = id;
+            event.hubAddress = hub_prog_addr;
+            event.loadCycles = hub.getCycles() - loadStart;
+            event.spinInterpreter = spinImage;
+            event.commit();
+        }
+    }
+
+    public void setPasmProfiler(PasmProfiler profiler) {
+        this.pasmProfiler = profiler;
+        updateTranslation();
+    }
+
+    private void executeTraced() {
+        Instruction issued = current;
+        int issuedPc = pc;
+        current.execute(this);
+        // every PC change decodes a new instruction
+        if (current != issued)
+            trace.retire(this, issuedPc, issued);
+    }
+
+    public void setTrace(InstructionTrace trace) {
+        this.trace = trace;
+        updateTranslation();
+    }
+
+    /**
+     * Called by a hub instruction for each cycle it waits for the cog's hub window
+     */
+    public void hubStall() {
+        if (pasmProfiler != null)
+            pasmProfiler.hubStall(this);
+    }
+
+    /**
+     * Called by a hub instruction when it reaches the cog's hub window
+     *
+     * @param waited cycles spent waiting for the window
+     */
+    public void hubAccess(int waited) {
+        HubMetrics metrics = hub.getMetrics();
+        if (metrics != null)
+            metrics.access(this, waited);
+    }
+
+    /**
+     * Called by WAITCNT, WAITPEQ, WAITPNE and WAITVID for each cycle they remain blocked
+     */
+    public void waitBlocked() {
+        if (pasmProfiler != null)
+            pasmProfiler.waitBlocked(this);
+        else if (idleAllowed() && current.getInstr() != WAITVID) {
+            // suspended until CNT reaches the target or a pin changes
+            if (current.getInstr() == WAITCNT)
+                suspend(WAITING, (current.getDestValue(this) - hub.getCnt()) & 0xFFFFFFFFL, false, false);
+            else
+                suspend(WAITING, Long.MAX_VALUE, true, false);
+        }
+    }
+
+    /**
+     * Called by WAITVID on each cycle it waits for the video generator
+     *
+     * @return true once the generator has taken the colours and pixels for a frame
+     */
+    public boolean waitVideo(int colors, int pixels) {
+        return video.waitvid(colors, pixels);
+    }
+
+    /**
+     * @return true if the cog was loaded with the ROM Spin interpreter
+     */
+    public boolean isSpinImage() {
+        return spinImage;
+    }
+
+    public SpinProfiler getSpinProfiler() {
+        return spinProfiler;
+    }
+
+    /**
+     * Profiles this cog's Spin code, if it is running the Spin interpreter
+     *
+     * @param profiler profiler to report bytecode fetches to, or null to stop profiling
+     */
+    public void setSpinProfiler(SpinProfiler profiler) {
+        this.spinProfiler = spinImage ? profiler : null;
+        updateTranslation();
+    }
+
+    /**
+     * @return the native interpreter running this cog's Spin code, or null if the cog is running PASM
+     */
+    public SpinInterpreter getSpinInterpreter() {
+        return spin;
+    }
+
+    public void setSpinInterpreter(SpinInterpreter spin) {
+        if (spin == null && this.spin != null)
+            spinDetached = true;
+        this.spin = spin;
     }
 
     public void stop() {
+        settle();
+        syncCounters();
         running = false;
+        if (block != null) {
+            // left showing the instruction it was in, as the interpreter would
+            decodeBlock();
+            block = null;
+        }
+    }
+
+    /**
+     * @return first cycle on which the cog has not yet ticked
+     */
+    private long nextTick() {
+        return hub.hasTicked(this) ? hub.getCycles() + 1 : hub.getCycles();
+    }
+
+    /**
+     * @param first cycle of the counters' first tick
+     */
+    private void startCounters(long first) {
+        counterSince = first;
+        counterDue = first;
+    }
+
+    /**
+     * Applies the counter ticks since they were last brought up to date, which accumulate without driving pins
+     */
+    private void syncCounters() {
+        if (!running || !prog_loaded)
+            return;
+        long ticks = nextTick() - counterSince;
+        if (ticks <= 0)
+            return;
+        cogram[PHSA_ADDR] = counterA.advance(cogram[CTRA_ADDR], cogram[FRQA_ADDR], cogram[PHSA_ADDR], ticks);
+        cogram[PHSB_ADDR] = counterB.advance(cogram[CTRB_ADDR], cogram[FRQB_ADDR], cogram[PHSB_ADDR], ticks);
+        counterSince += ticks;
+    }
+
+    /**
+     * Ticks the counters on a cycle they are due, and works out when they are next due
+     */
+    private void stepCounters() {
+        syncCounters();
+        long now = hub.getCycles();
+        counterSince = now + 1;
+        int phsA = counterA.tick(cogram[CTRA_ADDR], cogram[FRQA_ADDR], cogram[PHSA_ADDR]);
+        int phsB = counterB.tick(cogram[CTRB_ADDR], cogram[FRQB_ADDR], cogram[PHSB_ADDR]);
+        boolean videoEnabled = VideoGenerator.isEnabled(cogram[VCFG_ADDR]);
+        if (videoEnabled)
+            video.clock(cogram[VCFG_ADDR], cogram[VSCL_ADDR], counterA.getPllClocks());
+        if (registerWatches != null) {
+            // a watch sees every write, so tick on every cycle
+            setLong(PHSA_ADDR, phsA);
+            setLong(PHSB_ADDR, phsB);
+            counterDue = now + 1;
+            return;
+        }
+        cogram[PHSA_ADDR] = phsA;
+        cogram[PHSB_ADDR] = phsB;
+        counterReadsPins = counterA.readsPins(cogram[CTRA_ADDR]) || counterB.readsPins(cogram[CTRB_ADDR]);
+        // the video clock is counted on every cycle
+        long due = videoEnabled ? 1 : Math.min(counterA.ticksUntilDue(cogram[CTRA_ADDR], cogram[FRQA_ADDR], phsA),
+                counterB.ticksUntilDue(cogram[CTRB_ADDR], cogram[FRQB_ADDR], phsB));
+        counterDue = (due == Long.MAX_VALUE) ? Long.MAX_VALUE : now + due;
+    }
+
+    /**
+     * Called by the hub when the level of a pin changes, before the counters next sample them
+     */
+    void pinLevelsChanged() {
+        if (counterReadsPins && running && prog_loaded) {
+            syncCounters();
+            counterDue = Math.min(counterDue, nextTick());
+        }
     }
 
     public boolean isHubAligned() {
@@ -166,17 +813,34 @@ public class Cog {
     public void tick() {
         if (running) {
             if (prog_loaded) {
-                current.execute(this);
-                // update counters
-                setLong(PHSA_ADDR, counterA.tick(getLong(CTRA_ADDR), getLong(FRQA_ADDR), getLong(PHSA_ADDR)));
-                setLong(PHSB_ADDR, counterB.tick(getLong(CTRB_ADDR), getLong(FRQB_ADDR), getLong(PHSB_ADDR)));
+                if (idleState != AWAKE && ++idleTicks == idleWake)
+                    settle();
+                if (spin != null)
+                    spin.tick();
+                else if (idleState != AWAKE) {
+                    // suspended, see settle()
+                } else if (block != null) {
+                    if (--blockWait == 0)
+                        stepBlock();
+                } else {
+                    if (pasmProfiler != null)
+                        pasmProfiler.cycle(this);
+                    if (trace != null)
+                        executeTraced();
+                    else
+                        current.execute(this);
+                }
+                if (hub.getCycles() >= counterDue)
+                    stepCounters();
             } else {
                 if (isHubAligned()) {
                     this.setLong(prog_load_count, hub.getLong(this.hub_prog_addr + 4 * prog_load_count));
                     prog_load_count++;
                     if (prog_load_count > 0x1ef) {
                         prog_loaded = true;
+                        startCounters(hub.getCycles() + 1);
                         setPC(0);
+                        loadComplete();
                     }
                 }
             }
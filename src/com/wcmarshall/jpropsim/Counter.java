@@ -1,13 +1,51 @@
 package com.wcmarshall.jpropsim;
 
+/**
+ * One of a cog's two counters, modelled on cog_ctr.v in the P8X32A Verilog.
+ *
+ * All 32 CTR modes are implemented: the PLL modes, NCO and DUTY with single-ended and differential outputs,
+ * the POS and NEG detectors with and without edge detection and feedback, and the 16 logic modes. Input
+ * pins pass through a delay register as in hardware, so a mode accumulates on the states APIN and BPIN had
+ * a cycle earlier, and an edge mode compares the last two states of APIN. Pins are read as they stood at
+ * the end of the previous cycle: driven by a cog if any cog has them as outputs, otherwise from outside.
+ * The PLL is a 36 bit accumulator whose low 32 bits are PHS, so that its output is locked to the NCO;
+ * PLLDIV picks the bit that drives the pin.
+ *
+ * The CTR register is decoded once each time it changes rather than on every tick.
+ */
 public class Counter {
 
+    private static final long PHS_MASK = 0xFFFFFFFFL;
+    private static final long PLL_MASK = 0xFFFFFFFFFL;
+
     private Cog cog;
 
+    // CTR value the fields below were decoded from
+    private int ctr = 0;
+    private int mode = 0, pina = 0, pinb = 0;
+    // bit of the PLL accumulator that drives the PLL outputs
+    private int pllTap = 34;
+
+    // the delay register: APIN in bit 0, and BPIN in the logic modes or the previous APIN otherwise
+    private int dly = 0;
+    // bits 32 to 35 of the PLL accumulator
+    private int pllHigh = 0;
+    // rising edges of the PLL output on the last tick
+    private int pllClocks = 0;
+
     public Counter(Cog c) {
         cog = c;
     }
 
+    private void decode(int ctr) {
+        this.ctr = ctr;
+        this.mode = (ctr >> 26) & 0b11111;
+        this.pina = ctr & 0b111111;
+        this.pinb = (ctr >> 9) & 0b111111;
+        // VCO is 16x the NCO, divided by 2^(7 - PLLDIV)
+        this.pllTap = 34 - ((ctr >> 23) & 0b111);
+    }
+
     /**
      *
      * Updates the counter. Since the counter is not aware of whether it is counter A or B
@@ -21,82 +59,189 @@ public class Counter {
      * @return updated phase register
      */
     public int tick(int ctr, int frq, int phs) {
+        if (ctr != this.ctr)
+            decode(ctr);
+        pllClocks = 0;
+        if (mode == 0)
+            return phs;
 
-        int mode = (ctr >> 26) & 0b11111;
-        int plldiv = (ctr >> 23) & 0b111;
-        int pina = (ctr >> 0) & 0b111111;
-        int pinb = (ctr >> 9) & 0b111111;
+        boolean carry = false;
+        if (trigger()) {
+            if (mode <= 0b00011)
+                pllClocks = risingEdges(((long) pllHigh << 32) | (phs & PHS_MASK), frq & PHS_MASK, pllTap);
+            long sum = (phs & PHS_MASK) + (frq & PHS_MASK);
+            carry = (sum >>> 32) != 0;
+            if (carry)
+                pllHigh = (pllHigh + 1) & 0b1111;
+            phs = (int) sum;
+        }
+        if (mode >= 0b01000)
+            sample(cog.getHub().getPinLevels());
 
         switch (mode) {
-            case 0b00000: // counter disabled
-                break;
-            case 0b00001: // PLL internal video mode
             case 0b00010: // PLL single ended
+                cog.setPinOut(pina, pll(phs));
+                break;
             case 0b00011: // PLL differential
+                cog.setPinOut(pina, pll(phs));
+                cog.setPinOut(pinb, !pll(phs));
+                break;
             case 0b00100: // NCO single ended
-                phs += frq;
-                cog.setPinOut(pina, (phs >>> 31) == 1);
+                cog.setPinOut(pina, phs < 0);
                 break;
             case 0b00101: // NCO differential
-                phs += frq;
-                cog.setPinOut(pina, (phs >>> 31) == 1);
-                cog.setPinOut(pina, (phs >>> 31) == 0);
+                cog.setPinOut(pina, phs < 0);
+                cog.setPinOut(pinb, phs >= 0);
                 break;
             case 0b00110: // duty single ended
-                cog.setPinOut(pina, getUnsignedCarry(phs, frq));
-                phs += frq;
+                cog.setPinOut(pina, carry);
                 break;
             case 0b00111: // duty differential
-                cog.setPinOut(pina, getUnsignedCarry(phs, frq));
-                cog.setPinOut(pina, !getUnsignedCarry(phs, frq));
-                phs += frq;
+                cog.setPinOut(pina, carry);
+                cog.setPinOut(pinb, !carry);
+                break;
+            case 0b01001: // positive w/feedback
+            case 0b01011: // positive edge w/feedback
+            case 0b01101: // negative w/feedback
+            case 0b01111: // negative edge w/feedback
+                cog.setPinOut(pinb, (dly & 1) == 0);
                 break;
+        }
+        return phs;
+    }
+
+    /**
+     * @return true if the counter accumulates on this tick, given the delay register
+     */
+    private boolean trigger() {
+        switch (mode) {
+            case 0b00000: // counter disabled
+                return false;
             case 0b01000: // positive
             case 0b01001: // positive w/feedback
+                return (dly & 1) != 0;
             case 0b01010: // positive edge
             case 0b01011: // positive edge w/feedback
+                return dly == 0b01;
             case 0b01100: // negative
             case 0b01101: // negative w/feedback
+                return (dly & 1) == 0;
             case 0b01110: // negative edge
             case 0b01111: // negative edge w/feedback
-            case 0b10000: // never
-                break;
-            case 0b10001: // !A & !B
-            case 0b10010: // A & !B
-            case 0b10011: // !B
-            case 0b10100: // !A & B
-            case 0b10101: // !A
-            case 0b10110: // A != B
-            case 0b10111: // !A | !B
-            case 0b11000: // A & B
-            case 0b11001: // A == B
-            case 0b11010: // A
-            case 0b11011: // A | !B
-            case 0b11100: // B
-            case 0b11101: // !A | B
-            case 0b11110: // A | B
-            case 0b11111: // always
-                phs += frq;
+                return dly == 0b10;
+            default:
+                if (mode < 0b01000)
+                    // PLL, NCO and DUTY modes
+                    return true;
+                // logic modes: the low 4 bits of the mode are a truth table indexed by B:A
+                return ((mode >> dly) & 1) != 0;
         }
+    }
 
-        return phs;
+    private void sample(int pins) {
+        int a = pin(pins, pina);
+        if (mode >= 0b10000)
+            dly = (pin(pins, pinb) << 1) | a;
+        else
+            dly = ((dly & 1) << 1) | a;
+    }
+
+    private static int pin(int pins, int pin) {
+        return (pin > 31) ? 0 : (pins >>> pin) & 1;
+    }
+
+    private boolean pll(int phs) {
+        long accumulator = ((long) pllHigh << 32) | (phs & PHS_MASK);
+        return ((accumulator >>> pllTap) & 1) != 0;
     }
 
     /**
-     * Calculates the carry bit resulting from the addition of two unsigned integers a & b
-     * This assumes that the formula is a+b. To calculate the carry from a-b, pass -a and b
+     * @return rising edges of the PLL output on the last tick, which clock the cog's video generator
+     */
+    public int getPllClocks() {
+        return pllClocks;
+    }
+
+    private static int risingEdges(long accumulator, long step, int bit) {
+        long period = 1L << (bit + 1), half = 1L << bit;
+        return (int) (Math.floorDiv(accumulator + step - half, period) - Math.floorDiv(accumulator - half, period));
+    }
+
+    /**
+     * @return true if the mode reads pins, so that the counter must be brought up to date when they change
+     */
+    public boolean readsPins(int ctr) {
+        return ((ctr >> 26) & 0b11111) >= 0b01000;
+    }
+
+    /**
+     * Advances the phase register over ticks in which the counter does nothing that {@link #ticksUntilDue}
+     * would have had it tick for, such as between the output edges of an NCO, or while the pins a detector
+     * or logic mode reads hold still
      *
-     * @param a first element of addition
-     * @param b second element of addition
-     * @return returns whether or not a carry bit is generated from a+b
+     * @param ticks number of ticks
+     * @return phase register after them
+     */
+    public int advance(int ctr, int frq, int phs, long ticks) {
+        if (ctr != this.ctr)
+            decode(ctr);
+        if (mode == 0 || ticks <= 0)
+            return phs;
+        boolean trigger = trigger();
+        if (mode >= 0b01000 && mode < 0b10000)
+            // the delay register has shifted APIN through
+            dly = ((dly & 1) << 1) | (dly & 1);
+        if (!trigger)
+            return phs;
+        // only the low 36 bits of the product matter, so overflow does not
+        long accumulator = ((long) pllHigh << 32) | (phs & PHS_MASK);
+        accumulator = (accumulator + (ticks & PLL_MASK) * (frq & PHS_MASK)) & PLL_MASK;
+        pllHigh = (int) (accumulator >>> 32);
+        return (int) accumulator;
+    }
+
+    /**
+     * @return ticks from now until the one on which the counter next changes an output or accumulates
+     * differently, so must tick by itself; Long.MAX_VALUE if that waits on the pins it reads changing
+     */
+    public long ticksUntilDue(int ctr, int frq, int phs) {
+        if (ctr != this.ctr)
+            decode(ctr);
+        switch (mode) {
+            case 0b00010: // PLL single ended
+            case 0b00011: // PLL differential
+                return ticksUntilEdge(((long) pllHigh << 32) | (phs & PHS_MASK), frq, pllTap);
+            case 0b00100: // NCO single ended
+            case 0b00101: // NCO differential
+                return ticksUntilEdge(phs & PHS_MASK, frq, 31);
+            case 0b00110: // duty single ended
+            case 0b00111: // duty differential
+                // the output is the carry of every addition
+                return (frq == 0) ? Long.MAX_VALUE : 1;
+            case 0b01010: // positive edge
+            case 0b01011: // positive edge w/feedback
+            case 0b01110: // negative edge
+            case 0b01111: // negative edge w/feedback
+                // an edge still in the delay register triggers on the next tick
+                return ((dly >> 1) == (dly & 1)) ? Long.MAX_VALUE : 1;
+            default:
+                return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * @return ticks until a bit of an accumulator next changes as frq is added on each
      */
-    private boolean getUnsignedCarry(int a, int b) {
-        if (a < 0 && b < 0)
-            return true;
-        if (b < 0 && b >= -a)
-            return true;
-        if (a < 0 && b >= -a)
-            return true;
-        return false;
+    private static long ticksUntilEdge(long accumulator, int frq, int bit) {
+        long f = frq & PHS_MASK;
+        if (f == 0)
+            return Long.MAX_VALUE;
+        long half = 1L << bit;
+        // a step of more than half the bit's period can skip over the next half entirely
+        if (f > half)
+            return 1;
+        long p = accumulator & (2 * half - 1);
+        long boundary = (p < half) ? half : 2 * half;
+        return (boundary - p + f - 1) / f;
     }
 }
@@ -0,0 +1,51 @@
+package com.wcmarshall.jpropsim;
+
+/**
+ * A unit of work scheduled to run on the hub at a specific system clock cycle.
+ *
+ * Times are absolute cycle counts since the hub was reset (see {@link Hub#getCycles()}), so the lower
+ * 32 bits of an event's time are the value CNT will hold when the event fires.
+ */
+public abstract class Event implements Comparable<Event> {
+
+    private long time;
+
+    private long sequence;
+
+    public Event(long time) {
+        this.time = time;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Moves the event to a new time. Must only be called while the event is not queued,
+     * typically from within {@link #fire(Hub)} before rescheduling itself.
+     *
+     * @param time new absolute cycle count
+     */
+    protected void setTime(long time) {
+        this.time = time;
+    }
+
+    void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    /**
+     * Called by the hub at the start of the cycle the event is due, before any cog ticks.
+     *
+     * @param hub hub the event was scheduled on
+     */
+    public abstract void fire(Hub hub);
+
+    @Override
+    public int compareTo(Event o) {
+        if (time != o.time)
+            return Long.compare(time, o.time);
+        // events due on the same cycle fire in the order they were scheduled
+        return Long.compare(sequence, o.sequence);
+    }
+}
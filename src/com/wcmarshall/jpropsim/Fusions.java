@@ -0,0 +1,293 @@
+package com.wcmarshall.jpropsim;
+
+import com.wcmarshall.jpropsim.disassembler.Instruction;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Registry of adjacent instruction pairs that the {@link Translator} runs as one fused operation.
+ *
+ * Each pattern matches two decoded instructions and builds an operation that gives the same results on the
+ * same cycles as the pair, with the common case computed directly instead of through each instruction's
+ * generic execution. Each instruction of the pair still acts on its own cycle and moves the PC on as it
+ * completes, so registers, flags and PC are as interpreting would leave them on every cycle, whoever looks.
+ * Each pattern counts the sites it was fused at and the times it ran.
+ *
+ * Install with {@link Hub#setFusions(Fusions)}; only translated code is fused.
+ */
+public class Fusions {
+
+    private static final int SHR = 0b001010;
+    private static final int AND = 0b011000;
+    private static final int MUXC = 0b011100;
+    private static final int MUXNC = 0b011101;
+    private static final int ADD = 0b100000;
+    private static final int DJNZ = 0b111001;
+    private static final int IF_ALWAYS = 0b1111;
+    private static final int COND_MASK = 0b1111 << 18;
+
+    /**
+     * A fusible pair of instructions
+     */
+    abstract static class Pattern {
+        final String name;
+        long sites = 0, fired = 0;
+
+        Pattern(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @param first instruction at address
+         * @param second instruction at address + 1
+         * @return fused operation, or null if the pair does not match
+         */
+        abstract Translator.Op match(Instruction first, Instruction second, int address);
+    }
+
+    private final List<Pattern> patterns = new ArrayList<>();
+
+    /**
+     * @return a registry of the idioms common in drivers: field extraction, copying a pin state into a
+     * register, stepping a hub pointer and DJNZ loop tails
+     */
+    public static Fusions standard() {
+        Fusions fusions = new Fusions();
+        fusions.register(new FieldExtract());
+        fusions.register(new TestMux());
+        fusions.register(new HubStep());
+        fusions.register(new LoopTail());
+        return fusions;
+    }
+
+    void register(Pattern pattern) {
+        patterns.add(pattern);
+    }
+
+    /**
+     * @return fused operation for the first pattern matching the pair, or null
+     */
+    Translator.Op match(Instruction first, Instruction second, int address) {
+        for (Pattern pattern : patterns) {
+            Translator.Op op = pattern.match(first, second, address);
+            if (op != null) {
+                pattern.sites++;
+                return op;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param name pattern name, as in {@link #report(Appendable)}
+     * @return times the pattern's fused operations have run
+     */
+    public long getFired(String name) {
+        for (Pattern pattern : patterns) {
+            if (pattern.name.equals(name))
+                return pattern.fired;
+        }
+        throw new IllegalArgumentException("No such fusion: " + name);
+    }
+
+    /**
+     * Writes each pattern with the sites it was fused at and the times it ran
+     */
+    public void report(Appendable out) throws IOException {
+        out.append(String.format("%-16s %8s %14s%n", "Fusion", "Sites", "Fired"));
+        for (Pattern pattern : patterns)
+            out.append(String.format("%-16s %8d %14d%n", pattern.name, pattern.sites, pattern.fired));
+    }
+
+    private static boolean plain(Instruction instruction, int instr) {
+        return instruction.getInstr() == instr && instruction.getCond() == IF_ALWAYS
+                && !instruction.writesZ() && !instruction.writesC();
+    }
+
+    /**
+     * SHR d,#n then AND d,#m, without flags: a shift and a mask with the operands already decoded
+     */
+    private static class FieldExtract extends Pattern {
+        FieldExtract() {
+            super("shr+and");
+        }
+
+        @Override
+        Translator.Op match(Instruction first, Instruction second, int address) {
+            if (!plain(first, SHR) || !plain(second, AND) || !first.isImmediate() || !second.isImmediate()
+                    || !first.writesResult() || !second.writesResult() || first.getDest() != second.getDest()
+                    || first.getDest() >= Cog.PAR_ADDR)
+                return null;
+            int dest = first.getDest();
+            int shift = first.getSource() & 0b11111;
+            int mask = second.getSource();
+            return new Translator.Op(address, 2, false) {
+                private boolean masking;
+
+                @Override
+                int issue(Cog cog) {
+                    masking = false;
+                    return 4;
+                }
+
+                @Override
+                int act(Cog cog) {
+                    if (!masking) {
+                        cog.setLong(dest, cog.getLong(dest) >>> shift);
+                        cog.advanceBlockPC();
+                        masking = true;
+                        return 4;
+                    }
+                    cog.setLong(dest, cog.getLong(dest) & mask);
+                    fired++;
+                    return Translator.NEXT;
+                }
+            };
+        }
+    }
+
+    /**
+     * TEST x,y WC then MUXC or MUXNC d,mask: the test samples on its cycle, the mux drives on its own
+     */
+    private static class TestMux extends Pattern {
+        TestMux() {
+            super("test+muxc");
+        }
+
+        @Override
+        Translator.Op match(Instruction first, Instruction second, int address) {
+            if (first.getInstr() != AND || first.getCond() != IF_ALWAYS || first.writesResult()
+                    || first.writesZ() || !first.writesC())
+                return null;
+            if ((!plain(second, MUXC) && !plain(second, MUXNC)) || !second.writesResult())
+                return null;
+            boolean invert = second.getInstr() == MUXNC;
+            int dest = second.getDest();
+            return new Translator.Op(address, 2, false) {
+                private boolean muxing;
+
+                @Override
+                int issue(Cog cog) {
+                    muxing = false;
+                    return 4;
+                }
+
+                @Override
+                int act(Cog cog) {
+                    if (!muxing) {
+                        int tested = first.getSourceValue(cog) & first.getDestValue(cog);
+                        cog.setCFlag((Integer.bitCount(tested) & 1) == 1);
+                        cog.advanceBlockPC();
+                        muxing = true;
+                        return 4;
+                    }
+                    int mask = second.getSourceValue(cog);
+                    int value = cog.getLong(dest);
+                    cog.setLong(dest, (cog.getCFlag() != invert) ? (value | mask) : (value & ~mask));
+                    fired++;
+                    return Translator.NEXT;
+                }
+            };
+        }
+    }
+
+    /**
+     * A hub read or write through a pointer register, then ADD pointer,#n without flags
+     */
+    private static class HubStep extends Pattern {
+        HubStep() {
+            super("rdlong+add");
+        }
+
+        @Override
+        Translator.Op match(Instruction first, Instruction second, int address) {
+            if (!first.isHubAccess() || first.isImmediate() || first.getCond() != IF_ALWAYS)
+                return null;
+            int pointer = first.getSource();
+            if (!plain(second, ADD) || !second.isImmediate() || !second.writesResult()
+                    || second.getDest() != pointer || first.getDest() == pointer || pointer >= Cog.PAR_ADDR)
+                return null;
+            int step = second.getSource();
+            return new Translator.Op(address, 2, false) {
+                private final Translator.HubWindow window = new Translator.HubWindow();
+                private boolean stepping;
+
+                @Override
+                int issue(Cog cog) {
+                    stepping = false;
+                    return window.issue();
+                }
+
+                @Override
+                int act(Cog cog) {
+                    if (!stepping) {
+                        int wait = window.poll(cog, first);
+                        if (wait != 0)
+                            return wait;
+                        first.executeAtOnce(cog);
+                        cog.advanceBlockPC();
+                        stepping = true;
+                        return 4;
+                    }
+                    cog.setLong(pointer, cog.getLong(pointer) + step);
+                    fired++;
+                    return Translator.NEXT;
+                }
+            };
+        }
+    }
+
+    /**
+     * A straight-line instruction, then DJNZ: the jump back needs no generic branch
+     */
+    private static class LoopTail extends Pattern {
+        LoopTail() {
+            super("djnz tail");
+        }
+
+        @Override
+        Translator.Op match(Instruction first, Instruction second, int address) {
+            if (!first.isStraightLine())
+                return null;
+            if (!plain(second, DJNZ) || !second.writesResult() || second.getDest() >= Cog.PAR_ADDR
+                    || (!second.isImmediate() && second.getSource() >= Cog.PAR_ADDR))
+                return null;
+            int counter = second.getDest();
+            return new Translator.Op(address, 2, true) {
+                private boolean counting, fallingThrough;
+
+                @Override
+                int issue(Cog cog) {
+                    counting = false;
+                    fallingThrough = false;
+                    return 4;
+                }
+
+                @Override
+                int act(Cog cog) {
+                    if (fallingThrough)
+                        return Translator.NEXT;
+                    if (!counting) {
+                        first.executeAtOnce(cog);
+                        cog.advanceBlockPC();
+                        counting = true;
+                        return 4;
+                    }
+                    int count = cog.getLong(counter) - 1;
+                    cog.setLong(counter, count);
+                    fired++;
+                    if (count != 0) {
+                        cog.setPC(second.getSourceValue(cog) & 0x1FF);
+                        return Translator.JUMPED;
+                    }
+                    // spends 4 more cycles as a NOP, as DJNZ does
+                    cog.holdInstruction(new Instruction(second.getEncodedInstr() & ~COND_MASK));
+                    fallingThrough = true;
+                    return 4;
+                }
+            };
+        }
+    }
+}
@@ -3,10 +3,22 @@ package com.wcmarshall.jpropsim;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+import com.wcmarshall.jpropsim.jfr.CogInitEvent;
+import com.wcmarshall.jpropsim.jfr.CogStopEvent;
+import com.wcmarshall.jpropsim.jfr.FileReadEvent;
+import com.wcmarshall.jpropsim.jfr.SimulationRateEvent;
+import com.wcmarshall.jpropsim.jfr.TickBatchEvent;
+import com.wcmarshall.jpropsim.spin.SpinProfiler;
+import com.wcmarshall.jpropsim.spin.SpinTiming;
+import com.wcmarshall.jpropsim.stimulus.InputRecorder;
 
 public class Hub {
 
     private static final int NUM_COGS = 8;
+	private static final int NUM_LOCKS = 8;
     private static final int HUB_RAM_SIZE = 32768;
 	private static final int HUB_ROM_SIZE = 32768;
     private Cog[] cogs = new Cog[NUM_COGS];
@@ -16,6 +28,35 @@ public class Hub {
     private int alignment = 0;
 	private int cnt = 0;
 	private int ina = 0;
+	private int locksAllocated = 0, lockStates = 0;
+
+	private long cycles = 0;
+	private long nextEvent = Long.MAX_VALUE;
+	private final Scheduler scheduler = new Scheduler();
+
+	private Peripheral[] peripherals = new Peripheral[0];
+	private boolean pinsDirty = false;
+	private int lastOuta = 0, lastDira = 0;
+
+	private SpinTiming spinTiming = null;
+	private Fusions fusions = null;
+	private SpinProfiler spinProfiler = null;
+	private PasmProfiler pasmProfiler = null;
+	private InstructionTrace trace = null;
+	private HubMetrics metrics = null;
+
+	private boolean idleSkipping = false;
+	// cogs to tell about pin and hub RAM changes, and cogs suspended by idle skipping
+	private int pinWatchers = 0, hubWatchers = 0, suspendedCogs = 0;
+
+	private Breakpoints breakpoints = null;
+	private InputRecorder inputRecorder = null;
+	private long[] watchedPages = null;
+	private int watchedPins = 0;
+	private volatile boolean stopRequested = false;
+	// cog being ticked, so that watched hub writes can be attributed to it, and cogs ticked so far this cycle
+	private Cog ticking = null;
+	private int ticked = 0;
 
     public Hub() throws IOException {
         for (int i = 0; i < cogs.length; i++) {
@@ -23,22 +64,362 @@ public class Hub {
         }
 
 		// load ROM file (only used for char set and tables)
+		FileReadEvent event = new FileReadEvent();
+		event.begin();
 		FileInputStream input = new FileInputStream(new File("rom.bin"));
-		input.read(hubrom);
+		int count = input.read(hubrom);
 		input.close();
+		event.path = "rom.bin";
+		event.bytes = Math.max(count, 0);
+		event.commit();
 		// load interpreter into proper starting position
+		event = new FileReadEvent();
+		event.begin();
 		input = new FileInputStream(new File("interpreter.bin"));
-		input.read(hubrom, 0xF004 - 0x8000, 0x10000 - 0xF004);
+		count = input.read(hubrom, Booter.INTERPRETER_ADDR - 0x8000, 0x10000 - Booter.INTERPRETER_ADDR);
 		input.close();
-		// pretend we're the bootloader and start the interpreter in cog 0
-		initCog((1 << 18) + (0x3C01 << 4));
+		event.path = "interpreter.bin";
+		event.bytes = Math.max(count, 0);
+		event.commit();
+
+		SimulationRateEvent.track(this);
 	}
 
-	public Hub(File binFile) throws IOException {
+	/**
+	 * Creates a hub and boots it from a .binary or .eeprom image, told apart by the file name
+	 *
+	 * @param binFile image to boot
+	 * @param fastBoot if true, cog 0 starts with the interpreter already loaded, see {@link Booter#boot(Hub, byte[], Booter.Source, boolean)}
+	 * @throws IOException if the image cannot be read or fails the boot checks
+	 */
+	public Hub(File binFile, boolean fastBoot) throws IOException {
+		this(binFile, fastBoot, null);
+	}
+
+	/**
+	 * Creates a hub running Spin natively and boots it from an image, so that the interpreter cog 0 loads is
+	 * native from its first bytecode
+	 *
+	 * @param timing cycle costs charged per bytecode, or null to run Spin as PASM
+	 * @see #enableSpinAcceleration(SpinTiming)
+	 */
+	public Hub(File binFile, boolean fastBoot, SpinTiming timing) throws IOException {
 		this();
-		FileInputStream input = new FileInputStream(binFile);
-		input.read(hubram);
-		input.close();
+		spinTiming = timing;
+		Booter.boot(this, Booter.readImage(binFile), Booter.Source.of(binFile), fastBoot);
+	}
+
+	public Hub(File binFile) throws IOException {
+		this(binFile, false);
+	}
+
+	/**
+	 * Runs Spin bytecode natively on cogs that load the stock interpreter from now on. Cogs already running
+	 * the interpreter as PASM, such as cog 0 after a fast boot or cogs restored from a snapshot, switch over
+	 * the next time they reach its main loop.
+	 *
+	 * @param timing cycle costs charged per bytecode
+	 */
+	public void enableSpinAcceleration(SpinTiming timing) {
+		this.spinTiming = timing;
+	}
+
+	/**
+	 * Stops attaching native interpreters to cogs. Cogs that are already running
+	 * natively continue to do so until they are restarted.
+	 */
+	public void disableSpinAcceleration() {
+		this.spinTiming = null;
+	}
+
+	/**
+	 * @return timing used for native Spin execution, or null if it is disabled
+	 */
+	public SpinTiming getSpinTiming() {
+		return spinTiming;
+	}
+
+	/**
+	 * Runs hot straight-line PASM on every cog from translated blocks instead of one instruction at a
+	 * time. Timing and results are unchanged. Cogs with a profiler, trace or breakpoint installed keep
+	 * interpreting.
+	 *
+	 * @param enabled true to translate, false to interpret everything
+	 */
+	public void setTranslation(boolean enabled) {
+		for (Cog cog : cogs) {
+			if (enabled != (cog.getTranslator() != null))
+				cog.setTranslator(enabled ? new Translator(cog, fusions) : null);
+		}
+	}
+
+	public boolean isTranslationEnabled() {
+		return cogs[0].getTranslator() != null;
+	}
+
+	/**
+	 * Fuses common instruction pairs in translated code. Code already translated is retranslated.
+	 *
+	 * @param fusions patterns to fuse, such as {@link Fusions#standard()}, or null to fuse nothing
+	 */
+	public void setFusions(Fusions fusions) {
+		this.fusions = fusions;
+		if (isTranslationEnabled()) {
+			for (Cog cog : cogs)
+				cog.setTranslator(new Translator(cog, fusions));
+		}
+	}
+
+	public Fusions getFusions() {
+		return fusions;
+	}
+
+	/**
+	 * Suspends cogs blocked in WAITCNT, WAITPEQ or WAITPNE, or in a translated loop that reads only cog RAM,
+	 * INA and the hub and has gone round without changing anything, until what they wait on can change. While
+	 * every running cog is suspended, {@link #run(long, Predicate)} skips ahead to the next event, WAITCNT
+	 * target or counter output edge. Timing and results are unchanged; call {@link Cog#settle()} before
+	 * looking at a cog that may be suspended. Loops are only detected with translation enabled.
+	 *
+	 * @param enabled true to skip idle cycles
+	 */
+	public void setIdleSkipping(boolean enabled) {
+		this.idleSkipping = enabled;
+		if (!enabled) {
+			for (Cog cog : cogs)
+				cog.settle();
+		}
+	}
+
+	public boolean isIdleSkipping() {
+		return idleSkipping;
+	}
+
+	/**
+	 * Called by a cog as it starts or stops watching pins or hub RAM, and as it is suspended or woken
+	 */
+	void setIdleWatch(Cog cog, boolean pins, boolean hubRam, boolean suspended) {
+		int bit = 1 << cog.getID();
+		pinWatchers = pins ? (pinWatchers | bit) : (pinWatchers & ~bit);
+		hubWatchers = hubRam ? (hubWatchers | bit) : (hubWatchers & ~bit);
+		suspendedCogs = suspended ? (suspendedCogs | bit) : (suspendedCogs & ~bit);
+	}
+
+	/**
+	 * Called before an input pin or a DIRA register changes
+	 */
+	void pinsChanging() {
+		for (int watchers = pinWatchers; watchers != 0; watchers &= watchers - 1)
+			cogs[Integer.numberOfTrailingZeros(watchers)].pinsChanging();
+	}
+
+	private void hubWriting(int base, int count) {
+		for (int watchers = hubWatchers; watchers != 0; watchers &= watchers - 1)
+			cogs[Integer.numberOfTrailingZeros(watchers)].hubWriting(base, count);
+	}
+
+	/**
+	 * Profiles Spin code on every cog running the ROM interpreter, now and when loaded later
+	 *
+	 * @param profiler profiler to install, or null to stop profiling
+	 */
+	public void setSpinProfiler(SpinProfiler profiler) {
+		this.spinProfiler = profiler;
+		for (Cog cog : cogs) {
+			cog.setSpinProfiler(profiler);
+		}
+	}
+
+	public SpinProfiler getSpinProfiler() {
+		return spinProfiler;
+	}
+
+	/**
+	 * Counts executions and cycles per cog RAM address on every cog
+	 *
+	 * @param profiler profiler to install, or null to stop profiling
+	 */
+	public void setPasmProfiler(PasmProfiler profiler) {
+		this.pasmProfiler = profiler;
+		for (Cog cog : cogs) {
+			cog.setPasmProfiler(profiler);
+		}
+	}
+
+	public PasmProfiler getPasmProfiler() {
+		return pasmProfiler;
+	}
+
+	/**
+	 * Records the last instructions retired by every cog
+	 *
+	 * @param trace trace to install, or null to stop tracing
+	 */
+	public void setTrace(InstructionTrace trace) {
+		this.trace = trace;
+		for (Cog cog : cogs) {
+			cog.setTrace(trace);
+		}
+	}
+
+	public InstructionTrace getTrace() {
+		return trace;
+	}
+
+	/**
+	 * Counts hub window use and waits per cog
+	 *
+	 * @param metrics counters to update, or null to stop counting
+	 */
+	public void setMetrics(HubMetrics metrics) {
+		this.metrics = metrics;
+		// suspended cogs make no hub accesses to count
+		for (Cog cog : cogs)
+			cog.settle();
+	}
+
+	public HubMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Installs breakpoints, watchpoints and pin edge triggers, replacing any installed before
+	 *
+	 * @param breakpoints breakpoints to install, or null to remove them
+	 */
+	public void setBreakpoints(Breakpoints breakpoints) {
+		if (this.breakpoints != null)
+			this.breakpoints.detach(this);
+		this.breakpoints = breakpoints;
+		watchedPages = null;
+		watchedPins = 0;
+		if (breakpoints != null)
+			breakpoints.attach(this);
+	}
+
+	public Breakpoints getBreakpoints() {
+		return breakpoints;
+	}
+
+	/**
+	 * Records every change to the input pins, whether from stimulus, peripherals or elsewhere
+	 *
+	 * @param recorder recorder to install, starting from the current cycle and input levels, or null to stop
+	 * recording
+	 */
+	public void setInputRecorder(InputRecorder recorder) {
+		inputRecorder = recorder;
+		if (recorder != null)
+			recorder.start(cycles, ina);
+	}
+
+	public InputRecorder getInputRecorder() {
+		return inputRecorder;
+	}
+
+	/**
+	 * Called by the installed breakpoints whenever they change
+	 */
+	void breakpointsChanged(long[] pages, int pins) {
+		watchedPages = pages;
+		watchedPins = pins;
+	}
+
+	/**
+	 * Makes {@link #run(long, Predicate)} return at the end of the current cycle. May be called from any thread.
+	 * A request made while no run is in progress stops the next one before its first cycle, so one made just
+	 * as another thread starts a run is never lost. The run it stops uses it up.
+	 */
+	public void requestStop() {
+		stopRequested = true;
+	}
+
+	/**
+	 * Withdraws a stop request that no run has used up, such as one made by a breakpoint hit on a single
+	 * {@link #tick()}. Call it before handing the hub to the thread that will run it.
+	 */
+	public void clearStopRequest() {
+		stopRequested = false;
+	}
+
+	/**
+	 * @return locks checked out in bits 15 to 8 and lock states in bits 7 to 0, as saved in a {@link Snapshot}
+	 */
+	int getLocks() {
+		return (locksAllocated << 8) | lockStates;
+	}
+
+	/**
+	 * Restores the hub's own registers from a {@link Snapshot}
+	 */
+	void restore(long cycles, int cnt, int alignment, int ina, int locks) {
+		this.cycles = cycles;
+		this.cnt = cnt;
+		this.alignment = alignment;
+		this.ina = ina;
+		this.locksAllocated = (locks >>> 8) & 0xFF;
+		this.lockStates = locks & 0xFF;
+		this.pinsDirty = true;
+	}
+
+	/**
+	 * @return copy of hub RAM
+	 */
+	public byte[] getRam() {
+		return hubram.clone();
+	}
+
+	/**
+	 * Copies a block of the hub address space, RAM then ROM, wrapping at $FFFF
+	 *
+	 * @param address first hub address
+	 * @param buffer destination
+	 * @param offset first index written in buffer
+	 * @param length bytes to copy
+	 */
+	public void readHub(int address, byte[] buffer, int offset, int length) {
+		while (length > 0) {
+			address &= 0xFFFF;
+			byte[] memory = (address < HUB_RAM_SIZE) ? hubram : hubrom;
+			int base = address & (HUB_RAM_SIZE - 1);
+			int count = Math.min(length, HUB_RAM_SIZE - base);
+			System.arraycopy(memory, base, buffer, offset, count);
+			address += count;
+			offset += count;
+			length -= count;
+		}
+	}
+
+	/**
+	 * Copies a block into hub RAM, wrapping within RAM. Watchpoints do not fire for these writes.
+	 *
+	 * @param address first hub address
+	 * @param buffer source
+	 * @param offset first index read from buffer
+	 * @param length bytes to copy
+	 */
+	public void writeHub(int address, byte[] buffer, int offset, int length) {
+		while (length > 0) {
+			int base = address & (HUB_RAM_SIZE - 1);
+			int count = Math.min(length, HUB_RAM_SIZE - base);
+			if (hubWatchers != 0)
+				hubWriting(base, count);
+			System.arraycopy(buffer, offset, hubram, base, count);
+			address += count;
+			offset += count;
+			length -= count;
+		}
+	}
+
+	/**
+	 * Replaces the contents of hub RAM. Anything beyond the end of the image is cleared.
+	 *
+	 * @param image new RAM contents
+	 */
+	void loadRam(byte[] image) {
+		int length = Math.min(image.length, HUB_RAM_SIZE);
+		System.arraycopy(image, 0, hubram, 0, length);
+		Arrays.fill(hubram, length, HUB_RAM_SIZE, (byte) 0);
 	}
 
 	/**
@@ -60,14 +441,29 @@ public class Hub {
 				if (!cogs[i].isRunning())
 					break;
 			}
-			if (i == cogs.length) return -1;
+			if (i == cogs.length) {
+				commitCogInit(-1, start, par, true);
+				return -1;
+			}
 			cogid = cogs[i].getID();
 		}
 
 		cogs[cogid].start(start, par);
+		commitCogInit(cogid, start, par, cognew);
 		return cogid;
 	}
 
+	private static void commitCogInit(int cog, int start, int par, boolean cognew) {
+		CogInitEvent event = new CogInitEvent();
+		if (event.shouldCommit()) {
+			event.cog = cog;
+			event.hubAddress = start;
+			event.par = par;
+			event.cognew = cognew;
+			event.commit();
+		}
+	}
+
 	/**
 	 *
 	 * @param id cog to stop
@@ -80,10 +476,57 @@ public class Hub {
 		}
 
 		id &= 0b111;
+		CogStopEvent event = new CogStopEvent();
+		if (event.shouldCommit()) {
+			event.cog = id;
+			event.wasRunning = cogs[id].isRunning();
+			event.commit();
+		}
 		cogs[id].stop();
 		return carry;
 	}
 
+	/**
+	 * Checks out a lock
+	 *
+	 * @return ID of the lock, or -1 if all locks are checked out
+	 */
+	public int lockNew() {
+		for (int i = 0; i < NUM_LOCKS; i++) {
+			if ((locksAllocated & (1 << i)) == 0) {
+				locksAllocated |= 1 << i;
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public void lockRet(int id) {
+		locksAllocated &= ~(1 << (id & 0b111));
+	}
+
+	/**
+	 * @param id lock to set
+	 * @return previous state of the lock
+	 */
+	public boolean lockSet(int id) {
+		int mask = 1 << (id & 0b111);
+		boolean previous = (lockStates & mask) != 0;
+		lockStates |= mask;
+		return previous;
+	}
+
+	/**
+	 * @param id lock to clear
+	 * @return previous state of the lock
+	 */
+	public boolean lockClr(int id) {
+		int mask = 1 << (id & 0b111);
+		boolean previous = (lockStates & mask) != 0;
+		lockStates &= ~mask;
+		return previous;
+	}
+
     private int readBytes(int base, int count) {
 		int retval = 0;
 		byte[] memory;
@@ -110,9 +553,17 @@ public class Hub {
 
 		if (base >= HUB_RAM_SIZE) return;
 
+		if (hubWatchers != 0)
+			hubWriting(base, count);
 		for (int i = 0; i < count; i++) {
 			hubram[base + i] = (byte) (value >> 8 * i);
 		}
+
+		if (watchedPages != null) {
+			int page = base >> 6;
+			if ((watchedPages[page >> 6] & (1L << page)) != 0)
+				breakpoints.hubWrite(ticking, base, value, count);
+		}
 	}
 
     public int getLong(int addr) {
@@ -143,18 +594,74 @@ public class Hub {
 		return cnt;
 	}
 
+	/**
+	 * @return number of system clock cycles since reset. The lower 32 bits are CNT
+	 */
+	public long getCycles() {
+		return cycles;
+	}
+
+	/**
+	 * Queues an event to fire at the start of the cycle it is due on. Events due in the past
+	 * fire at the start of the next tick.
+	 *
+	 * @param event event to queue
+	 */
+	public void schedule(Event event) {
+		scheduler.schedule(event);
+		nextEvent = scheduler.nextTime();
+	}
+
+	public boolean cancel(Event event) {
+		boolean removed = scheduler.cancel(event);
+		nextEvent = scheduler.nextTime();
+		return removed;
+	}
+
 	public int getIna() {
 		return ina & ~getDira();
 	}
 
+	/**
+	 * @return input pin states as driven from outside the chip, without masking pins that are outputs
+	 */
+	int getPinInputs() {
+		return ina;
+	}
+
 	public void setPinIn(int pin, boolean state) {
 		if (pin > 31) return;
 
+		boolean levelChanged = ((ina >> pin) & 1) != (state ? 1 : 0);
+		if (levelChanged) {
+			pinsChanging();
+			// a change made once the cogs have ticked is first seen on the next cycle
+			if (inputRecorder != null)
+				inputRecorder.record((ticked == 0) ? cycles : cycles + 1, pin, state);
+		}
 		if (state) {
 			ina |= 1 << pin;
 		} else {
 			ina &= ~(1 << pin);
 		}
+
+		if ((watchedPins & (1 << pin)) != 0)
+			breakpoints.pins(this);
+		if (levelChanged)
+			pinLevelsChanged();
+	}
+
+	/**
+	 * @return level of every pin as the last cycle left it: driven by the cogs where any has it as an output,
+	 * otherwise from outside
+	 */
+	int getPinLevels() {
+		return lastOuta | (ina & ~lastDira);
+	}
+
+	private void pinLevelsChanged() {
+		for (Cog c : cogs)
+			c.pinLevelsChanged();
 	}
 
 	public int getDira() {
@@ -174,11 +681,66 @@ public class Hub {
 		return outa & getDira();
 	}
 
+	/**
+	 * Attaches a model of an external device. The peripheral is only called when the effective
+	 * OUTA or DIRA state of one of the pins in its mask changes.
+	 *
+	 * @param peripheral device to attach
+	 */
+	public void addPeripheral(Peripheral peripheral) {
+		peripherals = Arrays.copyOf(peripherals, peripherals.length + 1);
+		peripherals[peripherals.length - 1] = peripheral;
+		peripheral.attach(this);
+	}
+
+	public void removePeripheral(Peripheral peripheral) {
+		for (int i = 0; i < peripherals.length; i++) {
+			if (peripherals[i] == peripheral) {
+				Peripheral[] remaining = new Peripheral[peripherals.length - 1];
+				System.arraycopy(peripherals, 0, remaining, 0, i);
+				System.arraycopy(peripherals, i + 1, remaining, i, remaining.length - i);
+				peripherals = remaining;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Called by cogs whenever their OUTA or DIRA register changes value
+	 */
+	void markPinsDirty() {
+		pinsDirty = true;
+	}
+
+	private void updatePins() {
+		pinsDirty = false;
+		int outa = getOuta();
+		int dira = getDira();
+		int changed = (outa ^ lastOuta) | (dira ^ lastDira);
+		if (changed == 0) return;
+
+		lastOuta = outa;
+		lastDira = dira;
+		pinLevelsChanged();
+		for (Peripheral p : peripherals) {
+			if ((p.getPinMask() & changed) != 0) {
+				p.pinsChanged(this, outa, dira, changed);
+			}
+		}
+	}
+
 	public Cog getCog(int cogid) {
 		if (cogid < 0 || cogid > NUM_COGS) return null;
 		return cogs[cogid];
 	}
 
+	/**
+	 * @return true if a cycle is being run and the cog has already ticked in it
+	 */
+	boolean hasTicked(Cog cog) {
+		return cog.getID() < ticked;
+	}
+
     public boolean isAligned(Cog cog) {
         return this.alignment == cog.getID();
     }
@@ -187,15 +749,127 @@ public class Hub {
 		return alignment;
 	}
 
+	/**
+	 * Runs a number of clock cycles, recorded as one {@link TickBatchEvent} when JFR is recording
+	 *
+	 * @param count cycles to run
+	 */
+	public void run(long count) {
+		run(count, null);
+	}
+
+	/**
+	 * Runs clock cycles until a condition holds or a breakpoint fires, recorded as one {@link TickBatchEvent}
+	 * when JFR is recording
+	 *
+	 * @param count most cycles to run
+	 * @param until tested after every cycle, or null to always run count cycles
+	 * @return cycles run
+	 */
+	public long run(long count, Predicate<Hub> until) {
+		TickBatchEvent event = new TickBatchEvent();
+		event.begin();
+		long start = cycles;
+		long i = 0;
+		if (until == null) {
+			while (i < count && !stopRequested) {
+				if (suspendedCogs != 0) {
+					long idle = idleCycles(count - i);
+					if (idle > 0) {
+						skipIdle(idle);
+						i += idle;
+						continue;
+					}
+				}
+				tick();
+				i++;
+			}
+		} else {
+			while (i < count && !stopRequested) {
+				tick();
+				i++;
+				if (until.test(this)) break;
+			}
+		}
+		stopRequested = false;
+		if (event.shouldCommit()) {
+			event.startCycle = start;
+			event.cycles = i;
+			event.commit();
+		}
+		return i;
+	}
+
+	/**
+	 * @return cycles, up to a limit, that can be skipped because every running cog is suspended, nothing is
+	 * scheduled and no counter has a pin to drive
+	 */
+	private long idleCycles(long limit) {
+		if (metrics != null || pinsDirty)
+			return 0;
+		long idle = Math.min(limit, nextEvent - cycles);
+		for (Cog c : cogs) {
+			if (!c.isRunning())
+				continue;
+			if (!c.isIdle())
+				return 0;
+			idle = Math.min(idle, c.idleCyclesLeft());
+		}
+		return idle;
+	}
+
+	/**
+	 * Advances the clock as the given number of ticks would with every cog stopped, as while the booter loads
+	 * cog 0
+	 *
+	 * @throws IllegalStateException if a cog is running
+	 */
+	void advanceStopped(long n) {
+		for (Cog cog : cogs) {
+			if (cog.isRunning())
+				throw new IllegalStateException("Cog " + cog.getID() + " is running");
+		}
+		skipIdle(n);
+	}
+
+	/**
+	 * Advances the clock as the given number of ticks would with every running cog suspended
+	 */
+	private void skipIdle(long n) {
+		long c = cnt & 0xFFFFFFFFL;
+		// alignment moves on each time CNT becomes even
+		alignment = (int) ((alignment + ((c + n) >> 1) - (c >> 1)) % NUM_COGS);
+		cycles += n;
+		cnt += (int) n;
+		for (Cog cog : cogs) {
+			if (cog.isRunning())
+				cog.idleSkipped(n);
+		}
+	}
+
     public void tick() {
+		if (cycles >= nextEvent) {
+			nextEvent = scheduler.dispatch(this, cycles);
+		}
         for (Cog c : cogs) {
+			ticking = c;
             c.tick();
+			ticked++;
         }
+		ticking = null;
+		if (pinsDirty) {
+			updatePins();
+		}
         // update cnt
+		cycles++;
 		cnt++;
+		ticked = 0;
 		if ((cnt & 1) == 0) {
 			// every other tick, shift alignment
 			this.alignment = (this.alignment + 1) % NUM_COGS;
+			if (metrics != null) {
+				metrics.window(cogs[alignment]);
+			}
 		}
     }
 }
@@ -0,0 +1,218 @@
+package com.wcmarshall.jpropsim;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * Counts how each cog uses its hub windows: windows offered while the cog was executing, windows a hub
+ * instruction used, and the cycles RDxxxx, WRxxxx and HUBOP instructions waited for their window.
+ *
+ * Install with {@link Hub#setMetrics(HubMetrics)}, and optionally publish over JMX with
+ * {@link #registerMBean(String)}. Counters are updated by the simulation thread without locking, so
+ * readers on other threads may see values a few cycles old. Cogs running Spin natively make no
+ * counted hub accesses, so their windows are not counted either.
+ */
+public class HubMetrics implements HubMetricsMXBean {
+
+    public static final int READ = 0;
+    public static final int WRITE = 1;
+    public static final int HUBOP = 2;
+
+    private static final int NUM_COGS = 8;
+
+    private final Hub hub;
+
+    private final long[] windows = new long[NUM_COGS];
+    private final long[] used = new long[NUM_COGS];
+    private final long[][] accesses = new long[3][NUM_COGS];
+    private final long[][] waitCycles = new long[3][NUM_COGS];
+    private final long[][] maxWait = new long[3][NUM_COGS];
+
+    private ObjectName objectName;
+
+    public HubMetrics(Hub hub) {
+        this.hub = hub;
+    }
+
+    /**
+     * Called by the hub when a cog's window comes round
+     */
+    void window(Cog cog) {
+        if (cog.isRunning() && cog.isProgramLoaded() && cog.getSpinInterpreter() == null)
+            windows[cog.getID()]++;
+    }
+
+    /**
+     * Called when a hub instruction reaches its window
+     *
+     * @param cog cog executing the instruction
+     * @param waited cycles the instruction waited for the window
+     */
+    void access(Cog cog, int waited) {
+        int id = cog.getID();
+        int encoded = cog.getCurrentInstruction().getEncodedInstr();
+        int kind;
+        if ((encoded >>> 26) == 0b000011) {
+            kind = HUBOP;
+        } else {
+            kind = ((encoded & (1 << 23)) != 0) ? READ : WRITE;
+        }
+
+        used[id]++;
+        accesses[kind][id]++;
+        waitCycles[kind][id] += waited;
+        if (waited > maxWait[kind][id])
+            maxWait[kind][id] = waited;
+    }
+
+    /**
+     * @param kind {@link #READ}, {@link #WRITE} or {@link #HUBOP}
+     * @param cog cog id
+     * @return number of instructions of that kind that reached their window
+     */
+    public long getAccesses(int kind, int cog) {
+        return accesses[kind][cog];
+    }
+
+    /**
+     * @param kind {@link #READ}, {@link #WRITE} or {@link #HUBOP}
+     * @param cog cog id
+     * @return average cycles waited for the window, or 0 if there were no accesses
+     */
+    public double getAverageWait(int kind, int cog) {
+        long n = accesses[kind][cog];
+        return (n == 0) ? 0 : (double) waitCycles[kind][cog] / n;
+    }
+
+    /**
+     * @param kind {@link #READ}, {@link #WRITE} or {@link #HUBOP}
+     * @param cog cog id
+     * @return longest wait for the window
+     */
+    public long getMaxWait(int kind, int cog) {
+        return maxWait[kind][cog];
+    }
+
+    @Override
+    public long getCycles() {
+        return hub.getCycles();
+    }
+
+    @Override
+    public long[] getWindows() {
+        return windows.clone();
+    }
+
+    @Override
+    public long[] getWindowsUsed() {
+        return used.clone();
+    }
+
+    @Override
+    public long[] getWindowsMissed() {
+        long[] missed = new long[NUM_COGS];
+        for (int i = 0; i < NUM_COGS; i++)
+            missed[i] = Math.max(0, windows[i] - used[i]);
+        return missed;
+    }
+
+    @Override
+    public double getUtilization() {
+        long offered = 0, taken = 0;
+        for (int i = 0; i < NUM_COGS; i++) {
+            offered += windows[i];
+            taken += used[i];
+        }
+        return (offered == 0) ? 0 : Math.min(1.0, (double) taken / offered);
+    }
+
+    @Override
+    public long[] getReads() {
+        return accesses[READ].clone();
+    }
+
+    @Override
+    public double[] getReadAverageWait() {
+        return averageWaits(READ);
+    }
+
+    @Override
+    public long[] getReadMaxWait() {
+        return maxWait[READ].clone();
+    }
+
+    @Override
+    public long[] getWrites() {
+        return accesses[WRITE].clone();
+    }
+
+    @Override
+    public double[] getWriteAverageWait() {
+        return averageWaits(WRITE);
+    }
+
+    @Override
+    public long[] getWriteMaxWait() {
+        return maxWait[WRITE].clone();
+    }
+
+    @Override
+    public long[] getHubops() {
+        return accesses[HUBOP].clone();
+    }
+
+    @Override
+    public double[] getHubopAverageWait() {
+        return averageWaits(HUBOP);
+    }
+
+    @Override
+    public long[] getHubopMaxWait() {
+        return maxWait[HUBOP].clone();
+    }
+
+    private double[] averageWaits(int kind) {
+        double[] averages = new double[NUM_COGS];
+        for (int i = 0; i < NUM_COGS; i++)
+            averages[i] = getAverageWait(kind, i);
+        return averages;
+    }
+
+    @Override
+    public void reset() {
+        Arrays.fill(windows, 0);
+        Arrays.fill(used, 0);
+        for (int kind = READ; kind <= HUBOP; kind++) {
+            Arrays.fill(accesses[kind], 0);
+            Arrays.fill(waitCycles[kind], 0);
+            Arrays.fill(maxWait[kind], 0);
+        }
+    }
+
+    /**
+     * Publishes these metrics on the platform MBean server
+     *
+     * @param name value of the name key, distinguishing simulations in the same JVM
+     * @return name the metrics were registered under
+     * @throws JMException if registration fails, such as when the name is already taken
+     */
+    public ObjectName registerMBean(String name) throws JMException {
+        objectName = new ObjectName("com.wcmarshall.jpropsim:type=HubMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    /**
+     * Removes these metrics from the platform MBean server, if registered
+     *
+     * @throws JMException if the server refuses
+     */
+    public void unregisterMBean() throws JMException {
+        if (objectName != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            objectName = null;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.wcmarshall.jpropsim;
+
+/**
+ * Management interface of {@link HubMetrics}. Every array is indexed by cog id.
+ */
+public interface HubMetricsMXBean {
+
+    /**
+     * @return system clock cycles since reset
+     */
+    long getCycles();
+
+    /**
+     * @return hub windows that came round while each cog was executing
+     */
+    long[] getWindows();
+
+    /**
+     * @return windows used by a hub instruction
+     */
+    long[] getWindowsUsed();
+
+    /**
+     * @return windows that passed without a hub instruction waiting for them
+     */
+    long[] getWindowsMissed();
+
+    /**
+     * @return fraction of all windows offered to executing cogs that were used
+     */
+    double getUtilization();
+
+    long[] getReads();
+
+    double[] getReadAverageWait();
+
+    long[] getReadMaxWait();
+
+    long[] getWrites();
+
+    double[] getWriteAverageWait();
+
+    long[] getWriteMaxWait();
+
+    long[] getHubops();
+
+    double[] getHubopAverageWait();
+
+    long[] getHubopMaxWait();
+
+    /**
+     * Zeroes every counter
+     */
+    void reset();
+}
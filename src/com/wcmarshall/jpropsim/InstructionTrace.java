@@ -0,0 +1,135 @@
+package com.wcmarshall.jpropsim;
+
+import com.wcmarshall.jpropsim.disassembler.Disassembler;
+import com.wcmarshall.jpropsim.disassembler.Instruction;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Keeps the last instructions each cog retired, in a preallocated ring of packed longs per cog.
+ *
+ * Each entry is two longs: CNT at retirement, PC and flags in the first; the encoded instruction and the
+ * value left in its destination register in the second. Nothing is formatted until {@link #dump(Appendable)}
+ * is called, so the trace is cheap enough to leave on. Cogs running Spin natively are not traced.
+ *
+ * Install with {@link Hub#setTrace(InstructionTrace)}.
+ */
+public class InstructionTrace {
+
+    private static final int NUM_COGS = 8;
+
+    private static final int FLAG_Z = 1;
+    private static final int FLAG_C = 2;
+    private static final int FLAG_WRITE = 4;
+    private static final int FLAG_SKIPPED = 8;
+
+    private final int capacity;
+    private final long[][] rings = new long[NUM_COGS][];
+    // entries written per cog since the last reset, and index of the next entry's first long
+    private final long[] counts = new long[NUM_COGS];
+    private final int[] heads = new int[NUM_COGS];
+
+    /**
+     * @param capacity instructions kept per cog, at least 1
+     * @throws IllegalArgumentException if capacity is less than 1
+     */
+    public InstructionTrace(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Trace capacity must be at least 1: " + capacity);
+        this.capacity = capacity;
+        for (int i = 0; i < NUM_COGS; i++)
+            rings[i] = new long[2 * capacity];
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Called by a cog when an instruction finishes and its PC moves on
+     *
+     * @param cog cog that executed the instruction
+     * @param pc address the instruction was executed from
+     * @param instruction the instruction
+     */
+    void retire(Cog cog, int pc, Instruction instruction) {
+        int id = cog.getID();
+        int flags = (cog.getZFlag() ? FLAG_Z : 0) | (cog.getCFlag() ? FLAG_C : 0);
+        int value = 0;
+        if (instruction.isSkipped()) {
+            flags |= FLAG_SKIPPED;
+        } else if (instruction.writesResult()) {
+            flags |= FLAG_WRITE;
+            value = cog.getLong(instruction.getDest());
+        }
+
+        long[] ring = rings[id];
+        int slot = heads[id];
+        heads[id] = (slot + 2 == ring.length) ? 0 : slot + 2;
+        counts[id]++;
+        ring[slot] = ((long) cog.getCnt() << 32) | (pc << 16) | flags;
+        ring[slot + 1] = ((long) instruction.getEncodedInstr() << 32) | (value & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @param cog cog id
+     * @return instructions the cog has retired since the last reset, including those no longer kept
+     */
+    public long getCount(int cog) {
+        return counts[cog & 0b111];
+    }
+
+    /**
+     * Discards everything traced so far
+     */
+    public void reset() {
+        Arrays.fill(counts, 0);
+        Arrays.fill(heads, 0);
+    }
+
+    /**
+     * Writes the kept instructions of every cog that has any, oldest first
+     *
+     * @param out destination of the listing
+     * @throws IOException if out does
+     */
+    public void dump(Appendable out) throws IOException {
+        for (int i = 0; i < NUM_COGS; i++) {
+            if (counts[i] != 0)
+                dump(i, out);
+        }
+    }
+
+    /**
+     * Writes the kept instructions of one cog, oldest first
+     *
+     * @param cog cog id
+     * @param out destination of the listing
+     * @throws IOException if out does
+     */
+    public void dump(int cog, Appendable out) throws IOException {
+        cog &= 0b111;
+        long count = counts[cog];
+        int kept = (int) Math.min(count, capacity);
+        long[] ring = rings[cog];
+        int slot = (count > capacity) ? heads[cog] : 0;
+        Disassembler disassembler = new Disassembler();
+
+        out.append(String.format("Cog %d: last %d of %d instructions%n", cog, kept, count));
+        for (int n = 0; n < kept; n++, slot = (slot + 2 == ring.length) ? 0 : slot + 2) {
+            long a = ring[slot], b = ring[slot + 1];
+            int flags = (int) a & 0xFF;
+            String result;
+            if ((flags & FLAG_SKIPPED) != 0)
+                result = "(skipped)";
+            else if ((flags & FLAG_WRITE) != 0)
+                result = String.format("-> $%08X", (int) b);
+            else
+                result = "";
+            out.append(String.format("  CNT $%08X  %03X  %s %s  %-40s %s%n", (int) (a >>> 32),
+                    (int) (a >>> 16) & 0x1FF, ((flags & FLAG_Z) != 0) ? "Z" : "-", ((flags & FLAG_C) != 0) ? "C" : "-",
+                    disassembler.disassemble((int) (b >>> 32)).trim(), result));
+        }
+    }
+}
@@ -1,8 +1,336 @@
 package com.wcmarshall.jpropsim;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.wcmarshall.jpropsim.debug.DebugServer;
+import com.wcmarshall.jpropsim.peripheral.AudioCapture;
+import com.wcmarshall.jpropsim.peripheral.VideoCapture;
+import com.wcmarshall.jpropsim.spin.SpinTiming;
+import com.wcmarshall.jpropsim.stimulus.InputRecorder;
+import com.wcmarshall.jpropsim.stimulus.InputReplay;
+import com.wcmarshall.jpropsim.stimulus.Stimulus;
+import com.wcmarshall.jpropsim.stimulus.StimulusFile;
+
 public class Main {
 
+	private static final String USAGE =
+			"Usage:\n" +
+			"  snapshot <image> <cnt> <output> [--fast]   boot an image, run to cnt and save a snapshot\n" +
+			"  resume <snapshot> <cycles> <output>        load a snapshot, run further and save again\n" +
+			"  run <image|snapshot> [options]             run headless and print the final state\n" +
+			"    --cycles <n>           stop after n cycles, counted from reset when booting an image\n" +
+			"    --until-pin <p>=<0|1>  stop when pin p is at a level\n" +
+			"    --until-byte <a>=<v>   stop when hub BYTE[a] holds v (also --until-word, --until-long)\n" +
+			"    --until-stopped        stop when no cog is running\n" +
+			"    --break <c>:<a>        stop when cog c reaches PASM address a\n" +
+			"    --watch <a>[:<n>]      stop when any of n hub bytes from a is written\n" +
+			"    --watch-reg <c>:<r>    stop when cog c writes register r\n" +
+			"    --until-edge <p>[:rise|fall]  stop on an edge of pin p\n" +
+			"    --fast                 boot with the interpreter already loaded into cog 0\n" +
+			"    --native-spin          run Spin natively on interpreter cogs\n" +
+			"    --translate            run hot straight-line PASM from translated blocks\n" +
+			"    --fuse                 also fuse common instruction pairs in translated blocks\n" +
+			"    --fusion-stats         fuse, and print which fusions fired\n" +
+			"    --skip-idle            suspend cogs in waits and idle loops, skipping cycles when all are\n" +
+			"                           idle\n" +
+			"    --stimulus <file>      drive input pins from a stimulus file\n" +
+			"    --record <file>        record every input pin change to a file\n" +
+			"    --replay <file>        drive input pins from a recording, starting where it did\n" +
+			"    --capture-vga <p>:<dir>  write 640x480 VGA frames from pins p..p+7 to dir as PNGs\n" +
+			"    --capture-audio <p>[,<p>]:<file>  write 44.1 kHz audio filtered from pins to a WAV file\n" +
+			"    --save <file>          save a snapshot when done\n" +
+			"    --trace <n>            keep the last n instructions of each cog, printed to stderr if the\n" +
+			"                           run fails: budget exhausted with conditions given, or an exception\n" +
+			"  debug <image|snapshot> [--port <n>] [--fast] [--native-spin]\n" +
+			"                                             serve the debug protocol on a loopback port\n" +
+			"  Exit status is 3 if stop conditions or breakpoints were given but the cycle budget ran out first.\n";
+
 	public static void main(String[] args) {
+		if (args.length == 0) {
+			System.err.print(USAGE);
+			System.exit(2);
+		}
+
+		try {
+			switch (args[0]) {
+				case "snapshot":
+					snapshot(args);
+					break;
+				case "resume":
+					resume(args);
+					break;
+				case "run":
+					run(args);
+					break;
+				case "debug":
+					debug(args);
+					break;
+				default:
+					System.err.print(USAGE);
+					System.exit(2);
+			}
+		} catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+			System.err.print(USAGE);
+			System.exit(2);
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	private static void snapshot(String[] args) throws IOException {
+		boolean fast = args.length > 4 && args[4].equals("--fast");
+		Hub hub = new Hub(new File(args[1]), fast);
+		long target = parseCycles(args[2]);
+		hub.run(target - hub.getCycles());
+		Snapshot.save(hub, new File(args[3]));
+	}
+
+	private static void resume(String[] args) throws IOException {
+		Hub hub = Snapshot.load(new File(args[1]));
+		long target = hub.getCycles() + parseCycles(args[2]);
+		hub.run(target - hub.getCycles());
+		Snapshot.save(hub, new File(args[3]));
+	}
+
+	private static void run(String[] args) throws IOException {
+		File file = new File(args[1]);
+		boolean fast = false, nativeSpin = false, translate = false, fuse = false, fusionStats = false;
+		boolean skipIdle = false;
+		File stimulus = null, save = null, captureDir = null, audioFile = null, record = null, replay = null;
+		int capturePin = 0;
+		int[] audioPins = null;
+		List<Runner.Condition> conditions = new ArrayList<>();
+		Breakpoints breakpoints = new Breakpoints();
+		boolean anyBreakpoint = false;
+		int traceLength = 0;
+		long budget = Long.MAX_VALUE;
+
+		for (int i = 2; i < args.length; i++) {
+			switch (args[i]) {
+				case "--cycles":
+					budget = parseCycles(args[++i]);
+					break;
+				case "--until-pin": {
+					String[] pv = args[++i].split("=");
+					conditions.add(Runner.pin(Integer.parseInt(pv[0]), parseCycles(pv[1]) != 0));
+					break;
+				}
+				case "--until-byte":
+				case "--until-word":
+				case "--until-long": {
+					int size = args[i].endsWith("byte") ? 1 : args[i].endsWith("word") ? 2 : 4;
+					String[] av = args[++i].split("=");
+					conditions.add(Runner.memory((int) parseCycles(av[0]), size, (int) parseCycles(av[1])));
+					break;
+				}
+				case "--until-stopped":
+					conditions.add(Runner.allCogsStopped());
+					break;
+				case "--break": {
+					String[] ca = args[++i].split(":");
+					breakpoints.addBreakpoint(Integer.parseInt(ca[0]), (int) parseCycles(ca[1]));
+					anyBreakpoint = true;
+					break;
+				}
+				case "--watch": {
+					String[] an = args[++i].split(":");
+					breakpoints.addHubWatch((int) parseCycles(an[0]), (an.length > 1) ? (int) parseCycles(an[1]) : 1);
+					anyBreakpoint = true;
+					break;
+				}
+				case "--watch-reg": {
+					String[] cr = args[++i].split(":");
+					breakpoints.addRegisterWatch(Integer.parseInt(cr[0]), (int) parseCycles(cr[1]));
+					anyBreakpoint = true;
+					break;
+				}
+				case "--until-edge": {
+					String[] pe = args[++i].split(":");
+					String edge = (pe.length > 1) ? pe[1] : "both";
+					breakpoints.addPinEdge(Integer.parseInt(pe[0]), !edge.equals("fall"), !edge.equals("rise"));
+					anyBreakpoint = true;
+					break;
+				}
+				case "--fast":
+					fast = true;
+					break;
+				case "--native-spin":
+					nativeSpin = true;
+					break;
+				case "--translate":
+					translate = true;
+					break;
+				case "--fusion-stats":
+					fusionStats = true;
+					translate = true;
+					fuse = true;
+					break;
+				case "--fuse":
+					translate = true;
+					fuse = true;
+					break;
+				case "--skip-idle":
+					skipIdle = true;
+					break;
+				case "--stimulus":
+					stimulus = new File(args[++i]);
+					break;
+				case "--record":
+					record = new File(args[++i]);
+					break;
+				case "--replay":
+					replay = new File(args[++i]);
+					break;
+				case "--capture-vga": {
+					String[] pd = args[++i].split(":", 2);
+					capturePin = Integer.parseInt(pd[0]);
+					captureDir = new File(pd[1]);
+					break;
+				}
+				case "--capture-audio": {
+					String[] pf = args[++i].split(":", 2);
+					String[] pins = pf[0].split(",");
+					audioPins = new int[pins.length];
+					for (int p = 0; p < pins.length; p++)
+						audioPins[p] = Integer.parseInt(pins[p]);
+					audioFile = new File(pf[1]);
+					break;
+				}
+				case "--save":
+					save = new File(args[++i]);
+					break;
+				case "--trace":
+					traceLength = Integer.parseInt(args[++i]);
+					if (traceLength <= 0)
+						throw new IllegalArgumentException("--trace " + traceLength);
+					break;
+				default:
+					throw new IllegalArgumentException(args[i]);
+			}
+		}
+		if (budget == Long.MAX_VALUE && conditions.isEmpty() && !anyBreakpoint)
+			throw new IllegalArgumentException("no cycle budget or stop condition");
+
+		// enabled before booting, so that cog 0 is native from its first bytecode; interpreter cogs in a snapshot
+		// switch over when they next reach the interpreter's main loop
+		SpinTiming timing = nativeSpin ? new SpinTiming() : null;
+		Hub hub = Snapshot.isSnapshot(file) ? Snapshot.load(file) : new Hub(file, fast, timing);
+		if (timing != null)
+			hub.enableSpinAcceleration(timing);
+		if (fuse)
+			hub.setFusions(Fusions.standard());
+		if (translate)
+			hub.setTranslation(true);
+		if (skipIdle)
+			hub.setIdleSkipping(true);
+		// installed first, to catch the levels peripherals set as they attach
+		InputRecorder recorder = null;
+		if (record != null) {
+			recorder = new InputRecorder(record);
+			hub.setInputRecorder(recorder);
+		}
+		if (replay != null)
+			new InputReplay(replay).attach(hub);
+		if (stimulus != null)
+			Stimulus.attach(hub, StimulusFile.load(stimulus));
+		if (anyBreakpoint)
+			hub.setBreakpoints(breakpoints);
+		VideoCapture capture = null;
+		if (captureDir != null) {
+			// CLKFREQ, as the image's Spin code sees it
+			capture = VideoCapture.vga640x480(capturePin, hub.getLong(0) & 0xFFFFFFFFL);
+			capture.writeTo(captureDir, VideoCapture.Format.PNG);
+			hub.addPeripheral(capture);
+		}
+		AudioCapture audio = null;
+		if (audioFile != null) {
+			audio = new AudioCapture(audioPins, hub.getLong(0) & 0xFFFFFFFFL, 44100);
+			audio.writeTo(audioFile);
+			hub.addPeripheral(audio);
+		}
+
+		Runner runner = new Runner(hub);
+		// a fast boot starts part way in, where the interpreter load would have ended
+		runner.setBudget(Snapshot.isSnapshot(file) ? budget : Math.max(0, budget - hub.getCycles()));
+		for (Runner.Condition c : conditions)
+			runner.addCondition(c);
+		InstructionTrace trace = null;
+		if (traceLength > 0) {
+			trace = new InstructionTrace(traceLength);
+			hub.setTrace(trace);
+		}
+
+		Runner.Result result;
+		try {
+			result = runner.run();
+		} catch (RuntimeException e) {
+			if (trace != null)
+				trace.dump(System.err);
+			throw e;
+		}
+		runner.printSummary(result, System.out);
+		if (capture != null) {
+			capture.close();
+			System.out.printf("Frames:    %d (%d dropped)%n", capture.getFrameCount(), capture.getDroppedFrames());
+		}
+		if (audio != null)
+			audio.close();
+		if (recorder != null) {
+			hub.setInputRecorder(null);
+			recorder.close();
+			System.out.printf("Inputs:    %d recorded%n", recorder.getCount());
+		}
+		if (fusionStats)
+			hub.getFusions().report(System.out);
+
+		if (save != null)
+			Snapshot.save(hub, save);
+		if ((!conditions.isEmpty() || anyBreakpoint) && result.isBudgetExhausted()) {
+			if (trace != null)
+				trace.dump(System.err);
+			System.exit(3);
+		}
+	}
+
+	private static void debug(String[] args) throws IOException {
+		File file = new File(args[1]);
+		boolean fast = false, nativeSpin = false;
+		int port = 0;
+		for (int i = 2; i < args.length; i++) {
+			switch (args[i]) {
+				case "--port":
+					port = Integer.parseInt(args[++i]);
+					break;
+				case "--fast":
+					fast = true;
+					break;
+				case "--native-spin":
+					nativeSpin = true;
+					break;
+				default:
+					throw new IllegalArgumentException(args[i]);
+			}
+		}
+
+		SpinTiming timing = nativeSpin ? new SpinTiming() : null;
+		Hub hub = Snapshot.isSnapshot(file) ? Snapshot.load(file) : new Hub(file, fast, timing);
+		if (timing != null)
+			hub.enableSpinAcceleration(timing);
+		DebugServer server = new DebugServer(hub, port);
+		System.out.println("Listening on 127.0.0.1:" + server.getPort());
+		server.serve();
+	}
+
+	static long parseCycles(String s) {
+		if (s.startsWith("$"))
+			return Long.parseLong(s.substring(1), 16);
+		if (s.startsWith("0x") || s.startsWith("0X"))
+			return Long.parseLong(s.substring(2), 16);
+		return Long.parseLong(s);
 	}
 
 }
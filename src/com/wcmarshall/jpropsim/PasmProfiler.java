@@ -0,0 +1,138 @@
+package com.wcmarshall.jpropsim;
+
+import com.wcmarshall.jpropsim.disassembler.Disassembler;
+import com.wcmarshall.jpropsim.disassembler.Instruction;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Counts where each cog's PASM spends its time, per cog RAM address.
+ *
+ * For every address this keeps the number of times an instruction there was issued, the cycles spent on
+ * it, the cycles of those spent waiting for the cog's hub window, and the cycles spent blocked in WAITCNT,
+ * WAITPEQ or WAITPNE after their minimum time. Counts are kept in flat long[512] arrays per cog.
+ *
+ * Install with {@link Hub#setPasmProfiler(PasmProfiler)}. Cogs running Spin natively are not counted.
+ */
+public class PasmProfiler {
+
+    private static final int NUM_COGS = 8;
+    private static final int COG_RAM_SIZE = 512;
+
+    private final long[][] executions = new long[NUM_COGS][COG_RAM_SIZE];
+    private final long[][] cycles = new long[NUM_COGS][COG_RAM_SIZE];
+    private final long[][] hubStalls = new long[NUM_COGS][COG_RAM_SIZE];
+    private final long[][] waits = new long[NUM_COGS][COG_RAM_SIZE];
+
+    private final Instruction[] last = new Instruction[NUM_COGS];
+
+    /**
+     * Called by a cog on every cycle it executes PASM, before the cycle is executed
+     */
+    void cycle(Cog cog) {
+        int id = cog.getID();
+        int pc = cog.getPC();
+        cycles[id][pc]++;
+        Instruction current = cog.getCurrentInstruction();
+        if (current != last[id]) {
+            executions[id][pc]++;
+            last[id] = current;
+        }
+    }
+
+    /**
+     * Called for a cycle spent waiting for the hub window
+     */
+    void hubStall(Cog cog) {
+        hubStalls[cog.getID()][cog.getPC()]++;
+    }
+
+    /**
+     * Called for a cycle spent blocked in WAITCNT, WAITPEQ or WAITPNE
+     */
+    void waitBlocked(Cog cog) {
+        waits[cog.getID()][cog.getPC()]++;
+    }
+
+    /**
+     * @param cog cog id
+     * @return live per address count of issued instructions
+     */
+    public long[] getExecutions(int cog) {
+        return executions[cog & 0b111];
+    }
+
+    /**
+     * @param cog cog id
+     * @return live per address count of cycles
+     */
+    public long[] getCycles(int cog) {
+        return cycles[cog & 0b111];
+    }
+
+    /**
+     * @param cog cog id
+     * @return live per address count of cycles spent waiting for the hub window
+     */
+    public long[] getHubStalls(int cog) {
+        return hubStalls[cog & 0b111];
+    }
+
+    /**
+     * @param cog cog id
+     * @return live per address count of cycles spent blocked in WAITCNT, WAITPEQ or WAITPNE
+     */
+    public long[] getWaitCycles(int cog) {
+        return waits[cog & 0b111];
+    }
+
+    /**
+     * Discards everything counted so far
+     */
+    public void reset() {
+        for (int i = 0; i < NUM_COGS; i++) {
+            Arrays.fill(executions[i], 0);
+            Arrays.fill(cycles[i], 0);
+            Arrays.fill(hubStalls[i], 0);
+            Arrays.fill(waits[i], 0);
+        }
+        Arrays.fill(last, null);
+    }
+
+    /**
+     * Writes a disassembly of a cog's RAM annotated with the counts of each address, skipping
+     * addresses that never ran
+     *
+     * @param cog cog whose RAM and counts are listed
+     * @param out destination of the listing
+     * @throws IOException if out does
+     */
+    public void generateListing(Cog cog, Appendable out) throws IOException {
+        int id = cog.getID();
+        int[] cogram = cog.getCogram();
+        Disassembler disassembler = new Disassembler();
+
+        long total = 0;
+        for (long c : cycles[id])
+            total += c;
+
+        out.append(String.format("Cog %d: %d cycles%n%n", id, total));
+        out.append(String.format(" addr %12s %14s %7s %12s %12s  %s%n", "executions", "cycles", "%", "hub stall",
+                "wait", "instruction"));
+
+        boolean skipped = false;
+        for (int addr = 0; addr < COG_RAM_SIZE; addr++) {
+            if (cycles[id][addr] == 0) {
+                skipped = true;
+                continue;
+            }
+            if (skipped && addr > 0)
+                out.append("  ...\n");
+            skipped = false;
+            out.append(String.format(" %03X  %12d %14d %6.2f%% %12d %12d  %s%n", addr, executions[id][addr],
+                    cycles[id][addr], (total == 0) ? 0 : 100.0 * cycles[id][addr] / total, hubStalls[id][addr],
+                    waits[id][addr], disassembler.disassemble(cogram[addr])));
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.wcmarshall.jpropsim;
+
+/**
+ * Model of a device outside the chip, connected to some of the P8X32A's port A pins.
+ *
+ * Peripherals are edge driven: the hub calls {@link #pinsChanged(Hub, int, int, int)} only on cycles
+ * where the effective OUTA or DIRA state of a watched pin changed, so an idle bus costs nothing.
+ * Peripherals drive the chip's inputs back through {@link Hub#setPinIn(int, boolean)}, and may use
+ * {@link Hub#schedule(Event)} for anything that has to happen at a later time.
+ */
+public interface Peripheral {
+
+    /**
+     * @return bit mask of the port A pins this peripheral watches
+     */
+    int getPinMask();
+
+    /**
+     * Called once when the peripheral is added to a hub, e.g. to set the idle level of its outputs.
+     *
+     * @param hub hub the peripheral was added to
+     */
+    default void attach(Hub hub) {
+    }
+
+    /**
+     * @param hub hub the pins belong to
+     * @param outa effective OUTA of all cogs
+     * @param dira effective DIRA of all cogs
+     * @param changed pins whose OUTA or DIRA state changed this cycle
+     */
+    void pinsChanged(Hub hub, int outa, int dira, int changed);
+
+    /**
+     * Level of a pin as seen from outside the chip, assuming a pull-up when nothing drives it.
+     *
+     * @param pin pin number
+     * @param outa effective OUTA
+     * @param dira effective DIRA
+     * @return true if the pin is high
+     */
+    static boolean pinLevel(int pin, int outa, int dira) {
+        int mask = 1 << pin;
+        return (dira & mask) == 0 || (outa & mask) != 0;
+    }
+}
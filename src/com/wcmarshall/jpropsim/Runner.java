@@ -0,0 +1,220 @@
+package com.wcmarshall.jpropsim;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Runs a hub without interaction until a cycle budget is used up or one of a set of stop conditions holds,
+ * then reports the final state and how fast the simulation ran. Conditions are tested after every cycle and
+ * nothing is printed while running. Breakpoints installed on the hub also end the run, and cost nothing per
+ * cycle; prefer them to conditions for long runs.
+ */
+public class Runner {
+
+    /**
+     * A named test of the hub state
+     */
+    public static class Condition {
+        private final String description;
+        private final Predicate<Hub> test;
+
+        public Condition(String description, Predicate<Hub> test) {
+            this.description = description;
+            this.test = test;
+        }
+
+        public boolean test(Hub hub) {
+            return test.test(hub);
+        }
+
+        @Override
+        public String toString() {
+            return description;
+        }
+    }
+
+    /**
+     * Outcome of {@link #run()}
+     */
+    public static class Result {
+        private final Condition condition;
+        private final Breakpoints.Hit hit;
+        private final long cycles;
+        private final long nanos;
+
+        Result(Condition condition, Breakpoints.Hit hit, long cycles, long nanos) {
+            this.condition = condition;
+            this.hit = hit;
+            this.cycles = cycles;
+            this.nanos = nanos;
+        }
+
+        /**
+         * @return the condition that stopped the run, or null if it was not stopped by a condition
+         */
+        public Condition getCondition() {
+            return condition;
+        }
+
+        /**
+         * @return the breakpoint that stopped the run, or null if it was not stopped by a breakpoint
+         */
+        public Breakpoints.Hit getHit() {
+            return hit;
+        }
+
+        /**
+         * @return true if the run ended because the cycle budget ran out
+         */
+        public boolean isBudgetExhausted() {
+            return condition == null && hit == null;
+        }
+
+        public long getCycles() {
+            return cycles;
+        }
+
+        public long getWallNanos() {
+            return nanos;
+        }
+
+        /**
+         * @return simulated clock rate in MHz
+         */
+        public double getEffectiveMHz() {
+            return (nanos == 0) ? 0 : cycles * 1000.0 / nanos;
+        }
+    }
+
+    private final Hub hub;
+    private final List<Condition> conditions = new ArrayList<>();
+    private long budget = Long.MAX_VALUE;
+
+    public Runner(Hub hub) {
+        this.hub = hub;
+    }
+
+    /**
+     * @param cycles most cycles to run
+     */
+    public void setBudget(long cycles) {
+        this.budget = cycles;
+    }
+
+    public void addCondition(Condition condition) {
+        conditions.add(condition);
+    }
+
+    /**
+     * Stops once a pin is at a level, seen from outside the chip: OUTA if some cog drives it, otherwise INA
+     *
+     * @param pin port A pin
+     * @param high level to wait for
+     */
+    public static Condition pin(int pin, boolean high) {
+        int mask = 1 << pin;
+        return new Condition(String.format("P%d == %d", pin, high ? 1 : 0), hub -> {
+            int dira = hub.getDira();
+            int level = ((dira & mask) != 0) ? hub.getOuta() : hub.getPinInputs();
+            return ((level & mask) != 0) == high;
+        });
+    }
+
+    /**
+     * Stops once a hub location holds a value
+     *
+     * @param address hub address
+     * @param size 1, 2 or 4 bytes
+     * @param value value to wait for
+     */
+    public static Condition memory(int address, int size, int value) {
+        switch (size) {
+            case 1:
+                return new Condition(String.format("BYTE[$%04X] == %d", address, value & 0xFF),
+                        hub -> hub.getByte(address) == (value & 0xFF));
+            case 2:
+                return new Condition(String.format("WORD[$%04X] == %d", address, value & 0xFFFF),
+                        hub -> hub.getWord(address) == (value & 0xFFFF));
+            case 4:
+                return new Condition(String.format("LONG[$%04X] == %d", address, value),
+                        hub -> hub.getLong(address) == value);
+            default:
+                throw new IllegalArgumentException("Size must be 1, 2 or 4: " + size);
+        }
+    }
+
+    /**
+     * Stops once no cog is running
+     */
+    public static Condition allCogsStopped() {
+        return new Condition("all cogs stopped", hub -> {
+            for (int i = 0; i < 8; i++) {
+                if (hub.getCog(i).isRunning())
+                    return false;
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Runs until the budget is used up or a condition holds
+     *
+     * @return which condition stopped the run, and the cycles and wall time it took
+     */
+    public Result run() {
+        Condition[] tests = conditions.toArray(new Condition[0]);
+        Condition[] met = new Condition[1];
+        Predicate<Hub> until = null;
+        if (tests.length > 0) {
+            until = h -> {
+                for (Condition c : tests) {
+                    if (c.test(h)) {
+                        met[0] = c;
+                        return true;
+                    }
+                }
+                return false;
+            };
+        }
+
+        Breakpoints breakpoints = hub.getBreakpoints();
+        if (breakpoints != null)
+            breakpoints.clearHit();
+        hub.clearStopRequest();
+
+        long start = System.nanoTime();
+        long cycles = hub.run(budget, until);
+        long nanos = System.nanoTime() - start;
+        return new Result(met[0], (breakpoints != null) ? breakpoints.getHit() : null, cycles, nanos);
+    }
+
+    /**
+     * Writes the reason the run stopped, its speed, the pins and the state of each cog
+     */
+    public void printSummary(Result result, PrintStream out) {
+        Object reason = (result.getHit() != null) ? result.getHit() : result.getCondition();
+        out.printf("Stopped:   %s%n", (reason == null) ? "cycle budget" : reason);
+        out.printf("Cycles:    %d (CNT $%08X)%n", result.getCycles(), hub.getCnt());
+        out.printf("Wall time: %.3f s%n", result.getWallNanos() / 1e9);
+        out.printf("Rate:      %.3f MHz%n", result.getEffectiveMHz());
+        out.printf("OUTA $%08X  DIRA $%08X  INA $%08X%n", hub.getOuta(), hub.getDira(), hub.getIna());
+        for (int i = 0; i < 8; i++) {
+            Cog cog = hub.getCog(i);
+            if (!cog.isRunning()) {
+                out.printf("Cog %d: stopped%n", i);
+            } else if (!cog.isProgramLoaded()) {
+                out.printf("Cog %d: loading from $%04X, %d longs%n", i, cog.getHubProgramAddress(),
+                        cog.getProgramLoadCount());
+            } else if (cog.getSpinInterpreter() != null) {
+                out.printf("Cog %d: Spin (native) PCURR $%04X%n", i, cog.getSpinInterpreter().getPcurr());
+            } else {
+                cog.settle();
+                out.printf("Cog %d: PC $%03X  Z %d  C %d  %s%s%n", i, cog.getPC(), cog.getZFlag() ? 1 : 0,
+                        cog.getCFlag() ? 1 : 0, cog.getCurrentInstruction(),
+                        cog.isSpinImage() ? "  (Spin interpreter)" : "");
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.wcmarshall.jpropsim;
+
+import java.util.PriorityQueue;
+
+/**
+ * Queue of pending {@link Event}s ordered by the cycle they are due on.
+ *
+ * The hub only consults the scheduler when the next due time has been reached, so a simulation
+ * with sparse stimulus pays one comparison per cycle rather than polling every source.
+ */
+public class Scheduler {
+
+    private final PriorityQueue<Event> queue = new PriorityQueue<>();
+
+    private long sequence = 0;
+
+    public void schedule(Event event) {
+        event.setSequence(sequence++);
+        queue.add(event);
+    }
+
+    public boolean cancel(Event event) {
+        return queue.remove(event);
+    }
+
+    /**
+     * @return time of the earliest pending event, or Long.MAX_VALUE if nothing is queued
+     */
+    public long nextTime() {
+        Event head = queue.peek();
+        return (head == null) ? Long.MAX_VALUE : head.getTime();
+    }
+
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    public int size() {
+        return queue.size();
+    }
+
+    public void clear() {
+        queue.clear();
+    }
+
+    /**
+     * Fires every event due at or before now. Events scheduled while dispatching are fired too
+     * if they are also due.
+     *
+     * @param hub hub to fire the events on
+     * @param now current absolute cycle count
+     * @return time of the earliest event still pending
+     */
+    public long dispatch(Hub hub, long now) {
+        Event head;
+        while ((head = queue.peek()) != null && head.getTime() <= now) {
+            queue.poll();
+            head.fire(hub);
+        }
+        return nextTime();
+    }
+}
@@ -0,0 +1,224 @@
+package com.wcmarshall.jpropsim;
+
+import com.wcmarshall.jpropsim.jfr.SnapshotEvent;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Save-state file holding the complete Hub and Cog state, so a simulation can resume from any point
+ * without repeating the boot.
+ *
+ * <pre>
+ * $0000  header      magic "JPSS", version, RAM offset, cycle count, CNT, hub alignment, INA, locks
+ *                    checked out in bits 15 to 8 and lock states in bits 7 to 0, cog count
+ * $1000  hub RAM     32KB, stored as-is and page aligned so it can be memory-mapped
+ * $9000  cog records per cog: id, flags, PC, load state, pipelined instructions, then a 512 bit
+ *                    map of the non-zero cog RAM longs followed by only those longs
+ * </pre>
+ *
+ * All multi-byte header and cog fields are big-endian. Hub ROM, scheduled events, peripherals, the
+ * counters' input delay and PLL phase and the video generators' shifters are not part of the snapshot.
+ * An instruction that was part way through its cycles when the snapshot was taken is re-issued from its
+ * first cycle on restore. Cogs running Spin natively are saved at the interpreter's main loop and resume
+ * as PASM, until they next reach the main loop of a hub with Spin acceleration enabled.
+ */
+public class Snapshot {
+
+    public static final int MAGIC = ('J' << 24) | ('P' << 16) | ('S' << 8) | 'S';
+    public static final int VERSION = 2;
+
+    public static final int RAM_OFFSET = 0x1000;
+    public static final int RAM_SIZE = 0x8000;
+
+    private static final int NUM_COGS = 8;
+    private static final int COG_RAM_SIZE = 512;
+
+    private static final int FLAG_RUNNING = 1;
+    private static final int FLAG_LOADED = 2;
+    private static final int FLAG_Z = 4;
+    private static final int FLAG_C = 8;
+
+    public static void save(Hub hub, File file) throws IOException {
+        SnapshotEvent event = new SnapshotEvent();
+        event.begin();
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            save(hub, out);
+        }
+        if (event.shouldCommit()) {
+            event.operation = SnapshotEvent.SAVE;
+            event.path = file.getPath();
+            event.cycle = hub.getCycles();
+            event.commit();
+        }
+    }
+
+    public static void save(Hub hub, OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(RAM_OFFSET);
+        out.writeLong(hub.getCycles());
+        out.writeInt(hub.getCnt());
+        out.writeInt(hub.getAlignment());
+        out.writeInt(hub.getPinInputs());
+        out.writeInt(hub.getLocks());
+        out.writeInt(NUM_COGS);
+        for (int i = out.size(); i < RAM_OFFSET; i++)
+            out.writeByte(0);
+
+        out.write(hub.getRam());
+
+        for (int i = 0; i < NUM_COGS; i++)
+            writeCog(out, hub.getCog(i));
+        out.flush();
+    }
+
+    private static void writeCog(DataOutputStream out, Cog cog) throws IOException {
+        if (cog.getSpinInterpreter() != null)
+            cog.getSpinInterpreter().syncToCog();
+        cog.settle();
+
+        int flags = (cog.isRunning() ? FLAG_RUNNING : 0) | (cog.isProgramLoaded() ? FLAG_LOADED : 0)
+                | (cog.getZFlag() ? FLAG_Z : 0) | (cog.getCFlag() ? FLAG_C : 0);
+        out.writeByte(cog.getID());
+        out.writeByte(flags);
+        out.writeShort(cog.getPC());
+        out.writeShort(cog.getHubProgramAddress());
+        out.writeShort(cog.getProgramLoadCount());
+        out.writeInt(cog.isProgramLoaded() ? cog.getCurrentInstruction().getEffectiveEncoding() : 0);
+        out.writeInt(cog.isProgramLoaded() ? cog.getNextInstruction().getEffectiveEncoding() : 0);
+
+        int[] cogram = cog.getCogram();
+        // CNT and INA read through to the hub, so the stored copies are meaningless
+        cogram[Cog.CNT_ADDR] = 0;
+        cogram[Cog.INA_ADDR] = 0;
+        long[] map = new long[COG_RAM_SIZE / 64];
+        for (int i = 0; i < COG_RAM_SIZE; i++) {
+            if (cogram[i] != 0)
+                map[i >> 6] |= 1L << (i & 63);
+        }
+        for (long word : map)
+            out.writeLong(word);
+        for (int i = 0; i < COG_RAM_SIZE; i++) {
+            if (cogram[i] != 0)
+                out.writeInt(cogram[i]);
+        }
+    }
+
+    /**
+     * Creates a new hub in the saved state. Hub ROM is loaded as usual by {@link Hub#Hub()}.
+     *
+     * @param file snapshot to load, which is memory-mapped rather than read
+     * @return restored hub
+     * @throws IOException if the file cannot be read or is not a supported snapshot
+     */
+    public static Hub load(File file) throws IOException {
+        SnapshotEvent event = new SnapshotEvent();
+        event.begin();
+        Hub hub;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            hub = load(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+        if (event.shouldCommit()) {
+            event.operation = SnapshotEvent.LOAD;
+            event.path = file.getPath();
+            event.cycle = hub.getCycles();
+            event.commit();
+        }
+        return hub;
+    }
+
+    /**
+     * @param file any file
+     * @return true if the file starts with the snapshot magic number
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean isSnapshot(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return file.length() >= 4 && in.readInt() == MAGIC;
+        }
+    }
+
+    /**
+     * Creates a new hub from a snapshot stream, for sources that cannot be memory-mapped
+     */
+    public static Hub load(InputStream in) throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream(RAM_OFFSET + RAM_SIZE + NUM_COGS * 256);
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) >= 0)
+            data.write(buffer, 0, count);
+        return load(ByteBuffer.wrap(data.toByteArray()));
+    }
+
+    private static Hub load(ByteBuffer in) throws IOException {
+        try {
+            if (in.getInt() != MAGIC)
+                throw new IOException("Not a snapshot file");
+            int version = in.getInt();
+            if (version != VERSION)
+                throw new IOException(String.format("Unsupported snapshot version %d", version));
+            int ramOffset = in.getInt();
+            long cycles = in.getLong();
+            int cnt = in.getInt();
+            int alignment = in.getInt();
+            int ina = in.getInt();
+            int locks = in.getInt();
+            if (in.getInt() != NUM_COGS)
+                throw new IOException("Snapshot cog count does not match");
+            if (ramOffset < in.position())
+                throw new IOException("Corrupt snapshot header");
+
+            Hub hub = new Hub();
+            hub.restore(cycles, cnt, alignment, ina, locks);
+
+            byte[] ram = new byte[RAM_SIZE];
+            in.position(ramOffset);
+            in.get(ram);
+            hub.loadRam(ram);
+
+            for (int i = 0; i < NUM_COGS; i++)
+                readCog(hub, in);
+            return hub;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Truncated snapshot file", e);
+        }
+    }
+
+    private static void readCog(Hub hub, ByteBuffer in) {
+        int id = in.get() & 0xFF;
+        int flags = in.get() & 0xFF;
+        int pc = in.getShort() & 0xFFFF;
+        int hubProgAddr = in.getShort() & 0xFFFF;
+        int loadCount = in.getShort() & 0xFFFF;
+        int current = in.getInt();
+        int next = in.getInt();
+
+        long[] map = new long[COG_RAM_SIZE / 64];
+        for (int i = 0; i < map.length; i++)
+            map[i] = in.getLong();
+        int[] cogram = new int[COG_RAM_SIZE];
+        for (int i = 0; i < COG_RAM_SIZE; i++) {
+            if ((map[i >> 6] & (1L << (i & 63))) != 0)
+                cogram[i] = in.getInt();
+        }
+
+        Cog cog = hub.getCog(id & 0b111);
+        cog.restore((flags & FLAG_RUNNING) != 0, (flags & FLAG_LOADED) != 0, hubProgAddr, loadCount, pc & 0x1FF,
+                (flags & FLAG_Z) != 0, (flags & FLAG_C) != 0, cogram, current, next);
+    }
+}
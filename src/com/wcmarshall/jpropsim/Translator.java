@@ -0,0 +1,561 @@
+package com.wcmarshall.jpropsim;
+
+import com.wcmarshall.jpropsim.disassembler.Instruction;
+
+import java.util.Arrays;
+
+/**
+ * Translates hot runs of PASM in one cog into blocks of pre-decoded operations.
+ *
+ * A block starts at an address the cog has entered often enough and holds up to {@link #MAX_LENGTH}
+ * instructions that always take 4 cycles, hub accesses, and adjacent pairs matched by the hub's
+ * {@link Fusions}. It ends at the first instruction that cannot be translated, or after a JMP, CALL, RET,
+ * JMPRET, DJNZ, TJZ or TJNZ. Each operation acts on the cycle its instruction would complete, so timing and
+ * results are exact, but nothing is decoded and no per-cycle predicates run. Writing an address a block
+ * covers, or the one after it, discards the block, and an entry point whose blocks keep being discarded is
+ * no longer translated.
+ *
+ * A block that jumps back to its own start, writes nothing outside cog RAM and reads nothing but cog RAM, INA
+ * and the hub records which registers it writes, so that with {@link Hub#setIdleSkipping(boolean)} the cog
+ * can be suspended once an iteration leaves them unchanged.
+ *
+ * Operations are plain virtual calls. The hub ticks every cog once a cycle, so a block can never run as one
+ * call, and building it as a MethodHandle chain would only trade one dispatch per instruction for another;
+ * the time left goes on the hub loop and on decoding the instructions run outside blocks.
+ *
+ * Install with {@link Hub#setTranslation(boolean)}.
+ */
+class Translator {
+
+    /**
+     * Returned by {@link Op#act(Cog)} to go on to the next operation
+     */
+    static final int NEXT = 0;
+
+    /**
+     * Returned by {@link Op#act(Cog)} once the operation has changed the PC
+     */
+    static final int JUMPED = -1;
+
+    /**
+     * One translated instruction, or several fused into one operation
+     */
+    abstract static class Op {
+        final int address;
+        // instructions covered
+        final int length;
+        // the block ends after this operation
+        final boolean last;
+
+        Op(int address, int length, boolean last) {
+            this.address = address;
+            this.length = length;
+            this.last = last;
+        }
+
+        /**
+         * Called when the PC arrives at the operation
+         *
+         * @return cycles until its first action
+         */
+        int issue(Cog cog) {
+            return 4 * length;
+        }
+
+        /**
+         * Performs the operation's next action, on the cycle it falls due
+         *
+         * @return cycles until a further action, {@link #NEXT} or {@link #JUMPED}
+         */
+        abstract int act(Cog cog);
+
+        /**
+         * @return cycles the operation took the last time it ran
+         */
+        int lastCycles() {
+            return 4 * length;
+        }
+
+        /**
+         * Puts the operation in the state it was in a number of cycles after it issued the last time it ran
+         *
+         * @param elapsed cycles since issue, less than {@link #lastCycles()}
+         * @return cycles until its next action
+         */
+        int resume(int elapsed) {
+            return lastCycles() - elapsed;
+        }
+    }
+
+    /**
+     * An operation that can be performed at once, to catch up a cog that skipped part of an idle loop. Every
+     * operation of a loop that idles is one, except the last, which the skipped part of an iteration cannot
+     * have completed.
+     */
+    interface Replayable {
+        /**
+         * Performs the whole operation at once as it last ran
+         */
+        void replay(Cog cog);
+    }
+
+    /**
+     * An instruction that always takes 4 cycles and falls through
+     */
+    static class Straight extends Op implements Replayable {
+        private final Instruction instruction;
+
+        Straight(int address, Instruction instruction) {
+            super(address, 1, false);
+            this.instruction = instruction;
+        }
+
+        @Override
+        int act(Cog cog) {
+            instruction.executeAtOnce(cog);
+            return NEXT;
+        }
+
+        @Override
+        public void replay(Cog cog) {
+            instruction.executeAtOnce(cog);
+        }
+    }
+
+    /**
+     * JMPRET and its forms
+     */
+    static class Jump extends Op {
+        private final Instruction instruction;
+
+        Jump(int address, Instruction instruction) {
+            super(address, 1, true);
+            this.instruction = instruction;
+        }
+
+        @Override
+        int act(Cog cog) {
+            return instruction.executeAtOnce(cog) ? JUMPED : NEXT;
+        }
+    }
+
+    /**
+     * DJNZ, TJZ and TJNZ, which spend 4 more cycles as a NOP when they fall through
+     */
+    static class Branch extends Op {
+        private final Instruction instruction;
+        private boolean fallingThrough;
+
+        Branch(int address, Instruction instruction) {
+            super(address, 1, true);
+            this.instruction = instruction;
+        }
+
+        @Override
+        int issue(Cog cog) {
+            fallingThrough = false;
+            return 4;
+        }
+
+        @Override
+        int act(Cog cog) {
+            if (fallingThrough || !instruction.testCondition(cog))
+                return NEXT;
+            if (instruction.executeBranch(cog))
+                return JUMPED;
+            fallingThrough = true;
+            cog.holdInstruction(new Instruction(instruction.getEncodedInstr() & ~(0b1111 << 18)));
+            return 4;
+        }
+
+        @Override
+        int resume(int elapsed) {
+            // a loop only idles on a branch that jumps
+            fallingThrough = false;
+            return 4 - elapsed;
+        }
+    }
+
+    /**
+     * Counts the cycles of a hub access: 4 as a NOP if its condition fails, otherwise until the cog's hub
+     * window and 7 more
+     */
+    static class HubWindow {
+        private static final int START = 0, WAITING = 1, ACCESS = 2, SKIPPED = 3;
+
+        private int state, stalled;
+
+        int issue() {
+            state = START;
+            stalled = 0;
+            return 1;
+        }
+
+        /**
+         * @return cycles to wait before calling again, or 0 once the access is due or, if its condition
+         * failed, once its NOP is over
+         */
+        int poll(Cog cog, Instruction instruction) {
+            switch (state) {
+                case START:
+                    if (!instruction.testCondition(cog)) {
+                        state = SKIPPED;
+                        return 3;
+                    }
+                    state = WAITING;
+                    // the window may be open on the first cycle
+                    return waitForWindow(cog);
+                case WAITING:
+                    return waitForWindow(cog);
+                default:
+                    return 0;
+            }
+        }
+
+        private int waitForWindow(Cog cog) {
+            if (!cog.isHubAligned()) {
+                stalled++;
+                cog.hubStall();
+                return 1;
+            }
+            cog.hubAccess(stalled);
+            state = ACCESS;
+            return 7;
+        }
+
+        boolean skipped() {
+            return state == SKIPPED;
+        }
+
+        /**
+         * @return cycles the last access took, from issue to completion
+         */
+        int lastCycles() {
+            return (state == SKIPPED) ? 4 : stalled + 8;
+        }
+
+        /**
+         * Returns to the state of the last access a number of cycles after it issued
+         *
+         * @return cycles until the next poll
+         */
+        int resume(int elapsed) {
+            if (state == SKIPPED)
+                return 4 - elapsed;
+            int aligned = stalled + 1;
+            if (elapsed >= aligned) {
+                state = ACCESS;
+                return stalled + 8 - elapsed;
+            }
+            state = (elapsed == 0) ? START : WAITING;
+            stalled = elapsed;
+            return 1;
+        }
+    }
+
+    /**
+     * RDBYTE, RDWORD, RDLONG and their writing forms
+     */
+    static class HubAccess extends Op implements Replayable {
+        private final Instruction instruction;
+        private final HubWindow window = new HubWindow();
+        // hub address of the last access
+        private int hubAddress;
+
+        HubAccess(int address, Instruction instruction) {
+            super(address, 1, false);
+            this.instruction = instruction;
+        }
+
+        @Override
+        int issue(Cog cog) {
+            return window.issue();
+        }
+
+        @Override
+        int act(Cog cog) {
+            int wait = window.poll(cog, instruction);
+            if (wait != 0)
+                return wait;
+            if (!window.skipped())
+                replay(cog);
+            return NEXT;
+        }
+
+        @Override
+        int lastCycles() {
+            return window.lastCycles();
+        }
+
+        @Override
+        public void replay(Cog cog) {
+            if (window.skipped())
+                return;
+            hubAddress = instruction.getSourceValue(cog) & 0xFFFF;
+            instruction.executeAtOnce(cog);
+        }
+
+        @Override
+        int resume(int elapsed) {
+            return window.resume(elapsed);
+        }
+
+        /**
+         * @return true if the last access read a byte in a range, counting the whole long it is in
+         */
+        boolean reads(int base, int count) {
+            int first = hubAddress & ~0b11;
+            return !window.skipped() && base <= first + 3 && first < base + count;
+        }
+    }
+
+    /**
+     * A translated run of operations
+     */
+    static class Block {
+        final int start;
+        final Op[] ops;
+        // instructions covered
+        final int length;
+        // for a loop that can idle, the registers it writes; null for other blocks
+        final int[] loopRegisters;
+        // the loop reads INA or the hub
+        final boolean readsPins, readsHub;
+
+        Block(int start, Op[] ops, int[] loopRegisters, boolean readsPins, boolean readsHub) {
+            this.start = start;
+            this.ops = ops;
+            int n = 0;
+            for (Op op : ops)
+                n += op.length;
+            this.length = n;
+            this.loopRegisters = loopRegisters;
+            this.readsPins = readsPins;
+            this.readsHub = readsHub;
+        }
+
+        /**
+         * @return true if the last access of any hub read in the loop was in a range
+         */
+        boolean readsHub(int base, int count) {
+            for (Op op : ops) {
+                if (op instanceof HubAccess && ((HubAccess) op).reads(base, count))
+                    return true;
+            }
+            return false;
+        }
+
+        /**
+         * @return address of the first instruction after the block, which the cog has prefetched
+         */
+        int end() {
+            return start + length;
+        }
+    }
+
+    static final int MAX_LENGTH = 64;
+    // entries into an address before it is translated
+    static final int HOT = 8;
+    // discarded blocks before an address is given up on
+    static final int MAX_INVALIDATIONS = 4;
+
+    private static final int COG_RAM_SIZE = 512;
+
+    private final Cog cog;
+    private final Fusions fusions;
+
+    private final Block[] blocks = new Block[COG_RAM_SIZE];
+    private final int[] heat = new int[COG_RAM_SIZE];
+    private final int[] invalidations = new int[COG_RAM_SIZE];
+    private final boolean[] rejected = new boolean[COG_RAM_SIZE];
+    // number of blocks covering each address, including the prefetched one after a block
+    private final int[] covered = new int[COG_RAM_SIZE];
+
+    private long translated = 0, discarded = 0;
+
+    /**
+     * @param fusions patterns to fuse, or null to translate each instruction on its own
+     */
+    Translator(Cog cog, Fusions fusions) {
+        this.cog = cog;
+        this.fusions = fusions;
+    }
+
+    /**
+     * Called when the cog's PC arrives at an address
+     *
+     * @return block starting at the address, or null to interpret it
+     */
+    Block enter(int pc) {
+        Block block = blocks[pc];
+        if (block != null || rejected[pc] || ++heat[pc] < HOT)
+            return block;
+        block = translate(pc);
+        if (block == null) {
+            rejected[pc] = true;
+            return null;
+        }
+        blocks[pc] = block;
+        for (int a = pc; a <= block.end(); a++)
+            covered[a]++;
+        translated++;
+        return block;
+    }
+
+    /**
+     * Called when a cog register is written, discarding the blocks that cover it
+     */
+    void written(int addr) {
+        if (covered[addr] == 0) return;
+        for (int start = Math.max(addr - MAX_LENGTH, 0); start <= addr; start++) {
+            Block block = blocks[start];
+            if (block != null && addr <= block.end())
+                discard(block);
+        }
+    }
+
+    private void discard(Block block) {
+        blocks[block.start] = null;
+        for (int a = block.start; a <= block.end(); a++)
+            covered[a]--;
+        heat[block.start] = 0;
+        if (++invalidations[block.start] >= MAX_INVALIDATIONS)
+            rejected[block.start] = true;
+        discarded++;
+    }
+
+    /**
+     * Discards everything, for when the cog is restarted or restored
+     */
+    void reset() {
+        Arrays.fill(blocks, null);
+        Arrays.fill(heat, 0);
+        Arrays.fill(invalidations, 0);
+        Arrays.fill(rejected, false);
+        Arrays.fill(covered, 0);
+    }
+
+    /**
+     * @return blocks translated since the translator was installed
+     */
+    long getTranslated() {
+        return translated;
+    }
+
+    /**
+     * @return blocks discarded because their code was written
+     */
+    long getDiscarded() {
+        return discarded;
+    }
+
+    private Block translate(int start) {
+        Op[] ops = new Op[MAX_LENGTH];
+        boolean[] writes = new boolean[COG_RAM_SIZE];
+        int n = 0;
+        // whether the block can be a loop that idles, as far as the instructions so far go
+        boolean loop = true, readsPins = false, readsHub = false;
+        boolean[] loopWrites = new boolean[COG_RAM_SIZE];
+
+        for (int a = start; a - start < MAX_LENGTH && a < Cog.PAR_ADDR; ) {
+            Instruction first = new Instruction(cog.getLong(a));
+            if (!fits(first, start, a, writes))
+                break;
+
+            Op op = null;
+            if (fusions != null && a + 1 < Cog.PAR_ADDR && a + 1 - start < MAX_LENGTH) {
+                Instruction second = new Instruction(cog.getLong(a + 1));
+                // fits() notes the second instruction's write, which only stands if it is fused
+                boolean noted = writes[second.getDest()];
+                if (fits(second, start, a + 1, writes)) {
+                    op = fusions.match(first, second, a);
+                    if (op == null)
+                        writes[second.getDest()] = noted;
+                }
+            }
+            if (op != null) {
+                loop = false;
+            } else {
+                op = single(first, a);
+                if (op == null)
+                    break;
+                if (loop) {
+                    loop = idles(first, op, start) && (op.last || op instanceof Replayable);
+                    readsPins |= reads(first, Cog.INA_ADDR);
+                    readsHub |= first.isHubAccess();
+                    if (first.writesResult())
+                        loopWrites[first.getDest()] = true;
+                }
+            }
+            ops[n++] = op;
+            a += op.length;
+            if (op.last)
+                break;
+        }
+        if (n == 0)
+            return null;
+        ops = Arrays.copyOf(ops, n);
+        int[] loopRegisters = null;
+        if (loop && ops[n - 1].last) {
+            loopRegisters = new int[0];
+            for (int r = 0; r < COG_RAM_SIZE; r++) {
+                if (loopWrites[r]) {
+                    loopRegisters = Arrays.copyOf(loopRegisters, loopRegisters.length + 1);
+                    loopRegisters[loopRegisters.length - 1] = r;
+                }
+            }
+        }
+        return new Block(start, ops, loopRegisters, readsPins, readsHub);
+    }
+
+    /**
+     * @return true if an instruction can be part of a loop that idles: it changes nothing outside the cog,
+     * reads only cog RAM, INA and the hub, and if it ends the block it jumps back to the start
+     */
+    private static boolean idles(Instruction instruction, Op op, int start) {
+        if (op.last && (instruction.isJump() || instruction.isBranch()))
+            return instruction.isImmediate() && instruction.getSource() == start
+                    && !(instruction.isJump() && instruction.writesResult()) && idleRead(instruction.getDest());
+        if (instruction.isHubAccess() && !instruction.writesResult())
+            return false;
+        if (instruction.writesResult() && instruction.getDest() >= Cog.PAR_ADDR)
+            return false;
+        return idleRead(instruction.getDest()) && (instruction.isImmediate() || idleRead(instruction.getSource()));
+    }
+
+    private static boolean idleRead(int register) {
+        return register <= Cog.PAR_ADDR || register == Cog.INA_ADDR;
+    }
+
+    private static boolean reads(Instruction instruction, int register) {
+        return instruction.getDest() == register || (!instruction.isImmediate() && instruction.getSource() == register);
+    }
+
+    private static Op single(Instruction instruction, int address) {
+        if (instruction.isStraightLine())
+            return new Straight(address, instruction);
+        if (instruction.isJump())
+            return new Jump(address, instruction);
+        if (instruction.isBranch())
+            return new Branch(address, instruction);
+        if (instruction.isHubAccess())
+            return new HubAccess(address, instruction);
+        return null;
+    }
+
+    /**
+     * Checks that neither an instruction nor an earlier one in the block writes the block or the prefetched
+     * address after it, and notes what the instruction writes
+     */
+    private static boolean fits(Instruction instruction, int start, int address, boolean[] writes) {
+        int dest = instruction.getDest();
+        if (writes[address] || writes[address + 1])
+            return false;
+        if (instruction.writesResult()) {
+            if (dest >= start && dest <= address + 1)
+                return false;
+            writes[dest] = true;
+        }
+        return true;
+    }
+}
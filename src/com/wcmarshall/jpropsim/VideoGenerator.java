@@ -0,0 +1,177 @@
+package com.wcmarshall.jpropsim;
+
+/**
+ * A cog's video generator, modelled on cog_vid.v in the P8X32A Verilog.
+ *
+ * The generator runs on the video clock, the PLL output of the cog's counter A. VSCL sets how many video
+ * clocks each pixel lasts and how many a frame, the pixels of one WAITVID, lasts. VCFG picks 2 or 4 colour
+ * pixels, the pin group and pins driven, and the mode: VGA drives the colour byte of each pixel straight
+ * onto the pins, while the composite modes drive a 3 bit luma level on one nibble of the group, stepped up
+ * or down by a chroma phase that turns once every 16 video clocks when the colour asks for it, with the
+ * chroma phase itself on the nibble's top bit.
+ *
+ * At the end of each frame the generator loads the colours and pixels of the WAITVID its cog is waiting in
+ * and releases it; if the cog is not waiting, it carries on shifting out the colours and pixels it has. With
+ * VCFG's mode off the video clock is stopped, so a WAITVID never completes, as on the chip. Each cycle's
+ * output is written to the pin group as a whole.
+ *
+ * The broadcast output of the composite modes and the aural subcarrier are not modelled, and the pins
+ * they would drive stay low.
+ */
+public class VideoGenerator {
+
+    private static final int CMODE = 1 << 28;
+    private static final int CHROMA0 = 1 << 26;
+
+    private final Cog cog;
+
+    // video clocks left in the current pixel and frame, expiring at 1
+    private int pixelCount = 1, frameCount = 1;
+    // pixels being shifted out, least significant first, and the colours they index
+    private int pixels = 0, colors = 0;
+    // chroma phase, stepped on every video clock
+    private int phase = 0;
+
+    // operands of the WAITVID the cog is in, and whether a frame has taken them
+    private boolean offered = false, taken = false;
+    private int offeredColors = 0, offeredPixels = 0;
+
+    public VideoGenerator(Cog c) {
+        cog = c;
+    }
+
+    /**
+     * @return true if VCFG selects a video mode, which starts the video clock
+     */
+    public static boolean isEnabled(int vcfg) {
+        return ((vcfg >>> 29) & 0b11) != 0;
+    }
+
+    /**
+     * Returns the generator to its state when the cog starts
+     */
+    void reset() {
+        pixelCount = 1;
+        frameCount = 1;
+        pixels = 0;
+        colors = 0;
+        phase = 0;
+        offered = false;
+        taken = false;
+    }
+
+    /**
+     * Called by WAITVID on each cycle it waits, offering its operands to the next frame
+     *
+     * @param colors colour bytes, indexed by the pixels
+     * @param pixels 32 2 colour or 16 4 colour pixels, least significant first
+     * @return true once a frame has loaded them, so that the WAITVID completes
+     */
+    boolean waitvid(int colors, int pixels) {
+        if (taken) {
+            taken = false;
+            return true;
+        }
+        offered = true;
+        offeredColors = colors;
+        offeredPixels = pixels;
+        return false;
+    }
+
+    /**
+     * Runs the video clocks of one cycle and drives the pin group with where they leave the output
+     *
+     * @param vcfg VCFG register
+     * @param vscl VSCL register
+     * @param clocks video clocks in the cycle
+     */
+    void clock(int vcfg, int vscl, int clocks) {
+        if (clocks == 0)
+            return;
+        int output = 0;
+        for (int i = 0; i < clocks; i++) {
+            // the output is registered, so shows the state before the clock
+            output = output(vcfg);
+            if (frameCount == 1) {
+                if (offered) {
+                    colors = offeredColors;
+                    pixels = offeredPixels;
+                    offered = false;
+                    taken = true;
+                }
+                frameCount = frameClocks(vscl);
+                pixelCount = pixelClocks(vscl);
+            } else {
+                frameCount--;
+                if (pixelCount == 1) {
+                    pixels = ((vcfg & CMODE) != 0) ? (pixels >>> 2) | (pixels & 0xC0000000) : pixels >> 1;
+                    pixelCount = pixelClocks(vscl);
+                } else {
+                    pixelCount--;
+                }
+            }
+            phase = (phase + 1) & 0b1111;
+        }
+        drive(vcfg, output);
+    }
+
+    private static int pixelClocks(int vscl) {
+        int clocks = (vscl >>> 12) & 0xFF;
+        return (clocks == 0) ? 0x100 : clocks;
+    }
+
+    private static int frameClocks(int vscl) {
+        int clocks = vscl & 0xFFF;
+        return (clocks == 0) ? 0x1000 : clocks;
+    }
+
+    /**
+     * @return byte for the pin group from the current pixel
+     */
+    private int output(int vcfg) {
+        int index = ((vcfg & CMODE) != 0) ? (pixels & 0b11) : (pixels & 1);
+        int color = (colors >>> (8 * index)) & 0xFF;
+        switch ((vcfg >>> 29) & 0b11) {
+            case 0b01: // VGA
+                return color;
+            case 0b10: // composite, baseband on the low nibble
+                return baseband(vcfg, phase, color);
+            case 0b11: // composite, baseband on the high nibble
+                return baseband(vcfg, phase, color) << 4;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Baseband composite output, as cog_vid.v computes it. The hue plus the chroma phase gives the colour
+     * phase; when the colour is modulated, bit 3 of the output follows bit 3 of the colour phase, and with
+     * CHROMA0 set the luma is stepped down one while that bit is set and up one while it is clear.
+     *
+     * @param vcfg VCFG register
+     * @param phase chroma phase, 0 to 15
+     * @param color hue in bits 7 to 4, modulate in bit 3 and luma in bits 2 to 0
+     * @return baseband nibble
+     */
+    public static int baseband(int vcfg, int phase, int color) {
+        int luma = color & 0b111;
+        if ((color & 0b1000) == 0)
+            return luma;
+        boolean down = (((color >>> 4) + phase) & 0b1000) != 0;
+        if ((vcfg & CHROMA0) != 0)
+            luma = (luma + (down ? -1 : 1)) & 0b111;
+        return (down ? 0b1000 : 0) | luma;
+    }
+
+    private void drive(int vcfg, int output) {
+        int group = (vcfg >>> 9) & 0b111;
+        if (group > 3)
+            return;
+        int shift = 8 * group;
+        int mask = (vcfg & 0xFF) << shift;
+        int outa = cog.getLong(Cog.OUTA_ADDR);
+        int value = (outa & ~mask) | ((output << shift) & mask);
+        if (value != outa)
+            cog.setLong(Cog.OUTA_ADDR, value);
+    }
+}
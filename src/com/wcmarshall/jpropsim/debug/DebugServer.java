@@ -0,0 +1,366 @@
+package com.wcmarshall.jpropsim.debug;
+
+import com.wcmarshall.jpropsim.Breakpoints;
+import com.wcmarshall.jpropsim.Cog;
+import com.wcmarshall.jpropsim.Hub;
+import com.wcmarshall.jpropsim.spin.SpinInterpreter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Debug server on a loopback socket, for tools that drive the simulator.
+ *
+ * Every message is a frame of a one byte type, a 32 bit payload length and the payload. All multi-byte
+ * fields are big-endian. Each request is answered by one '+' (ok) or '-' (error, UTF-8 message) frame;
+ * requests may carry any number of items so that a tool needs one round trip per batch.
+ *
+ * <pre>
+ * 'I'  info            -> u64 cycles, u32 CNT, u32 OUTA, u32 DIRA, u32 INA, u8 running cogs mask
+ * 'r'  read hub        n x (u16 address, u16 length) -> the bytes of each range, concatenated
+ * 'w'  write hub       n x (u16 address, u16 length, bytes)
+ * 'c'  read cogs       u8 cog mask -> per cog: u8 id, u8 flags, u16 PC, 512 x u32 cog RAM
+ *                      flags: 1 running, 2 loaded, 4 Z, 8 C, 16 Spin running natively
+ * 'C'  write cog       u8 cog, u16 register, u16 count, count x u32
+ * 'p'  pin input       n x (u8 pin, u8 level)
+ * 'b'  add break       n x (u8 kind, u8 cog, u32 address, u32 length)
+ * 'B'  remove break    same as 'b'
+ *                      kinds: 0 PC, 1 hub write (length bytes), 2 cog register,
+ *                      3 pin edge (cog field: 1 rising, 2 falling, 3 both)
+ * 't'  trace           -> UTF-8 listing of the instruction trace, empty if none is installed
+ * 'g'  go              u64 cycle budget, 0 for none -> '+' at once, then '!' when stopped
+ * 'h'  halt            -> '+', then the '!' of the run if one was going
+ * 'q'  quit            closes the connection
+ * </pre>
+ *
+ * The asynchronous stop frame '!' is u8 reason (0 budget, 1 halt, 2 breakpoint), u8 breakpoint kind,
+ * i8 cog, u32 address, u32 value, u64 cycles run. While running, only 'h' is accepted. One client is
+ * served at a time. A frame claiming a payload longer than {@link #MAX_PAYLOAD} is answered with '-' and
+ * the connection closed, and a break request with an unknown kind is refused as a whole.
+ */
+public class DebugServer {
+
+    private static final int REASON_BUDGET = 0, REASON_HALT = 1, REASON_BREAKPOINT = 2;
+
+    private static final int FLAG_RUNNING = 1;
+    private static final int FLAG_LOADED = 2;
+    private static final int FLAG_Z = 4;
+    private static final int FLAG_C = 8;
+    private static final int FLAG_NATIVE = 16;
+
+    private static final int COG_RAM_SIZE = 512;
+
+    /**
+     * Longest request payload accepted, enough to write every byte of hub RAM in one request
+     */
+    public static final int MAX_PAYLOAD = 0x20000;
+
+    private final Hub hub;
+    private final Breakpoints breakpoints;
+    private final ServerSocket server;
+
+    private DataOutputStream out;
+    private Thread runner;
+
+    /**
+     * @param hub hub to debug; its breakpoints are replaced by the server's
+     * @param port loopback port, or 0 for any free port
+     * @throws IOException if the port cannot be bound
+     */
+    public DebugServer(Hub hub, int port) throws IOException {
+        this.hub = hub;
+        this.breakpoints = new Breakpoints();
+        hub.setBreakpoints(breakpoints);
+        this.server = new ServerSocket(port, 1, InetAddress.getLoopbackAddress());
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Serves clients one after another until the server socket is closed
+     */
+    public void serve() throws IOException {
+        while (!server.isClosed()) {
+            try (Socket socket = server.accept()) {
+                socket.setTcpNoDelay(true);
+                serve(socket);
+            } catch (IOException e) {
+                if (server.isClosed()) return;
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        server.close();
+    }
+
+    private void serve(Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        try {
+            while (true) {
+                int type;
+                byte[] payload;
+                try {
+                    type = in.readUnsignedByte();
+                    int length = in.readInt();
+                    if (length < 0 || length > MAX_PAYLOAD) {
+                        // the rest of the stream cannot be framed, so give up on the client
+                        error("bad payload length " + length);
+                        break;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    break;
+                }
+                if (type == 'q') break;
+                request(type, new DataInputStream(new ByteArrayInputStream(payload)), payload.length);
+            }
+        } finally {
+            halt();
+        }
+    }
+
+    private void request(int type, DataInputStream payload, int length) throws IOException {
+        if (type == 'h') {
+            reply('+', new byte[0]);
+            halt();
+            return;
+        }
+        if (isRunning()) {
+            error("running");
+            return;
+        }
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream result = new DataOutputStream(buffer);
+        try {
+            switch (type) {
+                case 'I':
+                    info(result);
+                    break;
+                case 'r':
+                    readHub(payload, length, result);
+                    break;
+                case 'w':
+                    writeHub(payload);
+                    break;
+                case 'c':
+                    readCogs(payload.readUnsignedByte(), result);
+                    break;
+                case 'C':
+                    writeCog(payload);
+                    break;
+                case 'p':
+                    for (int i = 0; i < length / 2; i++)
+                        hub.setPinIn(payload.readUnsignedByte(), payload.readUnsignedByte() != 0);
+                    break;
+                case 't':
+                    if (hub.getTrace() != null) {
+                        StringBuilder listing = new StringBuilder();
+                        hub.getTrace().dump(listing);
+                        result.write(listing.toString().getBytes(StandardCharsets.UTF_8));
+                    }
+                    break;
+                case 'b':
+                case 'B': {
+                    // check every kind before changing anything
+                    payload.mark(length);
+                    for (int i = 0; i < length / 10; i++) {
+                        int kind = payload.readUnsignedByte();
+                        if (kind > 3) {
+                            error("unknown breakpoint kind " + kind);
+                            return;
+                        }
+                        payload.skipBytes(9);
+                    }
+                    payload.reset();
+                    for (int i = 0; i < length / 10; i++)
+                        breakpoint(type == 'b', payload.readUnsignedByte(), payload.readUnsignedByte(),
+                                payload.readInt(), payload.readInt());
+                    break;
+                }
+                case 'g': {
+                    long budget = payload.readLong();
+                    // acknowledge first, the stop frame may follow at once
+                    reply('+', new byte[0]);
+                    go(budget);
+                    return;
+                }
+                default:
+                    error("unknown request " + (char) type);
+                    return;
+            }
+        } catch (EOFException e) {
+            error("short request");
+            return;
+        }
+        reply('+', buffer.toByteArray());
+    }
+
+    private void info(DataOutputStream result) throws IOException {
+        int running = 0;
+        for (int i = 0; i < 8; i++) {
+            if (hub.getCog(i).isRunning())
+                running |= 1 << i;
+        }
+        result.writeLong(hub.getCycles());
+        result.writeInt(hub.getCnt());
+        result.writeInt(hub.getOuta());
+        result.writeInt(hub.getDira());
+        result.writeInt(hub.getIna());
+        result.writeByte(running);
+    }
+
+    private void readHub(DataInputStream payload, int length, DataOutputStream result) throws IOException {
+        byte[] block = new byte[0x10000];
+        for (int i = 0; i < length / 4; i++) {
+            int address = payload.readUnsignedShort();
+            int count = payload.readUnsignedShort();
+            hub.readHub(address, block, 0, count);
+            result.write(block, 0, count);
+        }
+    }
+
+    private void writeHub(DataInputStream payload) throws IOException {
+        while (payload.available() > 0) {
+            int address = payload.readUnsignedShort();
+            byte[] block = new byte[payload.readUnsignedShort()];
+            payload.readFully(block);
+            hub.writeHub(address, block, 0, block.length);
+        }
+    }
+
+    private void readCogs(int mask, DataOutputStream result) throws IOException {
+        for (int i = 0; i < 8; i++) {
+            if ((mask & (1 << i)) == 0) continue;
+            Cog cog = hub.getCog(i);
+            SpinInterpreter spin = cog.getSpinInterpreter();
+            // put the native interpreter's registers where PASM keeps them
+            if (spin != null)
+                spin.syncToCog();
+            cog.settle();
+
+            int flags = (cog.isRunning() ? FLAG_RUNNING : 0) | (cog.isProgramLoaded() ? FLAG_LOADED : 0)
+                    | (cog.getZFlag() ? FLAG_Z : 0) | (cog.getCFlag() ? FLAG_C : 0)
+                    | ((spin != null) ? FLAG_NATIVE : 0);
+            result.writeByte(i);
+            result.writeByte(flags);
+            result.writeShort(cog.getPC());
+            for (int addr = 0; addr < COG_RAM_SIZE; addr++)
+                result.writeInt(cog.getLong(addr));
+        }
+    }
+
+    private void writeCog(DataInputStream payload) throws IOException {
+        Cog cog = hub.getCog(payload.readUnsignedByte() & 0b111);
+        int register = payload.readUnsignedShort();
+        int count = payload.readUnsignedShort();
+        for (int i = 0; i < count; i++)
+            cog.setLong((register + i) & 0x1FF, payload.readInt());
+    }
+
+    private void breakpoint(boolean add, int kind, int cog, int address, int length) {
+        switch (kind) {
+            case 0:
+                if (add) breakpoints.addBreakpoint(cog, address);
+                else breakpoints.removeBreakpoint(cog, address);
+                break;
+            case 1:
+                if (add) breakpoints.addHubWatch(address, length);
+                else breakpoints.removeHubWatch(address, length);
+                break;
+            case 2:
+                if (add) breakpoints.addRegisterWatch(cog, address);
+                else breakpoints.removeRegisterWatch(cog, address);
+                break;
+            case 3:
+                if (add) breakpoints.addPinEdge(address, (cog & 1) != 0, (cog & 2) != 0);
+                else breakpoints.removePinEdge(address);
+                break;
+        }
+    }
+
+    private synchronized boolean isRunning() {
+        return runner != null;
+    }
+
+    /**
+     * Starts running on a separate thread, which sends the stop frame when done
+     */
+    private synchronized void go(long budget) {
+        long count = (budget == 0) ? Long.MAX_VALUE : budget;
+        breakpoints.clearHit();
+        // cleared here rather than by the run thread, so that a halt sent straight after is not lost
+        hub.clearStopRequest();
+        runner = new Thread(() -> {
+            long cycles = hub.run(count, null);
+            Breakpoints.Hit hit = breakpoints.getHit();
+            int reason = (hit != null) ? REASON_BREAKPOINT : (cycles < count) ? REASON_HALT : REASON_BUDGET;
+            synchronized (DebugServer.this) {
+                runner = null;
+                DebugServer.this.notifyAll();
+            }
+            stopped(reason, hit, cycles);
+        }, "jpropsim-debug-run");
+        runner.setDaemon(true);
+        runner.start();
+    }
+
+    /**
+     * Stops a run, if any, and waits for it to end
+     */
+    private synchronized void halt() {
+        while (runner != null) {
+            hub.requestStop();
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void stopped(int reason, Breakpoints.Hit hit, long cycles) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream frame = new DataOutputStream(buffer);
+        try {
+            frame.writeByte(reason);
+            frame.writeByte((hit != null) ? hit.getKind().ordinal() : 0);
+            frame.writeByte((hit != null) ? hit.getCog() : -1);
+            frame.writeInt((hit != null) ? hit.getAddress() : 0);
+            frame.writeInt((hit != null) ? hit.getValue() : 0);
+            frame.writeLong(cycles);
+            reply('!', buffer.toByteArray());
+        } catch (IOException e) {
+            // the client has gone, the next read will notice
+        }
+    }
+
+    private void error(String message) throws IOException {
+        reply('-', message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void reply(int type, byte[] payload) throws IOException {
+        synchronized (out) {
+            out.writeByte(type);
+            out.writeInt(payload.length);
+            out.write(payload);
+            out.flush();
+        }
+    }
+}
@@ -1,14 +1,27 @@
 package com.wcmarshall.jpropsim.disassembler;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Formatter;
 
 public class Disassembler {
 
 	public static final String HEX_FMT = "  %08X";
 	public static final String DEC_FMT = "%10d";
 
+	private static final String HEADER = "****************************\n" +
+			"*    P8X32A DISASSEMBLY    *\n" +
+			"****************************\n\n";
+
 	private String addressFMT = HEX_FMT;
 	private String instrFMT = HEX_FMT;
 
@@ -21,27 +34,81 @@ public class Disassembler {
 	}
 
 	public String generateListing(File fin) throws IOException {
-		FileInputStream input = new FileInputStream(fin);
-		byte[] data = new byte[(int) fin.length()];
-		input.read(data);
-		input.close();
-		int[] pgm = new int[data.length / 4];
-		for (int i=0; i<pgm.length; i++) {
-			pgm[i] = (data[i*4] & 0xFF) | ((data[i*4+1] << 8) & 0xFF00) | ((data[i*4+2] << 16) & 0xFF0000) | (data[i*4+3] << 24);
-		}
-		return generateListing(pgm);
+		StringBuilder disasm = new StringBuilder();
+		generateListing(fin, disasm);
+		return disasm.toString();
 	}
 
 	public String generateListing(int[] pgm) {
-		String disasm = "****************************\n" +
-				"*    P8X32A DISASSEMBLY    *\n" +
-				"****************************\n\n";
+		StringBuilder disasm = new StringBuilder();
+		try {
+			generateListing(IntBuffer.wrap(pgm), 0, pgm.length, disasm);
+		} catch (IOException e) {
+			// StringBuilder does not throw
+			throw new UncheckedIOException(e);
+		}
+		return disasm.toString();
+	}
+
+	/**
+	 * Writes a listing of a whole file of little-endian longs, such as an EEPROM dump
+	 *
+	 * @param fin file to disassemble, which is memory-mapped rather than read
+	 * @param out destination of the listing
+	 * @throws IOException if the file cannot be read or out throws
+	 */
+	public void generateListing(File fin, Appendable out) throws IOException {
+		generateListing(fin, 0, Integer.MAX_VALUE, out);
+	}
+
+	/**
+	 * Writes a listing of part of a file of little-endian longs
+	 *
+	 * @param fin file to disassemble, which is memory-mapped rather than read
+	 * @param first index of the first long to list
+	 * @param count longs to list, clipped to the end of the file
+	 * @param out destination of the listing
+	 * @throws IOException if the file cannot be read or out throws
+	 */
+	public void generateListing(File fin, int first, int count, Appendable out) throws IOException {
+		try (FileChannel channel = FileChannel.open(fin.toPath(), StandardOpenOption.READ)) {
+			IntBuffer pgm = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size() & ~3L)
+					.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+			generateListing(pgm, first, count, out);
+		}
+	}
+
+	/**
+	 * Writes a listing of part of a file to a channel as UTF-8
+	 *
+	 * @see #generateListing(File, int, int, Appendable)
+	 */
+	public void generateListing(File fin, int first, int count, WritableByteChannel out) throws IOException {
+		Writer writer = Channels.newWriter(out, StandardCharsets.UTF_8.newEncoder(), 1 << 16);
+		generateListing(fin, first, count, writer);
+		writer.flush();
+	}
 
-		String formatter = String.format(" %s  %s  %%s\n", addressFMT, instrFMT);
+	/**
+	 * Writes a listing of a range of a program
+	 *
+	 * @param pgm program, one long per address
+	 * @param first index of the first long to list
+	 * @param count longs to list, clipped to the end of pgm
+	 * @param out destination of the listing
+	 * @throws IOException if out does
+	 */
+	public void generateListing(IntBuffer pgm, int first, int count, Appendable out) throws IOException {
+		int end = (int) Math.min(pgm.limit(), (long) first + count);
+		Formatter formatter = new Formatter(out);
+		String line = String.format(" %s  %s  %%s\n", addressFMT, instrFMT);
 
-		for (int i=0; i<pgm.length; i++) {
-			disasm += String.format(formatter, i, pgm[i], disassemble(pgm[i]));
+		out.append(HEADER);
+		for (int i = Math.max(first, 0); i < end; i++) {
+			int instruction = pgm.get(i);
+			formatter.format(line, i, instruction, disassemble(instruction));
 		}
-		return disasm;
+		if (formatter.ioException() != null)
+			throw formatter.ioException();
 	}
 }
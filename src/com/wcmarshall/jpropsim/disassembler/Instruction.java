@@ -28,15 +28,20 @@ public class Instruction {
         return new Predicate<Cog>() {
             private Predicate<Cog> wait8 = waitNPredicate(8);
             private boolean wasHubAligned = false;
+            private int stalled = 0;
 
             @Override
             public boolean test(Cog cog) {
-                wasHubAligned = wasHubAligned || isAligned.test(cog);
-                if (wasHubAligned) {
-                    return wait8.test(cog);
-                } else {
-                    return false;
+                if (!wasHubAligned) {
+                    if (!isAligned.test(cog)) {
+                        stalled++;
+                        cog.hubStall();
+                        return false;
+                    }
+                    wasHubAligned = true;
+                    cog.hubAccess(stalled);
                 }
+                return wait8.test(cog);
             }
         };
     }
@@ -48,9 +53,9 @@ public class Instruction {
     private static BiConsumer<Cog, Instruction> incPC = (c, i) -> c.incrementPC();
 
     /**
-     * Do not make static! Non-static prevents conditionals from affecting one another
+     * Table of every opcode. Do not make static! Non-static prevents conditionals from affecting one another
      */
-    public class OpCode {
+    public class OpCodes {
         public OpCode ABS = new OpCode(0b101010, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -58,10 +63,10 @@ public class Instruction {
                 int dest = instruction.getDest();
                 int result = Math.abs(source);
                 instruction.writeZ(cog, result == 0);
-                instruction.writeC(cog, result < 0);
+                instruction.writeC(cog, source < 0);
                 instruction.writeResult(cog, dest, result);
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode ABSNEG = new OpCode(0b101011, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -69,10 +74,10 @@ public class Instruction {
                 int dest = instruction.getDest();
                 int result = -Math.abs(source);
                 instruction.writeZ(cog, result == 0);
-                instruction.writeC(cog, result < 0);
+                instruction.writeC(cog, source < 0);
                 instruction.writeResult(cog, dest, result);
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode ADD = new OpCode(0b100000, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -83,7 +88,7 @@ public class Instruction {
                 instruction.writeZ(cog, result == 0);
                 instruction.writeResult(cog, instruction.getDest(), result);
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode ADDABS = new OpCode(0b100010, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -94,7 +99,7 @@ public class Instruction {
                 instruction.writeZ(cog, result == 0);
                 instruction.writeResult(cog, instruction.getDest(), result);
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode ADDS = new OpCode(0b110100, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -105,7 +110,7 @@ public class Instruction {
                 instruction.writeZ(cog, result == 0);
                 instruction.writeResult(cog, instruction.getDest(), result);
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode ADDSX = new OpCode(0b110110, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -117,7 +122,7 @@ public class Instruction {
                 instruction.writeZ(cog, result == 0 && cog.getZFlag());
                 instruction.writeResult(cog, instruction.getDest(), result);
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode ADDX = new OpCode(0b110010, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -129,7 +134,7 @@ public class Instruction {
                 instruction.writeZ(cog, result == 0 && cog.getZFlag());
                 instruction.writeResult(cog, instruction.getDest(), result);
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode AND = new OpCode(0b011000, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -141,7 +146,7 @@ public class Instruction {
                 instruction.writeZ(cog, result == 0);
                 instruction.writeResult(cog, instruction.getDest(), result);
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode ANDN = new OpCode(0b011001, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -153,7 +158,7 @@ public class Instruction {
                 instruction.writeZ(cog, result == 0);
                 instruction.writeResult(cog, instruction.getDest(), result);
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode CMPS = new OpCode(0b110000, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -165,13 +170,13 @@ public class Instruction {
                 instruction.writeZ(cog, result == 0);
                 instruction.writeResult(cog, instruction.getDest(), result);
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode CMPSUB = new OpCode(0b111000, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
                 int source = instruction.getSourceValue(cog);
                 int dest = instruction.getDestValue(cog);
-                if (source <= dest) {
+                if (Integer.compareUnsigned(source, dest) <= 0) {
                     // subtraction can take place
                     int result = dest - source;
                     instruction.writeC(cog, true);
@@ -182,7 +187,7 @@ public class Instruction {
                     instruction.writeZ(cog, false);
                 }
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode CMPSX = new OpCode(0b110001, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -193,7 +198,7 @@ public class Instruction {
                 instruction.writeZ(cog, dest == (source + carry));
                 instruction.writeResult(cog, instruction.getDest(), dest - (source + carry));
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode DJNZ = new OpCode(0b111001, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -208,7 +213,7 @@ public class Instruction {
                 } else {
                     // I really don't know the proper way to do this. So I am just going to make this a NOP and re-execute
                     // this should be kosher as long as the instruction object for execution is not used for display
-                    instruction.condition = instruction.condition.IF_NEVER;
+                    instruction.condition = instruction.conditions.IF_NEVER;
                 }
             }
         });
@@ -239,16 +244,27 @@ public class Instruction {
                         instruction.writeZ(cog, cogid == 0);
                         break;
                     case 4: // LOCKNEW
+                        int lockid = cog.getHub().lockNew();
+                        instruction.writeResult(cog, instruction.getDest(), (lockid == -1) ? 7 : lockid);
+                        instruction.writeZ(cog, lockid == 0);
+                        instruction.writeC(cog, lockid == -1);
                         break;
                     case 5: // LOCKRET
+                        cog.getHub().lockRet(instruction.getDestValue(cog));
                         break;
                     case 6: // LOCKSET
+                        lockid = instruction.getDestValue(cog);
+                        instruction.writeC(cog, cog.getHub().lockSet(lockid));
+                        instruction.writeZ(cog, (lockid & 0b111) == 0);
                         break;
                     case 7: // LOCKCLR
+                        lockid = instruction.getDestValue(cog);
+                        instruction.writeC(cog, cog.getHub().lockClr(lockid));
+                        instruction.writeZ(cog, (lockid & 0b111) == 0);
                         break;
                 }
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode JMPRET = new OpCode(0b010111, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -279,7 +295,7 @@ public class Instruction {
                     instruction.writeResult(cog, instruction.getDest(), source);
                 }
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode MAXS = new OpCode(0b010001, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -289,7 +305,7 @@ public class Instruction {
                 instruction.writeZ(cog, source == 0);
                 instruction.writeResult(cog, instruction.getDest(), Integer.min(source, dest));
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode MIN = new OpCode(0b010010, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -305,7 +321,7 @@ public class Instruction {
                     instruction.writeC(cog, false);
                 }
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode MINS = new OpCode(0b010000, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -315,7 +331,7 @@ public class Instruction {
                 instruction.writeZ(cog, source == 0);
                 instruction.writeResult(cog, instruction.getDest(), Integer.max(source, dest));
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode MOV = new OpCode(0b101000, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -324,26 +340,34 @@ public class Instruction {
                 instruction.writeZ(cog, source == 0);
                 instruction.writeResult(cog, instruction.getDest(), source);
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode MOVD = new OpCode(0b010101, new BiConsumer<Cog, Instruction>() {
-            // TODO make mechanism for pipeline
             @Override
             public void accept(Cog cog, Instruction instruction) {
-
+                int result = (instruction.getDestValue(cog) & ~(0x1FF << 9))
+                        | ((instruction.getSourceValue(cog) & 0x1FF) << 9);
+                instruction.writeZ(cog, result == 0);
+                instruction.writeResult(cog, instruction.getDest(), result);
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode MOVI = new OpCode(0b010110, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
-
+                int result = (instruction.getDestValue(cog) & ~(0x1FF << 23))
+                        | ((instruction.getSourceValue(cog) & 0x1FF) << 23);
+                instruction.writeZ(cog, result == 0);
+                instruction.writeResult(cog, instruction.getDest(), result);
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode MOVS = new OpCode(0b010100, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
-
+                int result = (instruction.getDestValue(cog) & ~(0x1FF << 0))
+                        | ((instruction.getSourceValue(cog) & 0x1FF) << 0);
+                instruction.writeZ(cog, result == 0);
+                instruction.writeResult(cog, instruction.getDest(), result);
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode MUXC = new OpCode(0b011100, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -353,13 +377,12 @@ public class Instruction {
                 if (cog.getCFlag())
                     result = dest | mask;       // if C flag is 1, then set all effected bits to 1
 
-                // flags are based off of final destination value, so we write destination first
+                // flags are based off of the result, even if it is not written
                 instruction.writeResult(cog, instruction.getDest(), result);
-                result = instruction.getDestValue(cog);
                 instruction.writeC(cog, getParity(result));
                 instruction.writeZ(cog, result == 0);
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode MUXNC = new OpCode(0b011101, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -369,13 +392,12 @@ public class Instruction {
                 if (!cog.getCFlag())
                     result = dest | mask;       // if C flag is 0, then set all effected bits to 1
 
-                // flags are based off of final destination value, so we write destination first
+                // flags are based off of the result, even if it is not written
                 instruction.writeResult(cog, instruction.getDest(), result);
-                result = instruction.getDestValue(cog);
                 instruction.writeC(cog, getParity(result));
                 instruction.writeZ(cog, result == 0);
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode MUXNZ = new OpCode(0b011111, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -385,13 +407,12 @@ public class Instruction {
                 if (!cog.getZFlag())
                     result = dest | mask;       // if Z flag is 0, then set all effected bits to 1
 
-                // flags are based off of final destination value, so we write destination first
+                // flags are based off of the result, even if it is not written
                 instruction.writeResult(cog, instruction.getDest(), result);
-                result = instruction.getDestValue(cog);
                 instruction.writeC(cog, getParity(result));
                 instruction.writeZ(cog, result == 0);
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode MUXZ = new OpCode(0b011110, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -401,13 +422,12 @@ public class Instruction {
                 if (cog.getZFlag())
                     result = dest | mask;       // if Z flag is 1, then set all effected bits to 1
 
-                // flags are based off of final destination value, so we write destination first
+                // flags are based off of the result, even if it is not written
                 instruction.writeResult(cog, instruction.getDest(), result);
-                result = instruction.getDestValue(cog);
                 instruction.writeC(cog, getParity(result));
                 instruction.writeZ(cog, result == 0);
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode NEG = new OpCode(0b101001, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -417,7 +437,7 @@ public class Instruction {
                 instruction.writeZ(cog, source == 0);
                 instruction.writeResult(cog, instruction.getDest(), -source);
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode NEGC = new OpCode(0b101100, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -428,7 +448,7 @@ public class Instruction {
                 instruction.writeC(cog, source < 0);
                 instruction.writeZ(cog, source == 0);
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode NEGNC = new OpCode(0b101101, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -439,7 +459,7 @@ public class Instruction {
                 instruction.writeC(cog, source < 0);
                 instruction.writeZ(cog, source == 0);
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode NEGNZ = new OpCode(0b101111, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -450,7 +470,7 @@ public class Instruction {
                 instruction.writeC(cog, source < 0);
                 instruction.writeZ(cog, source == 0);
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode NEGZ = new OpCode(0b101110, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -461,7 +481,7 @@ public class Instruction {
                 instruction.writeC(cog, source < 0);
                 instruction.writeZ(cog, source == 0);
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode OR = new OpCode(0b011010, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -473,7 +493,7 @@ public class Instruction {
                 instruction.writeZ(cog, result == 0);
                 instruction.writeResult(cog, instruction.getDest(), result);
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode RCL = new OpCode(0b001101, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -490,7 +510,7 @@ public class Instruction {
                 instruction.writeZ(cog, value == 0);
                 instruction.writeResult(cog, instruction.getDest(), value);
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode RCR = new OpCode(0b001100, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -500,14 +520,14 @@ public class Instruction {
                 // set only the top most bit to 1 if carry is set
                 int mask = (cog.getCFlag()) ? Integer.MIN_VALUE : 0;
                 // shift the mask down, sign extending to replace the upper bits
-                mask >>= bitCount - 1;
-                value = (value >>> bitCount) | mask;
+                if (bitCount > 0)
+                    value = (value >>> bitCount) | (mask >> (bitCount - 1));
 
                 instruction.writeC(cog, newCarry);
                 instruction.writeZ(cog, value == 0);
                 instruction.writeResult(cog, instruction.getDest(), value);
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode RDBYTE = new OpCode(0b000000, IOPredicate(), new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -525,7 +545,7 @@ public class Instruction {
                     instruction.writeZ(cog, (hubAddr & 0b11) != 0);
                 }
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode RDLONG = new OpCode(0b000010, IOPredicate(), new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -543,7 +563,7 @@ public class Instruction {
                     instruction.writeZ(cog, (hubAddr & 0b11) != 0);
                 }
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode RDWORD = new OpCode(0b000001, IOPredicate(), new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -561,7 +581,7 @@ public class Instruction {
                     instruction.writeZ(cog, (hubAddr & 0b1) != 0);
                 }
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode REV = new OpCode(0b001111, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -574,7 +594,7 @@ public class Instruction {
                 instruction.writeZ(cog, result == 0);
                 instruction.writeResult(cog, instruction.getDest(), result);
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode ROL = new OpCode(0b001001, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -586,7 +606,7 @@ public class Instruction {
                 instruction.writeZ(cog, result == 0);
                 instruction.writeResult(cog, instruction.getDest(), result);
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode ROR = new OpCode(0b001000, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -598,7 +618,7 @@ public class Instruction {
                 instruction.writeZ(cog, result == 0);
                 instruction.writeResult(cog, instruction.getDest(), result);
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode SAR = new OpCode(0b001110, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -610,7 +630,7 @@ public class Instruction {
                 instruction.writeZ(cog, result == 0);
                 instruction.writeResult(cog, instruction.getDest(), result);
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode SHL = new OpCode(0b001011, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -622,7 +642,7 @@ public class Instruction {
                 instruction.writeZ(cog, result == 0);
                 instruction.writeResult(cog, instruction.getDest(), result);
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode SHR = new OpCode(0b001010, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -634,7 +654,7 @@ public class Instruction {
                 instruction.writeZ(cog, result == 0);
                 instruction.writeResult(cog, instruction.getDest(), result);
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode SUB = new OpCode(0b100001, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -646,7 +666,7 @@ public class Instruction {
                 instruction.writeZ(cog, result == 0);
                 instruction.writeResult(cog, instruction.getDest(), result);
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode SUBABS = new OpCode(0b100011, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -658,7 +678,7 @@ public class Instruction {
                 instruction.writeZ(cog, result == 0);
                 instruction.writeResult(cog, instruction.getDest(), result);
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode SUBS = new OpCode(0b110101, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -670,7 +690,7 @@ public class Instruction {
                 instruction.writeZ(cog, result == 0);
                 instruction.writeResult(cog, instruction.getDest(), result);
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode SUBSX = new OpCode(0b110111, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -683,7 +703,7 @@ public class Instruction {
                 instruction.writeZ(cog, result == 0 && cog.getZFlag());
                 instruction.writeResult(cog, instruction.getDest(), result);
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode SUBX = new OpCode(0b110011, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -696,7 +716,7 @@ public class Instruction {
                 instruction.writeZ(cog, result == 0 && cog.getZFlag());
                 instruction.writeResult(cog, instruction.getDest(), result);
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode SUMC = new OpCode(0b100100, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -708,7 +728,7 @@ public class Instruction {
                 instruction.writeZ(cog, result == 0);
                 instruction.writeResult(cog, instruction.getDest(), result);
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode SUMNC = new OpCode(0b100101, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -720,7 +740,7 @@ public class Instruction {
                 instruction.writeZ(cog, result == 0);
                 instruction.writeResult(cog, instruction.getDest(), result);
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode SUMNZ = new OpCode(0b100111, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -732,7 +752,7 @@ public class Instruction {
                 instruction.writeZ(cog, result == 0);
                 instruction.writeResult(cog, instruction.getDest(), result);
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode SUMZ = new OpCode(0b100110, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -744,7 +764,7 @@ public class Instruction {
                 instruction.writeZ(cog, result == 0);
                 instruction.writeResult(cog, instruction.getDest(), result);
             }
-        }.andThen(incPC));
+        }, true);
         public OpCode TJNZ = new OpCode(0b111010, new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
@@ -759,7 +779,7 @@ public class Instruction {
                     cog.setPC(source & 0x1FF);
                 } else {
                     // same mechanism as DJNZ
-                    instruction.condition = instruction.condition.IF_NEVER;
+                    instruction.condition = instruction.conditions.IF_NEVER;
                 }
             }
         });
@@ -777,7 +797,7 @@ public class Instruction {
                     cog.setPC(source & 0x1FF);
                 } else {
                     // same mechanism as DJNZ
-                    instruction.condition = instruction.condition.IF_NEVER;
+                    instruction.condition = instruction.conditions.IF_NEVER;
                 }
             }
         });
@@ -789,7 +809,10 @@ public class Instruction {
                 int target = instruction.getDestValue(cog);
                 int result = target + delta;
 
-                if (cnt != target) return;
+                if (cnt != target) {
+                    cog.waitBlocked();
+                    return;
+                }
 
                 instruction.writeC(cog, getUnsignedCarry(target, delta));
                 instruction.writeZ(cog, result == 0);
@@ -804,12 +827,16 @@ public class Instruction {
                 int target = instruction.getDestValue(cog);
                 int mask = instruction.getSourceValue(cog);
 
-                if ((current & mask) != target) return;
+                if ((current & mask) != target) {
+                    cog.waitBlocked();
+                    return;
+                }
 
                 instruction.writeC(cog, false);
                 // ?!?!?!?!?! this is the actual behavior, shotty documentation
                 instruction.writeZ(cog, target + mask == 0);
                 instruction.writeResult(cog, instruction.getDest(), target + mask);
+                incPC.accept(cog, instruction);
             }
         });
         public OpCode WAITPNE = new OpCode(0b111101, waitPredicate(), new BiConsumer<Cog, Instruction>() {
@@ -819,18 +846,34 @@ public class Instruction {
                 int target = instruction.getDestValue(cog);
                 int mask = instruction.getSourceValue(cog);
 
-                if ((current & mask) == target) return;
+                if ((current & mask) == target) {
+                    cog.waitBlocked();
+                    return;
+                }
 
                 // "whatever it naturally ended up being"
                 instruction.writeC(cog, target + mask + 1 == 0);
                 instruction.writeZ(cog, target + mask + 1 == 0);
                 instruction.writeResult(cog, instruction.getDest(), target + mask + 1);
+                incPC.accept(cog, instruction);
             }
         });
-        public OpCode WAITVID = new OpCode(0b111111, new BiConsumer<Cog, Instruction>() {
+        public OpCode WAITVID = new OpCode(0b111111, waitNPredicate(4), new BiConsumer<Cog, Instruction>() {
             @Override
             public void accept(Cog cog, Instruction instruction) {
-                // TODO
+                int colors = instruction.getDestValue(cog);
+                int pixels = instruction.getSourceValue(cog);
+
+                if (!cog.waitVideo(colors, pixels)) {
+                    cog.waitBlocked();
+                    return;
+                }
+
+                int result = colors + pixels;
+                instruction.writeC(cog, getUnsignedCarry(colors, pixels));
+                instruction.writeZ(cog, result == 0);
+                instruction.writeResult(cog, instruction.getDest(), result);
+                incPC.accept(cog, instruction);
             }
         });
         public OpCode XOR = new OpCode(0b011011, new BiConsumer<Cog, Instruction>() {
@@ -844,43 +887,12 @@ public class Instruction {
                 instruction.writeZ(cog, result == 0);
                 instruction.writeResult(cog, instruction.getDest(), result);
             }
-        }.andThen(incPC));
-
-        private final int instr;
-
-        private final BiConsumer<Cog, Instruction> exec_fn;
-
-        private final Predicate<Cog> executable;
-
-        private OpCode(int instr, Predicate<Cog> executable, BiConsumer<Cog, Instruction> exec_fn) {
-            this.instr = instr;
-            this.exec_fn = exec_fn;
-            this.executable = executable;
-        }
-
-        private OpCode(int instr, BiConsumer<Cog, Instruction> exec_fn) {
-            this(instr, waitNPredicate(4), exec_fn);
-        }
-
-        private OpCode(int instr, Predicate<Cog> executable) {
-            this(instr, executable, null);
-        }
-
-        private OpCode(int instr) {
-            this(instr, waitNPredicate(4));
-        }
-
-        public OpCode() {
-            //Return a sad, broken opcode
-            this.instr = 0;
-            this.exec_fn = null;
-            this.executable = null;
-        }
+        }, true);
 
         public ArrayList<OpCode> values() {
             ArrayList<OpCode> retval = new ArrayList<>();
             for (Field f : this.getClass().getFields()) {
-                if (f.getType().equals(this.getClass())) {
+                if (f.getType().equals(OpCode.class)) {
                     try {
                         retval.add((OpCode) f.get(this));
                     } catch (IllegalAccessException e) {
@@ -891,11 +903,11 @@ public class Instruction {
             return retval;
         }
 
-        public String name() {
+        public String name(OpCode opcode) {
             for (Field f : this.getClass().getFields()) {
-                if (f.getType().equals(this.getClass())) {
+                if (f.getType().equals(OpCode.class)) {
                     try {
-                        if (f.get(this).equals(this)) {
+                        if (f.get(this).equals(opcode)) {
                             return f.getName();
                         }
                     } catch (IllegalAccessException e) {
@@ -906,18 +918,6 @@ public class Instruction {
             return "";
         }
 
-        public int getInstr() {
-            return this.instr;
-        }
-
-        public boolean isExecutable(Cog cog) {
-            return executable.test(cog);
-        }
-
-        public void execute(Cog cog, Instruction ins) {
-            exec_fn.accept(cog, ins);
-        }
-
         /**
          * Calculates the carry bit resulting from the addition of two signed integers a & b
          * This assumes that the formula is a+b. Therefore to calculate carry from a-b, pass a and -b
@@ -961,13 +961,73 @@ public class Instruction {
 
     }
 
+    /**
+     * A single opcode. Opcodes are never constructed on their own, only as fields of {@link OpCodes},
+     * whose fields cannot themselves be OpCodes without recursing forever on construction.
+     */
+    public class OpCode {
+
+        private final int instr;
+
+        private final BiConsumer<Cog, Instruction> exec_fn;
+
+        // the operation without the PC increment, for opcodes that always fall through to the next instruction
+        private final BiConsumer<Cog, Instruction> effect;
+
+        private final Predicate<Cog> executable;
+
+        // always takes 4 cycles
+        private final boolean fixedTiming;
+
+        private OpCode(int instr, Predicate<Cog> executable, BiConsumer<Cog, Instruction> exec_fn, boolean advances,
+                       boolean fixedTiming) {
+            this.instr = instr;
+            this.effect = advances ? exec_fn : null;
+            this.exec_fn = advances ? exec_fn.andThen(incPC) : exec_fn;
+            this.executable = executable;
+            this.fixedTiming = fixedTiming;
+        }
+
+        private OpCode(int instr, Predicate<Cog> executable, BiConsumer<Cog, Instruction> exec_fn, boolean advances) {
+            this(instr, executable, exec_fn, advances, false);
+        }
+
+        private OpCode(int instr, Predicate<Cog> executable, BiConsumer<Cog, Instruction> exec_fn) {
+            this(instr, executable, exec_fn, false, false);
+        }
+
+        private OpCode(int instr, BiConsumer<Cog, Instruction> exec_fn, boolean advances) {
+            this(instr, waitNPredicate(4), exec_fn, advances, true);
+        }
+
+        private OpCode(int instr, BiConsumer<Cog, Instruction> exec_fn) {
+            this(instr, waitNPredicate(4), exec_fn, false, true);
+        }
+
+        public String name() {
+            return opcodes.name(this);
+        }
+
+        public int getInstr() {
+            return this.instr;
+        }
+
+        public boolean isExecutable(Cog cog) {
+            return executable.test(cog);
+        }
+
+        public void execute(Cog cog, Instruction ins) {
+            exec_fn.accept(cog, ins);
+        }
+    }
+
     private static final Predicate<Cog> ifZ = c -> c.getZFlag();
     private static final Predicate<Cog> ifC = c -> c.getCFlag();
 
     /**
-     * Do not make static! Non-static prevents conditionals from affecting one another
+     * Table of every condition. Do not make static! Non-static prevents conditionals from affecting one another
      */
-    public class Condition {
+    public class Conditions {
 
         public Condition IF_ALWAYS = new Condition(0b1111, c -> true);
         public Condition IF_NEVER = new Condition(0b0000, c -> false);
@@ -986,32 +1046,10 @@ public class Instruction {
         public Condition IF_NZ_AND_C = new Condition(0b0100, ifZ.negate().and(ifC));
         public Condition IF_NZ_OR_C = new Condition(0b1101, ifZ.negate().or(ifC));
 
-        private final int cond;
-
-        private final Predicate<Cog> test;
-
-        private Condition(int cond, Predicate<Cog> test) {
-            this.cond = cond;
-            this.test = test;
-        }
-
-        public Condition() {
-            this.cond = 0;
-            this.test = null;
-        }
-
-        public int getCond() {
-            return this.cond;
-        }
-
-        public boolean testCond(Cog c) {
-            return test.test(c);
-        }
-
         public ArrayList<Condition> values() {
             ArrayList<Condition> retval = new ArrayList<>();
             for (Field f : this.getClass().getFields()) {
-                if (f.getType().equals(this.getClass())) {
+                if (f.getType().equals(Condition.class)) {
                     try {
                         retval.add((Condition) f.get(this));
                     } catch (IllegalAccessException e) {
@@ -1022,11 +1060,11 @@ public class Instruction {
             return retval;
         }
 
-        public String name() {
+        public String name(Condition condition) {
             for (Field f : this.getClass().getFields()) {
-                if (f.getType().equals(this.getClass())) {
+                if (f.getType().equals(Condition.class)) {
                     try {
-                        if (f.get(this).equals(this)) {
+                        if (f.get(this).equals(condition)) {
                             return f.getName();
                         }
                     } catch (IllegalAccessException e) {
@@ -1038,10 +1076,44 @@ public class Instruction {
         }
     }
 
+    /**
+     * A single condition, only ever constructed as a field of {@link Conditions}
+     */
+    public class Condition {
+
+        private final int cond;
+
+        private final Predicate<Cog> test;
+
+        private Condition(int cond, Predicate<Cog> test) {
+            this.cond = cond;
+            this.test = test;
+        }
+
+        public int getCond() {
+            return this.cond;
+        }
+
+        public boolean testCond(Cog c) {
+            return test.test(c);
+        }
+
+        public String name() {
+            return conditions.name(this);
+        }
+    }
+
+    private final OpCodes opcodes = new OpCodes();
+
+    private final Conditions conditions = new Conditions();
+
     private OpCode opcode;
 
     private boolean write_zero, write_carry, write_result, immediate;
 
+    // set when the condition failed and the instruction ran as a NOP
+    private boolean skipped = false;
+
     private Condition condition;
 
     private int destination, source, encodedInstr;
@@ -1050,7 +1122,7 @@ public class Instruction {
 
     public Instruction(int encoded) {
         int instr = (encoded >> (32 - 6)) & 0b111111;
-        for (OpCode opcode : new OpCode().values()) {
+        for (OpCode opcode : opcodes.values()) {
             if (instr == opcode.getInstr()) {
                 this.opcode = opcode;
             }
@@ -1063,7 +1135,7 @@ public class Instruction {
         this.write_result = (zrci & 0b10) != 0;
         this.immediate = (zrci & 0b1) != 0;
         int cond = (encoded >> (32 - 6 - 4 - 4)) & 0b1111;
-        for (Condition condition : new Condition().values()) {
+        for (Condition condition : conditions.values()) {
             if (cond == condition.getCond()) {
                 this.condition = condition;
             }
@@ -1077,10 +1149,123 @@ public class Instruction {
         return encodedInstr;
     }
 
+    /**
+     * @return the encoded instruction with its condition field reflecting any change made while executing,
+     * such as DJNZ falling through. Decoding this value gives an instruction in an equivalent state.
+     */
+    public int getEffectiveEncoding() {
+        return (encodedInstr & ~(0b1111 << 18)) | (condition.getCond() << 18);
+    }
+
     public int getDest() {
         return destination;
     }
 
+    public int getSource() {
+        return source;
+    }
+
+    public boolean isImmediate() {
+        return immediate;
+    }
+
+    /**
+     * @return the 6 bit opcode field
+     */
+    public int getInstr() {
+        return (encodedInstr >> (32 - 6)) & 0b111111;
+    }
+
+    /**
+     * @return the 4 bit condition field
+     */
+    public int getCond() {
+        return condition.getCond();
+    }
+
+    public boolean writesZ() {
+        return write_zero;
+    }
+
+    public boolean writesC() {
+        return write_carry;
+    }
+
+    /**
+     * @return true if the instruction always takes 4 cycles and falls through to the next address
+     */
+    public boolean isStraightLine() {
+        return opcode != null && opcode.effect != null && opcode.fixedTiming;
+    }
+
+    /**
+     * @return true for JMP, JMPRET, CALL and RET, which take 4 cycles whether or not they jump
+     */
+    public boolean isJump() {
+        return opcode == opcodes.JMPRET;
+    }
+
+    /**
+     * @return true for DJNZ, TJZ and TJNZ, which take 4 cycles if they jump and 8 if they do not
+     */
+    public boolean isBranch() {
+        return opcode == opcodes.DJNZ || opcode == opcodes.TJZ || opcode == opcodes.TJNZ;
+    }
+
+    /**
+     * @return true for RDBYTE, RDWORD and RDLONG and their writing forms, which wait for the hub window
+     */
+    public boolean isHubAccess() {
+        return opcode == opcodes.RDBYTE || opcode == opcodes.RDWORD || opcode == opcodes.RDLONG;
+    }
+
+    public boolean testCondition(Cog cog) {
+        return condition.testCond(cog);
+    }
+
+    /**
+     * Performs the whole instruction at once, without counting its cycles and without advancing the PC
+     * unless it jumps. Only for {@link #isStraightLine()} instructions, hub accesses and jumps.
+     *
+     * @param cog cog to execute on
+     * @return true if the condition passed and the instruction had its effect
+     */
+    public boolean executeAtOnce(Cog cog) {
+        if (!condition.testCond(cog))
+            return false;
+        if (opcode.effect != null)
+            opcode.effect.accept(cog, this);
+        else
+            opcode.execute(cog, this);
+        return true;
+    }
+
+    /**
+     * Performs a {@link #isBranch()} instruction whose condition has passed, without counting its cycles.
+     * The instruction is left as it was decoded.
+     *
+     * @param cog cog to execute on
+     * @return true if it jumped, false if it falls through once it has spent another 4 cycles
+     */
+    public boolean executeBranch(Cog cog) {
+        Condition issued = condition;
+        opcode.execute(cog, this);
+        boolean jumped = condition == issued;
+        condition = issued;
+        return jumped;
+    }
+
+    public boolean writesResult() {
+        return write_result;
+    }
+
+    /**
+     * @return true if the instruction has been executing as a NOP because its condition failed
+     */
+    public boolean isSkipped() {
+        return skipped;
+    }
+
     public int getDestValue(Cog cog) {
         return cog.getLong(this.destination);
     }
@@ -1130,6 +1315,7 @@ public class Instruction {
      */
     public void execute(Cog cog) {
         if (!this.condition.testCond(cog)) {
+            skipped = true;
             if (NOPPredicate.test(cog)) {
                 incPC.accept(cog, this);
             }
@@ -1200,35 +1386,35 @@ public class Instruction {
 
 
         opcode = this.opcode.name();
-        cond = (this.condition.equals(this.condition.IF_ALWAYS)) ? "" : this.condition.name();
+        cond = (this.condition.equals(this.conditions.IF_ALWAYS)) ? "" : this.condition.name();
         dest = register2string(destination, false);
         src = register2string(source, immediate);
         effects = (this.write_result) ? "wr" : "nr";
         effects += ((this.write_carry) ? ",wc" : "") + ((this.write_zero) ? ",wz" : "");
 
         if (!this.write_result) {
-            if (this.opcode == this.opcode.RDBYTE) {
+            if (this.opcode == this.opcodes.RDBYTE) {
                 opcode = "WRBYTE";
-            } else if (this.opcode == this.opcode.RDWORD) {
+            } else if (this.opcode == this.opcodes.RDWORD) {
                 opcode = "WRWORD";
-            } else if (this.opcode == this.opcode.RDLONG) {
+            } else if (this.opcode == this.opcodes.RDLONG) {
                 opcode = "WRLONG";
-            } else if (this.opcode == this.opcode.AND) {
+            } else if (this.opcode == this.opcodes.AND) {
                 opcode = "TEST";
-            } else if (this.opcode == this.opcode.ANDN) {
+            } else if (this.opcode == this.opcodes.ANDN) {
                 opcode = "TESTN";
-            } else if (this.opcode == this.opcode.SUB) {
+            } else if (this.opcode == this.opcodes.SUB) {
                 opcode = "CMP";
-            } else if (this.opcode == this.opcode.SUBX) {
+            } else if (this.opcode == this.opcodes.SUBX) {
                 opcode = "CMPX";
-            } else if (this.opcode == this.opcode.JMPRET) {
+            } else if (this.opcode == this.opcodes.JMPRET) {
                 dest = src;
                 src = "";
                 opcode = "JMP";
             }
         }
 
-        if (this.opcode == this.opcode.HUBOP)
+        if (this.opcode == this.opcodes.HUBOP)
 
         {
             src = "";
@@ -0,0 +1,30 @@
+package com.wcmarshall.jpropsim.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * COGINIT or COGNEW, from PASM or Spin
+ */
+@Name("com.wcmarshall.jpropsim.CogInit")
+@Label("COGINIT")
+@Category("JPropSim")
+public class CogInitEvent extends Event {
+
+    @Label("Cog")
+    @Description("Cog started, or -1 if none was free")
+    public int cog;
+
+    @Label("Hub Address")
+    public int hubAddress;
+
+    @Label("PAR")
+    public int par;
+
+    @Label("New")
+    @Description("The next free cog was requested")
+    public boolean cognew;
+}
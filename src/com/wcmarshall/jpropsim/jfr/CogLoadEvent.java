@@ -0,0 +1,31 @@
+package com.wcmarshall.jpropsim.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A cog finished loading its program from hub RAM
+ */
+@Name("com.wcmarshall.jpropsim.CogLoad")
+@Label("Cog Load")
+@Category("JPropSim")
+@Description("A cog finished loading its program and began executing")
+public class CogLoadEvent extends Event {
+
+    @Label("Cog")
+    public int cog;
+
+    @Label("Hub Address")
+    public int hubAddress;
+
+    @Label("Load Cycles")
+    @Description("Simulated cycles from start to the end of the load, 0 when preloaded")
+    public long loadCycles;
+
+    @Label("Spin Interpreter")
+    @Description("The program is the ROM Spin interpreter")
+    public boolean spinInterpreter;
+}
@@ -0,0 +1,21 @@
+package com.wcmarshall.jpropsim.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * COGSTOP, from PASM or Spin
+ */
+@Name("com.wcmarshall.jpropsim.CogStop")
+@Label("COGSTOP")
+@Category("JPropSim")
+public class CogStopEvent extends Event {
+
+    @Label("Cog")
+    public int cog;
+
+    @Label("Was Running")
+    public boolean wasRunning;
+}
@@ -0,0 +1,23 @@
+package com.wcmarshall.jpropsim.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Reading a ROM, boot image or stimulus file
+ */
+@Name("com.wcmarshall.jpropsim.FileRead")
+@Label("File Read")
+@Category("JPropSim")
+public class FileReadEvent extends Event {
+
+    @Label("Path")
+    public String path;
+
+    @Label("Bytes Read")
+    @DataAmount
+    public long bytes;
+}
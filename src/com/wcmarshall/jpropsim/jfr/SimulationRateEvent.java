@@ -0,0 +1,73 @@
+package com.wcmarshall.jpropsim.jfr;
+
+import com.wcmarshall.jpropsim.Hub;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Frequency;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Periodic simulation speed of each live hub. The periodic hook only runs while a recording has this
+ * event enabled.
+ */
+@Name("com.wcmarshall.jpropsim.SimulationRate")
+@Label("Simulation Rate")
+@Category("JPropSim")
+@Description("Simulated clock cycles per second of wall time, per hub")
+@Period("1 s")
+public class SimulationRateEvent extends Event {
+
+    @Label("Hub")
+    @Description("Identity hash of the hub")
+    public int hub;
+
+    @Label("Cycle")
+    public long cycle;
+
+    @Label("Cycles Per Second")
+    @Frequency
+    public long cyclesPerSecond;
+
+    // last sampled cycle count and nanoTime per hub
+    private static final Map<Hub, long[]> hubs = new WeakHashMap<>();
+
+    static {
+        FlightRecorder.addPeriodicEvent(SimulationRateEvent.class, SimulationRateEvent::emit);
+    }
+
+    /**
+     * Includes a hub in the periodic events until it is garbage collected
+     */
+    public static void track(Hub hub) {
+        synchronized (hubs) {
+            hubs.put(hub, new long[] { hub.getCycles(), System.nanoTime() });
+        }
+    }
+
+    private static void emit() {
+        long now = System.nanoTime();
+        synchronized (hubs) {
+            for (Map.Entry<Hub, long[]> entry : hubs.entrySet()) {
+                long cycles = entry.getKey().getCycles();
+                long[] last = entry.getValue();
+                long elapsed = now - last[1];
+
+                SimulationRateEvent event = new SimulationRateEvent();
+                event.hub = System.identityHashCode(entry.getKey());
+                event.cycle = cycles;
+                event.cyclesPerSecond = (elapsed <= 0) ? 0 : (cycles - last[0]) * 1_000_000_000L / elapsed;
+                event.commit();
+
+                last[0] = cycles;
+                last[1] = now;
+            }
+        }
+    }
+}
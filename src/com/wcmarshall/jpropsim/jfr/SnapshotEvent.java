@@ -0,0 +1,27 @@
+package com.wcmarshall.jpropsim.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Saving or loading a {@link com.wcmarshall.jpropsim.Snapshot}
+ */
+@Name("com.wcmarshall.jpropsim.Snapshot")
+@Label("Snapshot")
+@Category("JPropSim")
+public class SnapshotEvent extends Event {
+
+    public static final String SAVE = "save";
+    public static final String LOAD = "load";
+
+    @Label("Operation")
+    public String operation;
+
+    @Label("Path")
+    public String path;
+
+    @Label("Cycle")
+    public long cycle;
+}
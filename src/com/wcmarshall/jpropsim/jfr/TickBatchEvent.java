@@ -0,0 +1,24 @@
+package com.wcmarshall.jpropsim.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A run of consecutive {@link com.wcmarshall.jpropsim.Hub#tick()} calls made by
+ * {@link com.wcmarshall.jpropsim.Hub#run(long)}
+ */
+@Name("com.wcmarshall.jpropsim.TickBatch")
+@Label("Tick Batch")
+@Category("JPropSim")
+@Description("Simulated clock cycles run in one batch")
+public class TickBatchEvent extends Event {
+
+    @Label("Start Cycle")
+    public long startCycle;
+
+    @Label("Cycles")
+    public long cycles;
+}
@@ -0,0 +1,278 @@
+package com.wcmarshall.jpropsim.peripheral;
+
+import com.wcmarshall.jpropsim.Hub;
+import com.wcmarshall.jpropsim.Peripheral;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Audio output filtered from the levels of output pins, such as a counter in DUTY or NCO mode driving an RC
+ * filter, as 16 bit PCM with one channel per pin.
+ *
+ * The pins are filtered in two stages. The first averages each pin's level over periods of a quarter of an
+ * output sample, exactly: like other peripherals it is edge driven, adding up the cycles a pin was high from
+ * the time of each change, so the result is the same as sampling on every cycle while a quiet pin costs
+ * nothing. The second is a 64 tap windowed sinc low-pass FIR, run at the output rate on those averages, with
+ * its cutoff just under half the output rate. All arithmetic is in ints over preallocated arrays, and the FIR
+ * is a plain multiply and add over contiguous slices, which the JIT can vectorize; nothing is allocated per
+ * sample.
+ *
+ * Samples are written to a WAV file, or kept in memory until then.
+ */
+public class AudioCapture implements Peripheral, Closeable {
+
+    private static final int OVERSAMPLE = 4;
+    private static final int TAPS = 64;
+    // cutoff as a fraction of the oversampled rate
+    private static final double CUTOFF = 0.45 / OVERSAMPLE;
+    private static final int WAV_HEADER = 44;
+
+    private final int[] pins;
+    private final long clkfreq;
+    private final int sampleRate;
+    private final int[] taps = new int[TAPS];
+
+    private Hub hub;
+    // cycle the levels have been added up to, and each pin's level since, one bit per channel
+    private long last = 0;
+    private int levels = 0;
+    // first cycle of the sampling, the current averaging period and its bounds
+    private long origin = 0, period = 0, periodStart = 0, periodEnd = 0;
+    // cycles high so far in the period, per channel
+    private final int[] high;
+    // each channel's last TAPS averages, stored twice over so that the FIR reads one contiguous slice
+    private final int[] history;
+    private int historyPos = 0;
+    // averages since the last output sample
+    private int phase = 0;
+
+    // samples kept in memory, interleaved
+    private short[] pcm = new short[1 << 16];
+    private int pcmLength = 0;
+    private FileChannel wav = null;
+    private final ByteBuffer wavBuffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+    private long wavBytes = 0;
+
+    /**
+     * @param pins pins to record, one channel each
+     * @param clkfreq simulated system clock frequency
+     * @param sampleRate output samples per second
+     */
+    public AudioCapture(int[] pins, long clkfreq, int sampleRate) {
+        if (pins.length == 0)
+            throw new IllegalArgumentException("Need at least one pin to record");
+        for (int pin : pins) {
+            if (pin < 0 || pin > 31)
+                throw new IllegalArgumentException("Audio pins must be within port A");
+        }
+        if (sampleRate <= 0 || clkfreq < (long) sampleRate * OVERSAMPLE)
+            throw new IllegalArgumentException("Sample rate must be positive and well below the system clock");
+        this.pins = pins.clone();
+        this.clkfreq = clkfreq;
+        this.sampleRate = sampleRate;
+        this.high = new int[pins.length];
+        this.history = new int[pins.length * 2 * TAPS];
+        designFilter();
+    }
+
+    /**
+     * Fills the taps with a Blackman windowed sinc, in Q15 and summing to exactly 1
+     */
+    private void designFilter() {
+        double[] h = new double[TAPS];
+        double sum = 0;
+        for (int i = 0; i < TAPS; i++) {
+            double x = i - (TAPS - 1) / 2.0;
+            double sinc = 2 * CUTOFF * Math.sin(2 * Math.PI * CUTOFF * x) / (2 * Math.PI * CUTOFF * x);
+            double window = 0.42 - 0.5 * Math.cos(2 * Math.PI * i / (TAPS - 1))
+                    + 0.08 * Math.cos(4 * Math.PI * i / (TAPS - 1));
+            h[i] = sinc * window;
+            sum += h[i];
+        }
+        int total = 0;
+        for (int i = 0; i < TAPS; i++) {
+            taps[i] = (int) Math.round(h[i] / sum * (1 << 15));
+            total += taps[i];
+        }
+        // rounding error goes to the middle tap
+        taps[TAPS / 2] += (1 << 15) - total;
+    }
+
+    /**
+     * Writes samples from now on to a WAV file instead of keeping them in memory
+     *
+     * @throws IOException if the file cannot be created
+     */
+    public void writeTo(File file) throws IOException {
+        if (wav != null)
+            throw new IllegalStateException("Already writing samples");
+        wav = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        // patched with the sizes on close
+        wav.write(header(0), 0);
+        wav.position(WAV_HEADER);
+        wavBytes = 0;
+    }
+
+    /**
+     * Filters the pins up to the current cycle, and completes the WAV file if one is being written
+     *
+     * @throws IOException if the file cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (hub != null)
+            advance(hub.getCycles());
+        if (wav != null) {
+            flushWav();
+            wav.write(header(wavBytes), 0);
+            wav.close();
+            wav = null;
+        }
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannels() {
+        return pins.length;
+    }
+
+    /**
+     * @return samples kept in memory, channels interleaved
+     */
+    public short[] getPcm() {
+        return Arrays.copyOf(pcm, pcmLength);
+    }
+
+    @Override
+    public int getPinMask() {
+        int mask = 0;
+        for (int pin : pins)
+            mask |= 1 << pin;
+        return mask;
+    }
+
+    @Override
+    public void attach(Hub hub) {
+        this.hub = hub;
+        origin = hub.getCycles();
+        last = origin;
+        period = 0;
+        periodStart = origin;
+        periodEnd = boundary(1);
+        levels = levels(hub.getOuta(), hub.getDira());
+    }
+
+    @Override
+    public void pinsChanged(Hub hub, int outa, int dira, int changed) {
+        advance(hub.getCycles());
+        levels = levels(outa, dira);
+    }
+
+    private int levels(int outa, int dira) {
+        int driven = outa & dira;
+        int result = 0;
+        for (int c = 0; c < pins.length; c++)
+            result |= ((driven >>> pins[c]) & 1) << c;
+        return result;
+    }
+
+    private long boundary(long index) {
+        return origin + index * clkfreq / ((long) sampleRate * OVERSAMPLE);
+    }
+
+    /**
+     * Adds up the levels held since the last change, completing the averaging periods that end by now
+     */
+    private void advance(long now) {
+        while (periodEnd <= now) {
+            int length = (int) (periodEnd - periodStart);
+            int held = (int) (periodEnd - last);
+            for (int c = 0; c < high.length; c++) {
+                if ((levels & (1 << c)) != 0)
+                    high[c] += held;
+                int average = (int) (((long) high[c] << 15) / length);
+                int base = c * 2 * TAPS;
+                history[base + historyPos] = average;
+                history[base + historyPos + TAPS] = average;
+                high[c] = 0;
+            }
+            historyPos = (historyPos + 1) % TAPS;
+            last = periodEnd;
+            periodStart = periodEnd;
+            periodEnd = boundary(++period + 1);
+            if (++phase == OVERSAMPLE) {
+                phase = 0;
+                emit();
+            }
+        }
+        int held = (int) (now - last);
+        for (int c = 0; c < high.length; c++) {
+            if ((levels & (1 << c)) != 0)
+                high[c] += held;
+        }
+        last = now;
+    }
+
+    /**
+     * Runs the FIR over each channel's last TAPS averages, oldest first from historyPos
+     */
+    private void emit() {
+        for (int c = 0; c < high.length; c++) {
+            int from = c * 2 * TAPS + historyPos;
+            int sum = 0;
+            for (int i = 0; i < TAPS; i++)
+                sum += taps[i] * history[from + i];
+            // Q30 level from 0 to 1 to a signed 16 bit sample
+            int sample = Math.min((sum >> 14) - 0x8000, 0x7FFF);
+            write((short) Math.max(sample, -0x8000));
+        }
+    }
+
+    private void write(short sample) {
+        if (wav == null) {
+            if (pcmLength == pcm.length)
+                pcm = Arrays.copyOf(pcm, 2 * pcm.length);
+            pcm[pcmLength++] = sample;
+            return;
+        }
+        if (wavBuffer.remaining() < 2) {
+            try {
+                flushWav();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        wavBuffer.putShort(sample);
+        wavBytes += 2;
+    }
+
+    private void flushWav() throws IOException {
+        wavBuffer.flip();
+        while (wavBuffer.hasRemaining())
+            wav.write(wavBuffer);
+        wavBuffer.clear();
+    }
+
+    private ByteBuffer header(long dataBytes) {
+        int channels = pins.length;
+        ByteBuffer header = ByteBuffer.allocate(WAV_HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(new byte[] { 'R', 'I', 'F', 'F' }).putInt((int) (36 + dataBytes));
+        header.put(new byte[] { 'W', 'A', 'V', 'E', 'f', 'm', 't', ' ' }).putInt(16);
+        header.putShort((short) 1).putShort((short) channels).putInt(sampleRate).putInt(sampleRate * channels * 2);
+        header.putShort((short) (channels * 2)).putShort((short) 16);
+        header.put(new byte[] { 'd', 'a', 't', 'a' }).putInt((int) dataBytes);
+        header.flip();
+        return header;
+    }
+}
@@ -0,0 +1,212 @@
+package com.wcmarshall.jpropsim.peripheral;
+
+import com.wcmarshall.jpropsim.Hub;
+import com.wcmarshall.jpropsim.Peripheral;
+
+import java.util.Arrays;
+
+/**
+ * 24LC256-style serial EEPROM on an open-drain I2C bus.
+ *
+ * Both lines are assumed to have pull-ups: a line is low if the chip drives it low or, for SDA, if
+ * the EEPROM pulls it low. Writes take effect immediately and wrap within a page; the internal
+ * write cycle time is not modelled, so the part always acknowledges.
+ */
+public class I2CEeprom implements Peripheral {
+
+    public static final int SIZE_24LC256 = 32768;
+    public static final int PAGE_24LC256 = 64;
+
+    private enum State { IDLE, DEVICE, ADDR_HIGH, ADDR_LOW, WRITE, READ }
+
+    private final int scl, sda;
+    private final int deviceAddress;
+    private final byte[] memory;
+    private final int pageSize;
+
+    private State state = State.IDLE;
+    private boolean lastScl = true, lastSda = true;
+    private boolean pullSdaLow = false;
+    private int outa = 0, dira = 0;
+
+    private int shift = 0, bitCount = 0;
+    private int address = 0;
+    private boolean acking = false;
+
+    /**
+     * @param scl clock pin
+     * @param sda data pin
+     * @param chipSelect value of the A2..A0 address pins
+     * @param memory backing store, its length is the capacity of the part
+     * @param pageSize write page size in bytes
+     */
+    public I2CEeprom(int scl, int sda, int chipSelect, byte[] memory, int pageSize) {
+        this.scl = scl;
+        this.sda = sda;
+        this.deviceAddress = 0b1010_000 | (chipSelect & 0b111);
+        this.memory = memory;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * A blank 24LC256 at address 0, wired like the Propeller's boot EEPROM on P28/P29
+     */
+    public I2CEeprom(int scl, int sda) {
+        this(scl, sda, 0, blank(SIZE_24LC256), PAGE_24LC256);
+    }
+
+    private static byte[] blank(int size) {
+        byte[] memory = new byte[size];
+        Arrays.fill(memory, (byte) 0xFF);
+        return memory;
+    }
+
+    public byte[] getMemory() {
+        return memory;
+    }
+
+    @Override
+    public int getPinMask() {
+        return (1 << scl) | (1 << sda);
+    }
+
+    @Override
+    public void attach(Hub hub) {
+        hub.setPinIn(scl, true);
+        hub.setPinIn(sda, true);
+    }
+
+    private void driveSda(Hub hub, boolean low) {
+        pullSdaLow = low;
+        hub.setPinIn(sda, !low && Peripheral.pinLevel(sda, outa, dira));
+    }
+
+    @Override
+    public void pinsChanged(Hub hub, int outa, int dira, int changed) {
+        this.outa = outa;
+        this.dira = dira;
+
+        boolean sclLevel = Peripheral.pinLevel(scl, outa, dira);
+        boolean masterSda = Peripheral.pinLevel(sda, outa, dira);
+        boolean sdaLevel = masterSda && !pullSdaLow;
+
+        hub.setPinIn(scl, sclLevel);
+        hub.setPinIn(sda, sdaLevel);
+
+        if (sclLevel && lastScl && masterSda != lastSda) {
+            // SDA moving while SCL is high is a start or stop condition
+            if (!masterSda) {
+                start();
+            } else {
+                stop(hub);
+            }
+        } else if (sclLevel && !lastScl) {
+            risingEdge(hub, sdaLevel);
+        } else if (!sclLevel && lastScl) {
+            fallingEdge(hub);
+        }
+
+        lastScl = sclLevel;
+        lastSda = masterSda;
+    }
+
+    private void start() {
+        state = State.DEVICE;
+        shift = 0;
+        bitCount = 0;
+        acking = false;
+    }
+
+    private void stop(Hub hub) {
+        state = State.IDLE;
+        acking = false;
+        driveSda(hub, false);
+    }
+
+    private void risingEdge(Hub hub, boolean sdaLevel) {
+        if (state == State.IDLE) return;
+
+        if (bitCount == 8) {
+            // acknowledge slot
+            if (state == State.READ && sdaLevel) {
+                // master NAK ends the sequential read
+                state = State.IDLE;
+            }
+            return;
+        }
+
+        if (state != State.READ) {
+            shift = (shift << 1) | (sdaLevel ? 1 : 0);
+        }
+        bitCount++;
+    }
+
+    private void fallingEdge(Hub hub) {
+        if (state == State.IDLE) {
+            driveSda(hub, false);
+            return;
+        }
+
+        if (bitCount == 8 && !acking) {
+            // the eighth bit has just been clocked, decide whether to acknowledge
+            acking = true;
+            if (state == State.READ) {
+                driveSda(hub, false);       // master drives the acknowledge
+            } else {
+                driveSda(hub, byteReceived(shift & 0xFF));
+            }
+            return;
+        }
+
+        if (bitCount == 8) {
+            // acknowledge slot is over
+            acking = false;
+            bitCount = 0;
+            shift = 0;
+            if (state == State.READ) {
+                address = (address + 1) % memory.length;
+            }
+        }
+
+        if (state == State.READ) {
+            int data = memory[address] & 0xFF;
+            driveSda(hub, ((data >> (7 - bitCount)) & 1) == 0);
+        } else {
+            driveSda(hub, false);
+        }
+    }
+
+    /**
+     * @return true to acknowledge the byte
+     */
+    private boolean byteReceived(int value) {
+        switch (state) {
+            case DEVICE:
+                if ((value >> 1) != deviceAddress) {
+                    state = State.IDLE;
+                    return false;
+                }
+                state = ((value & 1) == 1) ? State.READ : State.ADDR_HIGH;
+                if (state == State.READ) {
+                    // first data bit goes out on the falling edge that ends the acknowledge
+                    address = (address + memory.length - 1) % memory.length;
+                }
+                return true;
+            case ADDR_HIGH:
+                address = (value << 8) % memory.length;
+                state = State.ADDR_LOW;
+                return true;
+            case ADDR_LOW:
+                address = (address | value) % memory.length;
+                state = State.WRITE;
+                return true;
+            case WRITE:
+                memory[address] = (byte) value;
+                int page = address & ~(pageSize - 1);
+                address = page | ((address + 1) & (pageSize - 1));
+                return true;
+            default:
+                return false;
+        }
+    }
+}
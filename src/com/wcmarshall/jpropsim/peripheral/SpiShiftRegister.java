@@ -0,0 +1,120 @@
+package com.wcmarshall.jpropsim.peripheral;
+
+import com.wcmarshall.jpropsim.Hub;
+import com.wcmarshall.jpropsim.Peripheral;
+
+/**
+ * SPI slave built around a single shift register, MSB first, in SPI mode 0: data is sampled on the
+ * rising edge of SCK and shifted out on the falling edge.
+ *
+ * When chip select is asserted (low) the register is parallel-loaded from {@link #load()}, and when
+ * it is released the received bits are handed to {@link #latch(long, int)}. Subclasses override
+ * these, and optionally {@link #bitReceived(long, int)}, to model devices such as ADCs that
+ * answer a command sent in the same transaction.
+ */
+public class SpiShiftRegister implements Peripheral {
+
+    private final int cs, sck, mosi, miso;
+    private final int width;
+
+    private long register = 0;
+    private int bitCount = 0;
+    private boolean selected = false, lastSck = false;
+
+    private long lastLatched = 0;
+
+    /**
+     * @param cs active-low chip select pin
+     * @param sck clock pin
+     * @param mosi data pin driven by the Propeller
+     * @param miso data pin driven by this device, or -1 if it is write only
+     * @param width shift register length in bits, at most 64
+     */
+    public SpiShiftRegister(int cs, int sck, int mosi, int miso, int width) {
+        if (width < 1 || width > 64)
+            throw new IllegalArgumentException("Shift register width must be between 1 and 64 bits");
+        this.cs = cs;
+        this.sck = sck;
+        this.mosi = mosi;
+        this.miso = miso;
+        this.width = width;
+    }
+
+    @Override
+    public int getPinMask() {
+        return (1 << cs) | (1 << sck) | (1 << mosi);
+    }
+
+    @Override
+    public void attach(Hub hub) {
+        if (miso >= 0) hub.setPinIn(miso, true);
+    }
+
+    /**
+     * @return value presented to the Propeller when chip select is asserted
+     */
+    protected long load() {
+        return 0;
+    }
+
+    /**
+     * Called when chip select is released.
+     *
+     * @param value bits received, right justified
+     * @param bits number of bits clocked during the transaction
+     */
+    protected void latch(long value, int bits) {
+        lastLatched = value;
+    }
+
+    /**
+     * Called after every sampled bit. Returning a different value replaces the register contents,
+     * which lets a device answer a command part way through a transaction.
+     *
+     * @param value bits received so far in this transaction, right justified
+     * @param bits number of bits received so far
+     * @return new register contents
+     */
+    protected long bitReceived(long value, int bits) {
+        return value;
+    }
+
+    public long getLastLatched() {
+        return lastLatched;
+    }
+
+    private long widthMask() {
+        return (width == 64) ? -1L : (1L << width) - 1;
+    }
+
+    private void driveMiso(Hub hub) {
+        if (miso < 0) return;
+        hub.setPinIn(miso, !selected || ((register >>> (width - 1)) & 1) == 1);
+    }
+
+    @Override
+    public void pinsChanged(Hub hub, int outa, int dira, int changed) {
+        boolean csLevel = Peripheral.pinLevel(cs, outa, dira);
+        boolean sckLevel = Peripheral.pinLevel(sck, outa, dira);
+
+        if (selected && csLevel) {
+            selected = false;
+            latch(register & widthMask(), bitCount);
+            driveMiso(hub);
+        } else if (!selected && !csLevel) {
+            selected = true;
+            bitCount = 0;
+            register = load() & widthMask();
+            driveMiso(hub);
+        } else if (selected && sckLevel && !lastSck) {
+            boolean bit = Peripheral.pinLevel(mosi, outa, dira);
+            register = ((register << 1) | (bit ? 1 : 0)) & widthMask();
+            bitCount++;
+            register = bitReceived(register, bitCount) & widthMask();
+        } else if (selected && !sckLevel && lastSck) {
+            driveMiso(hub);
+        }
+
+        lastSck = sckLevel;
+    }
+}
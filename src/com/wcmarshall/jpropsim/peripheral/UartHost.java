@@ -0,0 +1,150 @@
+package com.wcmarshall.jpropsim.peripheral;
+
+import com.wcmarshall.jpropsim.Event;
+import com.wcmarshall.jpropsim.Hub;
+import com.wcmarshall.jpropsim.Peripheral;
+import com.wcmarshall.jpropsim.stimulus.Stimulus;
+import com.wcmarshall.jpropsim.stimulus.UartSource;
+
+import java.io.ByteArrayOutputStream;
+import java.util.function.IntConsumer;
+
+/**
+ * Host end of an asynchronous serial link (8N1, idle high), such as a PC terminal on P30/P31.
+ *
+ * Reception is edge triggered: a falling edge on the Propeller's transmit pin starts a frame, and
+ * the line is then sampled once in the middle of each bit through the hub's scheduler. Bytes sent
+ * to the Propeller are replayed with a {@link UartSource}.
+ */
+public class UartHost implements Peripheral {
+
+    private final int txPin, rxPin;
+    private final long clkfreq, baud;
+
+    private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+    private IntConsumer listener = null;
+
+    private boolean receiving = false;
+    private boolean line = true;
+    private long sendTime = 0;
+
+    private final Sampler sampler = new Sampler();
+
+    /**
+     * @param txPin pin the Propeller transmits on
+     * @param rxPin pin the Propeller receives on, or -1 for a receive only host
+     * @param clkfreq simulated system clock frequency
+     * @param baud bit rate
+     */
+    public UartHost(int txPin, int rxPin, long clkfreq, long baud) {
+        if (baud <= 0 || clkfreq < baud)
+            throw new IllegalArgumentException("Baud rate must be positive and no faster than the system clock");
+        this.txPin = txPin;
+        this.rxPin = rxPin;
+        this.clkfreq = clkfreq;
+        this.baud = baud;
+    }
+
+    /**
+     * @param listener called with every byte received from the Propeller
+     */
+    public void setListener(IntConsumer listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return bytes received so far
+     */
+    public byte[] getReceived() {
+        return received.toByteArray();
+    }
+
+    public void clearReceived() {
+        received.reset();
+    }
+
+    /**
+     * Queues bytes to be sent to the Propeller, after anything already queued.
+     *
+     * @param hub hub to send on
+     * @param data bytes to send
+     */
+    public void send(Hub hub, byte[] data) {
+        if (rxPin < 0)
+            throw new IllegalStateException("Host has no transmit pin");
+        UartSource source = new UartSource(rxPin, Math.max(hub.getCycles(), sendTime), clkfreq, baud, data);
+        sendTime = source.getEndTime();
+        Stimulus.attach(hub, source);
+    }
+
+    @Override
+    public int getPinMask() {
+        return 1 << txPin;
+    }
+
+    @Override
+    public void attach(Hub hub) {
+        if (rxPin >= 0) hub.setPinIn(rxPin, true);
+    }
+
+    @Override
+    public void pinsChanged(Hub hub, int outa, int dira, int changed) {
+        boolean level = Peripheral.pinLevel(txPin, outa, dira);
+        if (line && !level && !receiving) {
+            receiving = true;
+            sampler.begin(hub, hub.getCycles());
+        }
+        line = level;
+    }
+
+    private long bitTime(long bit) {
+        return bit * clkfreq / baud;
+    }
+
+    /**
+     * Samples the transmit line at the centre of each bit of a frame
+     */
+    private class Sampler extends Event {
+
+        private long frameStart;
+        private int bit;
+        private int shift;
+
+        Sampler() {
+            super(0);
+        }
+
+        void begin(Hub hub, long start) {
+            frameStart = start;
+            bit = 0;
+            shift = 0;
+            setTime(frameStart + bitTime(1) / 2);
+            hub.schedule(this);
+        }
+
+        @Override
+        public void fire(Hub hub) {
+            if (bit == 0 && line) {
+                // start bit did not last, treat as a glitch
+                receiving = false;
+                return;
+            }
+
+            if (bit >= 1 && bit <= 8) {
+                shift |= (line ? 1 : 0) << (bit - 1);
+            }
+
+            if (bit == 9) {
+                // stop bit; a framing error is delivered anyway, as a terminal would
+                receiving = false;
+                received.write(shift);
+                if (listener != null) listener.accept(shift);
+                return;
+            }
+
+            bit++;
+            setTime(frameStart + bitTime(2 * bit + 1) / 2);
+            hub.schedule(this);
+        }
+    }
+}
@@ -0,0 +1,399 @@
+package com.wcmarshall.jpropsim.peripheral;
+
+import com.wcmarshall.jpropsim.Hub;
+import com.wcmarshall.jpropsim.Peripheral;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Display on a VGA or composite video output, decoding the levels of its pins into frames.
+ *
+ * A VGA display watches a group of 8 pins wired as on the Parallax boards: vertical and horizontal sync on
+ * the base pin and the one above it, then 2 bits each of blue, green and red. A composite display watches the
+ * 3 pins of the luma DAC, taking level 0 as sync and levels 2 to 7 as black to white; chroma is not
+ * demodulated. Lines start on the leading edge of horizontal sync, and frames on vertical sync: the VGA sync
+ * pin, or a composite sync pulse longer than a quarter of a line.
+ *
+ * Like other peripherals the display is edge driven. Each time its pins change, the pixels whose centres
+ * the previous level covered are filled in one go, so a still line costs nothing. Completed frames are kept in
+ * memory, handed to a listener on the simulation thread, and optionally written as PNG or raw RGB files by a
+ * background thread. Frames go to the writer through a fixed pool of buffers; when the writer falls behind,
+ * frames are dropped and counted rather than stalling the simulation.
+ */
+public class VideoCapture implements Peripheral, Closeable {
+
+    public enum Signal {
+        VGA, COMPOSITE
+    }
+
+    public enum Format {
+        // one numbered PNG per frame
+        PNG,
+        // every frame appended to frames.rgb, 3 bytes a pixel
+        RAW
+    }
+
+    private static final int WRITER_FRAMES = 8;
+    private static final int[] VGA_LEVELS = { 0x00, 0x55, 0xAA, 0xFF };
+
+    private final Signal signal;
+    private final int basePin, width, height;
+    private final double pixelCycles, lineCycles;
+    private int firstPixel = 0, firstLine = 0;
+    private boolean syncActiveHigh = false;
+
+    // frame being drawn, and the last completed one
+    private int[] drawing, completed;
+    private Consumer<int[]> listener = null;
+    private long frames = 0, dropped = 0;
+    private Writer writer = null;
+
+    // colour since the pins last changed, and when they did
+    private int color = 0;
+    private long lastChange = 0;
+    // lines since vertical sync, or -1 before the first, and the cycle the current one started
+    private int line = -1;
+    private long lineStart = 0;
+    private boolean hsync = false, vsync = false;
+    // start of the composite sync pulse in progress
+    private long syncStart = 0;
+    private boolean drawn = false;
+
+    /**
+     * @param signal kind of output
+     * @param basePin lowest pin of the output
+     * @param width visible pixels per line
+     * @param height visible lines
+     * @param pixelCycles system clock cycles per pixel
+     * @param lineCycles system clock cycles per line, from one horizontal sync to the next
+     */
+    public VideoCapture(Signal signal, int basePin, int width, int height, double pixelCycles, double lineCycles) {
+        int pins = (signal == Signal.VGA) ? 8 : 3;
+        if (basePin < 0 || basePin + pins > 32)
+            throw new IllegalArgumentException("Video pins must be within port A");
+        if (width <= 0 || height <= 0 || pixelCycles <= 0 || lineCycles < width * pixelCycles)
+            throw new IllegalArgumentException("Visible pixels must fit in a line");
+        this.signal = signal;
+        this.basePin = basePin;
+        this.width = width;
+        this.height = height;
+        this.pixelCycles = pixelCycles;
+        this.lineCycles = lineCycles;
+        this.drawing = new int[width * height];
+        this.completed = new int[width * height];
+    }
+
+    /**
+     * @return a display for 640x480 VGA at 60 Hz, with its 25.175 MHz pixel clock
+     */
+    public static VideoCapture vga640x480(int basePin, long clkfreq) {
+        double pixelCycles = clkfreq / 25.175e6;
+        VideoCapture capture = new VideoCapture(Signal.VGA, basePin, 640, 480, pixelCycles, 800 * pixelCycles);
+        // sync and back porch
+        capture.setWindow(96 + 48, 2 + 33);
+        return capture;
+    }
+
+    /**
+     * @return a display for one field of NTSC composite, with the 52.6 us of active video spread over width
+     * pixels
+     */
+    public static VideoCapture ntsc(int basePin, long clkfreq, int width) {
+        double pixelCycles = 52.6e-6 * clkfreq / width;
+        VideoCapture capture = new VideoCapture(Signal.COMPOSITE, basePin, width, 240, pixelCycles,
+                63.556e-6 * clkfreq);
+        // sync and back porch, and the blanking left after the vertical sync pulses
+        capture.setWindow((int) Math.round(9.4e-6 * clkfreq / pixelCycles), 12);
+        return capture;
+    }
+
+    /**
+     * @param firstPixel pixels from the leading edge of horizontal sync to the first visible one
+     * @param firstLine lines from vertical sync to the first visible one
+     */
+    public void setWindow(int firstPixel, int firstLine) {
+        this.firstPixel = firstPixel;
+        this.firstLine = firstLine;
+    }
+
+    /**
+     * @param activeHigh true if the VGA sync pulses are high, as for 800x600; they are low by default
+     */
+    public void setSyncActiveHigh(boolean activeHigh) {
+        this.syncActiveHigh = activeHigh;
+    }
+
+    /**
+     * @param listener called on the simulation thread with each completed frame, which is only valid during
+     *                 the call
+     */
+    public void setListener(Consumer<int[]> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Writes each completed frame from now on to a directory, on a background thread
+     *
+     * @param directory directory for the files, which is created if need be
+     * @param format file format
+     * @throws IOException if the directory or the raw file cannot be created
+     */
+    public void writeTo(File directory, Format format) throws IOException {
+        if (writer != null)
+            throw new IllegalStateException("Already writing frames");
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create " + directory);
+        writer = new Writer(directory, format);
+        writer.start();
+    }
+
+    /**
+     * Waits for the frames handed to the writer to be written, and stops it
+     *
+     * @throws IOException if writing a frame failed
+     */
+    @Override
+    public void close() throws IOException {
+        if (writer != null) {
+            writer.finish();
+            writer = null;
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return copy of the last completed frame, row by row as 0xRRGGBB
+     */
+    public int[] getFrame() {
+        return completed.clone();
+    }
+
+    /**
+     * @return frames completed so far
+     */
+    public long getFrameCount() {
+        return frames;
+    }
+
+    /**
+     * @return frames not written because the writer had fallen behind
+     */
+    public long getDroppedFrames() {
+        return dropped;
+    }
+
+    @Override
+    public int getPinMask() {
+        return ((signal == Signal.VGA) ? 0xFF : 0b111) << basePin;
+    }
+
+    @Override
+    public void pinsChanged(Hub hub, int outa, int dira, int changed) {
+        long now = hub.getCycles();
+        fill(now);
+        lastChange = now;
+
+        int pins = ((outa & dira) >>> basePin) & 0xFF;
+        if (signal == Signal.VGA) {
+            boolean v = ((pins & 1) != 0) == syncActiveHigh;
+            boolean h = ((pins & 0b10) != 0) == syncActiveHigh;
+            if (v && !vsync)
+                frameStart(now);
+            if (h && !hsync)
+                lineStart(now);
+            vsync = v;
+            hsync = h;
+            color = VGA_LEVELS[(pins >> 6) & 0b11] << 16 | VGA_LEVELS[(pins >> 4) & 0b11] << 8
+                    | VGA_LEVELS[(pins >> 2) & 0b11];
+        } else {
+            int luma = pins & 0b111;
+            boolean sync = luma == 0;
+            if (sync && !hsync) {
+                syncStart = now;
+                lineStart(now);
+            } else if (!sync && hsync && now - syncStart > lineCycles / 4) {
+                frameStart(now);
+            }
+            hsync = sync;
+            int grey = Math.max(luma - 2, 0) * 255 / 5;
+            color = grey << 16 | grey << 8 | grey;
+        }
+    }
+
+    /**
+     * Fills the pixels of the current line whose centres lie between the last change and now
+     */
+    private void fill(long now) {
+        int row = line - firstLine;
+        if (row < 0 || row >= height)
+            return;
+        int from = Math.max(pixel(lastChange), 0);
+        int to = Math.min(pixel(now), width);
+        if (from < to) {
+            Arrays.fill(drawing, row * width + from, row * width + to, color);
+            drawn = true;
+        }
+    }
+
+    /**
+     * @return first pixel whose centre is at or after a cycle
+     */
+    private int pixel(long cycle) {
+        return (int) Math.ceil((cycle - lineStart) / pixelCycles - firstPixel - 0.5);
+    }
+
+    private void lineStart(long now) {
+        // equalizing pulses and syncs coinciding with vertical sync do not start lines
+        if (line >= 0 && now - lineStart < lineCycles * 3 / 4)
+            return;
+        if (line >= 0)
+            line++;
+        lineStart = now;
+    }
+
+    private void frameStart(long now) {
+        if (drawn)
+            frameDone();
+        line = 0;
+        lineStart = now;
+    }
+
+    private void frameDone() {
+        int[] frame = drawing;
+        drawing = completed;
+        completed = frame;
+        Arrays.fill(drawing, 0);
+        drawn = false;
+        frames++;
+        if (listener != null)
+            listener.accept(frame);
+        if (writer != null && !writer.offer(frame, frames))
+            dropped++;
+    }
+
+    /**
+     * Background thread writing frames from a fixed pool of buffers
+     */
+    private class Writer extends Thread {
+
+        private final File directory;
+        private final Format format;
+        private final ArrayBlockingQueue<int[]> free = new ArrayBlockingQueue<>(WRITER_FRAMES);
+        private final ArrayBlockingQueue<int[]> queued = new ArrayBlockingQueue<>(WRITER_FRAMES + 1);
+        // the buffers, and the number of the frame in each
+        private final int[][] pool = new int[WRITER_FRAMES][];
+        private final long[] numbers = new long[WRITER_FRAMES];
+        // queued after the last frame
+        private final int[] done = new int[0];
+
+        private BufferedImage image;
+        private FileChannel raw;
+        private ByteBuffer rgb;
+        private IOException failure;
+
+        Writer(File directory, Format format) throws IOException {
+            super("jpropsim-video-capture");
+            setDaemon(true);
+            this.directory = directory;
+            this.format = format;
+            for (int i = 0; i < WRITER_FRAMES; i++) {
+                pool[i] = new int[width * height];
+                free.add(pool[i]);
+            }
+            if (format == Format.PNG) {
+                image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            } else {
+                raw = FileChannel.open(new File(directory, "frames.rgb").toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                rgb = ByteBuffer.allocateDirect(3 * width * height);
+            }
+        }
+
+        /**
+         * @return false if no buffer was free
+         */
+        boolean offer(int[] frame, long number) {
+            int[] buffer = free.poll();
+            if (buffer == null)
+                return false;
+            System.arraycopy(frame, 0, buffer, 0, frame.length);
+            numbers[indexOf(buffer)] = number;
+            queued.add(buffer);
+            return true;
+        }
+
+        private int indexOf(int[] buffer) {
+            for (int i = 0; ; i++) {
+                if (pool[i] == buffer)
+                    return i;
+            }
+        }
+
+        void finish() throws IOException {
+            queued.add(done);
+            try {
+                join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (raw != null)
+                raw.close();
+            if (failure != null)
+                throw failure;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    int[] buffer = queued.take();
+                    if (buffer == done)
+                        return;
+                    if (failure == null)
+                        write(buffer, numbers[indexOf(buffer)]);
+                    free.add(buffer);
+                }
+            } catch (InterruptedException e) {
+                // abandoned
+            }
+        }
+
+        private void write(int[] frame, long number) {
+            try {
+                if (format == Format.PNG) {
+                    image.setRGB(0, 0, width, height, frame, 0, width);
+                    ImageIO.write(image, "png", new File(directory, String.format("frame%06d.png", number)));
+                } else {
+                    rgb.clear();
+                    for (int pixel : frame) {
+                        rgb.put((byte) (pixel >> 16));
+                        rgb.put((byte) (pixel >> 8));
+                        rgb.put((byte) pixel);
+                    }
+                    rgb.flip();
+                    while (rgb.hasRemaining())
+                        raw.write(rgb);
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+    }
+}
@@ -0,0 +1,974 @@
+package com.wcmarshall.jpropsim.spin;
+
+import com.wcmarshall.jpropsim.Cog;
+import com.wcmarshall.jpropsim.Hub;
+
+/**
+ * Runs the ROM Spin interpreter (P8X32A_Emulation/interpreter.src) natively, one bytecode at a time,
+ * in place of the PASM instructions a cog would otherwise execute for it.
+ *
+ * The interpreter's registers are held in Java fields and every bytecode has exactly the same effect on
+ * hub RAM, cog registers and the interpreter's own registers as the PASM handler. Timing is approximated
+ * per bytecode with a {@link SpinTiming}. The interpreter is only attached to cogs whose RAM holds the
+ * stock interpreter image; any other cog runs as PASM. A cog already running the interpreter as PASM is
+ * taken over when it next reaches the main loop. WAITVID hands the cog back to PASM permanently, as does
+ * {@link #detach()}.
+ */
+public class SpinInterpreter {
+
+    /**
+     * Address of the interpreter's main loop, where PASM resumes after a hand back
+     */
+    public static final int LOOP_ADDR = 0x008;
+
+    public static final int INTERPRETER_ADDR = 0xF004;
+    public static final int INTERPRETER_LONGS = 0x1F0;
+
+    // interpreter variables, at the top of cog RAM below PAR
+    public static final int MASKLONG_ADDR = 0x1E5;
+    public static final int LSB_ADDR = 0x1E8;
+    public static final int ID_ADDR = 0x1E9;
+    public static final int DCALL_ADDR = 0x1EA;
+    public static final int PBASE_ADDR = 0x1EB;
+    public static final int VBASE_ADDR = 0x1EC;
+    public static final int DBASE_ADDR = 0x1ED;
+    public static final int PCURR_ADDR = 0x1EE;
+    public static final int DCURR_ADDR = 0x1EF;
+
+    private static final int MASKPAR = 0x0000FFFC;
+
+    private static final int TYPE_MEMORY = 0;
+    private static final int TYPE_REGISTER = 1;
+    private static final int TYPE_FIELD = 2;
+
+    private enum Wait { NONE, CNT, PEQ, PNE }
+
+    private final Cog cog;
+    private final Hub hub;
+    private final SpinTiming timing;
+
+    private int lsb, id, dcall, pbase, vbase, dbase, pcurr, dcurr;
+
+    // operand of the current memory or register operation
+    private int type, size, adr, reg;
+    private boolean reversed;
+
+    private int stall = 0;
+    private int hubAccesses = 0;
+    private long bytecodes = 0;
+
+    private Wait wait = Wait.NONE;
+    private int waitData, waitMask;
+    private boolean waitPortB;
+    private int opStart, opDcurr;
+
+    private boolean attached = true;
+
+    private SpinInterpreter(Cog cog, SpinTiming timing, boolean entry) {
+        this.cog = cog;
+        this.hub = cog.getHub();
+        this.timing = timing;
+
+        if (!entry) {
+            // taking over at the main loop, where the registers are as syncToCog() leaves them
+            lsb = cog.getLong(LSB_ADDR);
+            id = cog.getLong(ID_ADDR);
+            dcall = cog.getLong(DCALL_ADDR);
+            pbase = cog.getLong(PBASE_ADDR);
+            vbase = cog.getLong(VBASE_ADDR);
+            dbase = cog.getLong(DBASE_ADDR);
+            pcurr = cog.getLong(PCURR_ADDR);
+            dcurr = cog.getLong(DCURR_ADDR);
+            return;
+        }
+        // entry: load pbase, vbase, dbase, pcurr and dcurr from the words following PAR
+        int par = cog.getLong(Cog.PAR_ADDR);
+        pbase = rdword(par + 2);
+        vbase = rdword(par + 4);
+        dbase = rdword(par + 6);
+        pcurr = rdword(par + 8);
+        dcurr = rdword(par + 10);
+        id = cog.getID();
+        lsb = cog.getLong(LSB_ADDR);
+        dcall = cog.getLong(DCALL_ADDR);
+        stall = charge(0) - 1;
+    }
+
+    /**
+     * Checks whether a cog's RAM holds the stock interpreter image
+     *
+     * @param cog cog that has just finished loading
+     * @return true if every long of the interpreter matches hub ROM
+     */
+    public static boolean matches(Cog cog) {
+        Hub hub = cog.getHub();
+        int[] cogram = cog.getCogram();
+        for (int i = 0; i < INTERPRETER_LONGS; i++) {
+            if (cogram[i] != hub.getLong(INTERPRETER_ADDR + 4 * i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Attaches a native interpreter to a cog if it is running the stock interpreter image
+     *
+     * @param cog cog that has just finished loading
+     * @param timing cycle costs to charge
+     * @return the attached interpreter, or null if the cog should run as PASM
+     */
+    public static SpinInterpreter attach(Cog cog, SpinTiming timing) {
+        if (!matches(cog))
+            return null;
+        return new SpinInterpreter(cog, timing, true);
+    }
+
+    /**
+     * Attaches a native interpreter to a cog that has been running the stock interpreter as PASM, such as
+     * one restored from a snapshot or booted before acceleration was enabled. The image is not checked
+     * again, as the interpreter keeps its variables in its own code space once it has started.
+     *
+     * @param cog cog loaded with the stock interpreter, see {@link Cog#isSpinImage()}, whose PC has just
+     *            reached the main loop
+     * @param timing cycle costs to charge
+     * @return the attached interpreter
+     */
+    public static SpinInterpreter resume(Cog cog, SpinTiming timing) {
+        return new SpinInterpreter(cog, timing, false);
+    }
+
+    public boolean isAttached() {
+        return attached;
+    }
+
+    /**
+     * @return number of bytecodes executed natively
+     */
+    public long getBytecodeCount() {
+        return bytecodes;
+    }
+
+    public int getPcurr() {
+        return pcurr;
+    }
+
+    public int getDcurr() {
+        return dcurr;
+    }
+
+    public int getPbase() {
+        return pbase;
+    }
+
+    public int getVbase() {
+        return vbase;
+    }
+
+    public int getDbase() {
+        return dbase;
+    }
+
+    /**
+     * Writes the interpreter's registers into cog RAM and points the cog at the interpreter's main loop,
+     * so the cog's PASM state is a valid place to resume from. A pending WAITCNT, WAITPEQ or WAITPNE is
+     * rewound so that PASM re-executes it.
+     */
+    public void syncToCog() {
+        int savedPcurr = pcurr, savedDcurr = dcurr;
+        if (wait != Wait.NONE) {
+            pcurr = opStart;
+            dcurr = opDcurr;
+        }
+        cog.setLong(LSB_ADDR, lsb);
+        cog.setLong(ID_ADDR, id);
+        cog.setLong(DCALL_ADDR, dcall);
+        cog.setLong(PBASE_ADDR, pbase);
+        cog.setLong(VBASE_ADDR, vbase);
+        cog.setLong(DBASE_ADDR, dbase);
+        cog.setLong(PCURR_ADDR, pcurr);
+        cog.setLong(DCURR_ADDR, dcurr);
+        cog.setPC(LOOP_ADDR);
+        pcurr = savedPcurr;
+        dcurr = savedDcurr;
+    }
+
+    /**
+     * Hands the cog back to PASM at the interpreter's main loop
+     */
+    public void detach() {
+        attached = false;
+        cog.setSpinInterpreter(null);
+        syncToCog();
+    }
+
+    /**
+     * Called once per clock tick in place of PASM execution
+     */
+    public void tick() {
+        if (stall > 0) {
+            stall--;
+            return;
+        }
+
+        switch (wait) {
+            case NONE:
+                step();
+                return;
+            case CNT:
+                if (hub.getCnt() != waitData) return;
+                break;
+            case PEQ:
+                if ((waitPort() & waitMask) != waitData) return;
+                break;
+            case PNE:
+                if ((waitPort() & waitMask) == waitData) return;
+                break;
+        }
+        wait = Wait.NONE;
+        stall = timing.waitCycles - 1;
+    }
+
+    private int waitPort() {
+        // port B does not exist on the P8X32A and reads as zero
+        return waitPortB ? 0 : cog.getINA();
+    }
+
+    private int charge(int extra) {
+        int cycles = timing.bytecodeCycles + hubAccesses * timing.hubAccessCycles + extra;
+        hubAccesses = 0;
+        return cycles;
+    }
+
+    private void step() {
+        opStart = pcurr;
+        opDcurr = dcurr;
+
+        int op = rdbyte(pcurr);
+        if (op == 0x27) {
+            // WAITVID has no native equivalent, let the PASM interpreter take over from this bytecode
+            hubAccesses = 0;
+            detach();
+            return;
+        }
+        SpinProfiler profiler = cog.getSpinProfiler();
+        if (profiler != null)
+            profiler.fetch(cog, pbase, opStart);
+
+        pcurr++;
+        bytecodes++;
+
+        int extra = 0;
+        if (op < 0x40) {
+            extra = lower(op);
+        } else if (op < 0x80) {
+            // variable op: fast access to the first 8 longs of VAR or the stack frame
+            type = TYPE_MEMORY;
+            size = 2;
+            adr = (op & 0b011100) + (((op & 0b100000) == 0) ? vbase : dbase);
+            extra = mrop(op & 0b11);
+        } else if (op < 0xE0) {
+            memop(op);
+            extra = mrop(op & 0b11);
+        } else {
+            extra = mathop(op, false);
+        }
+
+        stall = charge(extra) - 1;
+    }
+
+    private int lower(int op) {
+        int x, y, a, t1, t2, offset;
+
+        switch (op) {
+            case 0x00: case 0x01: case 0x02: case 0x03:     // drop anchor
+                wrword(dcurr, op | pbase);
+                dcurr += 2;
+                wrword(dcurr, vbase);
+                dcurr += 2;
+                wrword(dcurr, dbase);
+                dcurr += 2;
+                wrword(dcurr, dcall);
+                dcall = dcurr;
+                dcurr += 2;
+                push(0);                                    // 'result'
+                return 0;
+
+            case 0x04:                                      // jmp
+                offset = getadrs();
+                pcurr += offset;
+                return 0;
+
+            case 0x05: case 0x06: case 0x07:                // call sub, call obj.sub, call obj[].sub
+                x = (op == 0x07) ? pop() : 0;
+                y = rdbyte(pcurr++);
+                if (op == 0x07) y += x;
+                y = rdlong(pbase + (y << 2));
+                x = y;
+                y >>>= 16;
+                if (op != 0x05) {
+                    // set relative object bases, then look up the method in the object
+                    pbase += x;
+                    vbase += y;
+                    y = rdbyte(pcurr++);
+                    y = rdlong(pbase + (y << 2));
+                    x = y;
+                    y >>>= 16;
+                }
+                dbase = dcall;
+                dcall = rdword(dcall);
+                wrword(dbase, pcurr);
+                dbase += 2;
+                dcurr += y;
+                pcurr = pbase + x;
+                return 0;
+
+            case 0x08: case 0x09: case 0x0A: case 0x0B:     // tjz, djnz, jz, jnz
+                x = pop();
+                offset = getadrs();
+                if (op == 0x09) x--;
+                boolean branch = (op == 0x08 || op == 0x0A) ? x == 0 : x != 0;
+                if (branch) pcurr += offset;
+                // tjz and djnz leave a non-zero count on the stack
+                if ((op == 0x08 || op == 0x09) && x != 0) push(x);
+                return 0;
+
+            case 0x0C:                                      // casedone
+                y = pop();
+                x = pop();
+                pcurr = pbase + x;
+                return 0;
+
+            case 0x0D: case 0x0E:                           // value case, range case
+                offset = getadrs();
+                lookOrCase(op, true, offset);
+                return 0;
+
+            case 0x0F:                                      // lookdone
+                dcurr -= 12;
+                push(0);
+                return 0;
+
+            case 0x10: case 0x11: case 0x12: case 0x13:     // value/range lookup/lookdown
+                lookOrCase(op, false, 0);
+                return 0;
+
+            case 0x14:                                      // pop
+                x = pop();
+                dcurr -= x;
+                return 0;
+
+            case 0x15:                                      // run
+                lsb = pcurr;
+                pcurr = MASKPAR;
+                return 0;
+
+            case 0x16:                                      // STRSIZE
+                a = pop();
+                x = 0;
+                while (rdbyte(a++) != 0)
+                    x++;
+                push(x);
+                return 0;
+
+            case 0x17:                                      // STRCOMP
+                y = pop();
+                a = pop();
+                while (true) {
+                    t1 = rdbyte(a++);
+                    t2 = rdbyte(y++);
+                    if (t1 != t2) {
+                        push(0);
+                        break;
+                    }
+                    if (t2 == 0) {
+                        push(-1);
+                        break;
+                    }
+                }
+                return 0;
+
+            case 0x18: case 0x19: case 0x1A:                // BYTEFILL, WORDFILL, LONGFILL
+            case 0x1C: case 0x1D: case 0x1E:                // BYTEMOVE, WORDMOVE, LONGMOVE
+                a = pop();
+                y = pop();
+                x = pop();
+                fillOrMove(op, x, y, a);
+                return 0;
+
+            case 0x1B: case 0x1F:                           // WAITPEQ, WAITPNE
+                a = pop();
+                y = pop();
+                x = pop();
+                waitPortB = (a & 1) != 0;
+                waitData = x;
+                waitMask = y;
+                wait = (op == 0x1B) ? Wait.PEQ : Wait.PNE;
+                return 0;
+
+            case 0x20:                                      // CLKSET
+                y = pop();
+                x = pop();
+                wrlong(0x0000, y);
+                wrbyte(0x0004, x);
+                return 0;
+
+            case 0x21:                                      // COGSTOP
+                hub.stopCog(pop());
+                return 0;
+
+            case 0x22:                                      // LOCKRET
+                hub.lockRet(pop());
+                return 0;
+
+            case 0x23:                                      // WAITCNT
+                waitData = pop();
+                wait = Wait.CNT;
+                return 0;
+
+            case 0x24: case 0x25: case 0x26:                // SPR[nibble] op
+                x = pop();
+                type = TYPE_REGISTER;
+                reg = 0x1F0 | (x & 0xF);
+                return mrop(op & 0b11);
+
+            case 0x28: case 0x2C:                           // COGINIT
+                a = pop();
+                y = pop();
+                x = pop();
+                x = Integer.compareUnsigned(x, 8) > 0 ? 8 : x;
+                x |= ((y & MASKPAR) << 2) | ((a & MASKPAR) << 16);
+                x = hub.initCog(x);
+                if ((op & 0b100) == 0) push(x);
+                return 0;
+
+            case 0x29: case 0x2D:                           // LOCKNEW
+                x = hub.lockNew();
+                if ((op & 0b100) == 0) push(x);
+                return 0;
+
+            case 0x2A: case 0x2E:                           // LOCKSET
+            case 0x2B: case 0x2F:                           // LOCKCLR
+                x = pop();
+                boolean previous = ((op & 1) == 0) ? hub.lockSet(x) : hub.lockClr(x);
+                if ((op & 0b100) == 0) push(previous ? -1 : 0);
+                return 0;
+
+            case 0x30: case 0x31: case 0x32: case 0x33:     // ABORT, ABORT value, RETURN, RETURN value
+                x = ((op & 1) == 0) ? rdlong(dbase) : pop();
+                boolean abort = (op & 0b10) == 0;
+                do {
+                    dcurr = dbase;
+                    dcurr -= 2;
+                    pcurr = rdword(dcurr);
+                    dcurr -= 2;
+                    dbase = rdword(dcurr);
+                    dcurr -= 2;
+                    vbase = rdword(dcurr);
+                    dcurr -= 2;
+                    pbase = rdword(dcurr);
+                } while (abort && (pbase & 0b10) == 0);     // abort unwinds to the nearest try
+                boolean pushResult = (pbase & 0b01) == 0;
+                pbase &= MASKPAR;
+                if (pushResult) push(x);
+                return 0;
+
+            case 0x34: case 0x35: case 0x36:                // constant -1..1
+                push(op - 0x35);
+                return 0;
+
+            case 0x37:                                      // constant mask
+                y = rdbyte(pcurr++);
+                x = Integer.rotateLeft(2, y);
+                if ((y & 0b001_00000) != 0) x--;
+                if ((y & 0b010_00000) != 0) x = ~x;
+                push(x);
+                return 0;
+
+            case 0x38: case 0x39: case 0x3A: case 0x3B:     // constant 1..4 bytes
+                x = 0;
+                for (int i = op - 0x37; i > 0; i--)
+                    x = (x << 8) | rdbyte(pcurr++);
+                push(x);
+                return 0;
+
+            default:                                        // register[bit] op, register[bit..bit] op, register op
+                return registerOp(op);
+        }
+    }
+
+    private void lookOrCase(int op, boolean isCase, int offset) {
+        int x, y, a, t1, t2;
+        boolean range = (op & 0b10) != 0;
+
+        if (!range) {
+            y = pop();
+            x = pop();
+            a = y;
+        } else {
+            a = pop();
+            y = pop();
+            x = pop();
+        }
+        dcurr -= 8;
+        t1 = rdlong(dcurr);
+
+        boolean z = !isCase && (op & 1) == 0;               // lookup rather than lookdown
+        boolean c = a < y;                                  // reverse range?
+
+        t2 = c ? -x : x;
+        if (!c) {
+            t2 = z ? t2 - t1 : t2 + t1;
+            t2 = z ? t2 + y : t2 - y;
+        } else {
+            t2 += t1;
+            t2 += y;
+        }
+
+        if (c) {
+            int swap = a;
+            a = y;
+            y = swap;
+        }
+        c = x < y;
+        if (!c) c = a < x;
+
+        if (z) c = Integer.compareUnsigned(x, t1) < 0;
+        t1 = t1 + a - y;
+        if (z && !c) c = Integer.compareUnsigned(t1, x) < 0;
+
+        if (!c) {
+            t1 = t2;
+        } else {
+            t1 += 1;
+        }
+
+        boolean look = (op & 0b100) == 0;
+        if (look) wrlong(dcurr, t1);
+        dcurr += 12;
+
+        if (look) {
+            if (!c) {
+                // found, pop target and address and branch to the end of the lookup
+                pop();
+                x = pop();
+                pcurr = pbase + x;
+            }
+        } else if (!c) {
+            pcurr += offset;
+        }
+    }
+
+    private void fillOrMove(int op, int x, int y, int a) {
+        if (a == 0) return;
+
+        boolean move = (op & 0b100) != 0;
+        int size = op & 0b11;
+        int t1 = y, t2;
+        boolean down = false;
+
+        if (move && Integer.compareUnsigned(y, x) < 0) {
+            // upward overlapping move, copy from the top down
+            down = true;
+            t2 = (a - 1) << size;
+            y += t2;
+            x += t2;
+        }
+        t2 = (down ? -1 : 1) << size;
+
+        while (a-- != 0) {
+            if (move) {
+                t1 = read(size, y);
+                y += t2;
+            }
+            write(size, x, t1);
+            x += t2;
+        }
+    }
+
+    private int registerOp(int op) {
+        int b = rdbyte(pcurr++);
+        int oo = (b >>> 5) & 0b11;
+        reg = 0x1E0 | (b & 0x1F);
+
+        if (op == 0x3F) {
+            type = TYPE_REGISTER;
+            return mrop(oo);
+        }
+
+        int x, y;
+        if (op == 0x3E) {
+            y = pop();
+            x = pop();
+        } else {
+            x = pop();
+            y = x;
+        }
+        x &= 0x1F;
+        y &= 0x1F;
+
+        reversed = x < y;
+        adr = -Math.abs(x - y) - 1;                         // -bitcount
+        lsb = reversed ? x : y;
+        type = TYPE_FIELD;
+        return mrop(oo);
+    }
+
+    private void memop(int op) {
+        int x = 0;
+        size = (op >> 5) & 0b11;
+        type = TYPE_MEMORY;
+
+        if ((op & 0b0010000) != 0)
+            x = pop() << size;                              // index
+
+        int base = (op >> 2) & 0b11;
+        adr = (base == 0) ? pop() : getadrz();
+        adr += x;
+        switch (base) {
+            case 1:
+                adr += pbase;
+                break;
+            case 2:
+                adr += vbase;
+                break;
+            case 3:
+                adr += dbase;
+                break;
+        }
+    }
+
+    /**
+     * Performs a read, write, assignment or address operation on the current operand
+     *
+     * @return extra cycles to charge
+     */
+    private int mrop(int oo) {
+        switch (oo) {
+            case 0:
+                push(readOperand());
+                return 0;
+            case 1:
+                writeOperand(pop());
+                return 0;
+            case 3:
+                push(adr & 0xFFFF);
+                return 0;
+            default:
+                return assign();
+        }
+    }
+
+    private int assign() {
+        int op2 = rdbyte(pcurr++);
+        int x;
+        int extra = 0;
+
+        if ((op2 & 0b01111110) == 0) {
+            x = pop();                                      // write
+        } else {
+            x = readOperand();
+            push(x);
+
+            if ((op2 & 0b01000000) != 0) {
+                // math operator, the result replaces the variable's slot on the stack
+                extra = mathop(op2, (op2 & 0b00100000) == 0);
+                dcurr -= 4;
+                x = rdlong(dcurr);
+            } else {
+                dcurr -= 4;
+                boolean post;
+
+                if ((op2 & 0b00100000) != 0) {
+                    // ++var, var++, --var, var--
+                    x += ((op2 & 0b00010000) != 0) ? -1 : 1;
+                    switch ((op2 >> 1) & 0b11) {
+                        case 0:
+                            x = rev(rev(x, adr), adr);
+                            break;
+                        case 1:
+                            x &= 0xFF;
+                            break;
+                        case 2:
+                            x &= 0xFFFF;
+                            break;
+                    }
+                    post = (op2 & 0b00001000) != 0;
+                } else if ((op2 & 0b00010000) != 0) {
+                    // ~var, ~~var, var~, var~~
+                    post = (op2 & 0b00001000) != 0;
+                    if (!post) {
+                        x = ((op2 & 0b100) == 0) ? (x << 24) >> 24 : (x << 16) >> 16;
+                    } else {
+                        x = ((op2 & 0b100) == 0) ? 0 : -1;
+                    }
+                } else if ((op2 & 0b00001000) != 0) {
+                    // ?var, var?
+                    x = random(x, (op2 & 0b100) != 0);
+                    post = false;
+                } else {
+                    repeatVar(x, op2);
+                    return 0;
+                }
+
+                if (!post) wrlong(dcurr, x);
+            }
+        }
+
+        if ((op2 & 0b10000000) != 0) dcurr += 4;           // keep value on stack
+        writeOperand(x);
+        return extra;
+    }
+
+    private void repeatVar(int x, int op2) {
+        int a = pop();
+        int y = pop();
+        int step = pop();
+        if ((op2 & 0b100) == 0) {
+            // default step of 1
+            dcurr += 4;
+            step = 1;
+        }
+        int offset = getadrs();
+
+        boolean c = a < y;
+        x += c ? -step : step;
+        if (c) {
+            int swap = a;
+            a = y;
+            y = swap;
+        }
+        if (x >= y && a >= x) pcurr += offset;
+        writeOperand(x);
+    }
+
+    private static int random(int x, boolean reverse) {
+        if (x == 0) x = 1;
+        int taps = reverse ? 0x8000000B : 0b10111;
+        for (int i = 0; i < 32; i++) {
+            int c = Integer.bitCount(x & taps) & 1;
+            x = reverse ? (x << 1) | c : (x >>> 1) | (c << 31);
+        }
+        return x;
+    }
+
+    /**
+     * Pops the operands of a math operator and pushes the result
+     *
+     * @param op operator in the lower 5 bits
+     * @param swap if true, binary operands are swapped, as for an assignment to the left operand
+     * @return extra cycles to charge
+     */
+    private int mathop(int op, boolean swap) {
+        int a = op & 0b11111;
+        int x, y;
+
+        boolean unary = a == 0b00110 || a == 0b00111 || a == 0b01001 || a == 0b10001 || a == 0b10011
+                || a == 0b11000 || a == 0b11111;
+        if (unary) {
+            y = pop();
+            x = 0;
+        } else {
+            y = pop();
+            x = pop();
+            if (swap) {
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+
+        int extra = 0;
+        switch (a) {
+            case 0b00000: x = Integer.rotateRight(x, y); break;              // ->
+            case 0b00001: x = Integer.rotateLeft(x, y); break;               // <-
+            case 0b00010: x = x >>> y; break;                                // >>
+            case 0b00011: x = x << y; break;                                 // <<
+            case 0b00100: x = Math.max(x, y); break;                         // |>
+            case 0b00101: x = Math.min(x, y); break;                         // <|
+            case 0b00110: x = -y; break;                                     // -
+            case 0b00111: x = ~y; break;                                     // !
+            case 0b01000: x = x & y; break;                                  // &
+            case 0b01001: x = Math.abs(y); break;                            // ||
+            case 0b01010: x = x | y; break;                                  // |
+            case 0b01011: x = x ^ y; break;                                  // ^
+            case 0b01100: x = x + y; break;                                  // +
+            case 0b01101: x = x - y; break;                                  // -
+            case 0b01110: x = x >> y; break;                                 // ~>
+            case 0b01111: x = rev(x, -y); break;                             // ><
+            case 0b10000: x = (x != 0 && y != 0) ? -1 : 0; break;            // AND
+            case 0b10001: x = 32 - Integer.numberOfLeadingZeros(y); break;   // >|
+            case 0b10010: x = (x != 0 || y != 0) ? -1 : 0; break;            // OR
+            case 0b10011: x = 1 << y; break;                                 // |<
+            case 0b10100: x = x * y; extra = timing.multiplyDivideCycles; break;                 // *
+            case 0b10101: x = (int) (((long) x * y) >> 32); extra = timing.multiplyDivideCycles; break; // **
+            case 0b10110: x = divide(x, y, false); extra = timing.multiplyDivideCycles; break;   // /
+            case 0b10111: x = divide(x, y, true); extra = timing.multiplyDivideCycles; break;    // //
+            case 0b11000: x = (int) Math.sqrt(Integer.toUnsignedLong(y)); extra = timing.squareRootCycles; break; // ^^
+            case 0b11001: x = (x < y) ? -1 : 0; break;                       // <
+            case 0b11010: x = (x > y) ? -1 : 0; break;                       // >
+            case 0b11011: x = (x != y) ? -1 : 0; break;                      // <>
+            case 0b11100: x = (x == y) ? -1 : 0; break;                      // ==
+            case 0b11101: x = (x <= y) ? -1 : 0; break;                      // =<
+            case 0b11110: x = (x >= y) ? -1 : 0; break;                      // =>
+            default: x = (y == 0) ? -1 : 0; break;                           // NOT
+        }
+
+        push(x);
+        return extra;
+    }
+
+    private static int divide(int x, int y, boolean remainder) {
+        // division by zero yields zero, as the interpreter falls through to its multiply
+        if (y == 0) return 0;
+        int ax = Math.abs(x), ay = Math.abs(y);
+        if (remainder) {
+            int r = Integer.remainderUnsigned(ax, ay);
+            return (x < 0) ? -r : r;
+        }
+        int q = Integer.divideUnsigned(ax, ay);
+        return ((x < 0) != (y < 0)) ? -q : q;
+    }
+
+    /**
+     * PASM REV: reverses the lower 32 - (s & 31) bits of x and clears the rest
+     */
+    private static int rev(int x, int s) {
+        return Integer.reverse(x) >>> (s & 31);
+    }
+
+    private int readOperand() {
+        switch (type) {
+            case TYPE_MEMORY:
+                return read(size, adr);
+            case TYPE_REGISTER:
+                return readRegister(reg);
+            default:
+                int x = readRegister(reg) >>> lsb;
+                x = rev(x, adr);
+                return reversed ? x : rev(x, adr);
+        }
+    }
+
+    private void writeOperand(int x) {
+        switch (type) {
+            case TYPE_MEMORY:
+                write(size, adr, x);
+                break;
+            case TYPE_REGISTER:
+                writeRegister(reg, x);
+                break;
+            default:
+                int mask = ~(rev(-1, adr) << lsb);
+                x = rev(x, adr);
+                if (!reversed) x = rev(x, adr);
+                writeRegister(reg, (x << lsb) | (readRegister(reg) & mask));
+                break;
+        }
+    }
+
+    private int readRegister(int reg) {
+        switch (reg) {
+            case LSB_ADDR: return lsb;
+            case ID_ADDR: return id;
+            case DCALL_ADDR: return dcall;
+            case PBASE_ADDR: return pbase;
+            case VBASE_ADDR: return vbase;
+            case DBASE_ADDR: return dbase;
+            case PCURR_ADDR: return pcurr;
+            case DCURR_ADDR: return dcurr;
+            default: return cog.getLong(reg);
+        }
+    }
+
+    private void writeRegister(int reg, int value) {
+        switch (reg) {
+            case LSB_ADDR: lsb = value; break;
+            case ID_ADDR: id = value; break;
+            case DCALL_ADDR: dcall = value; break;
+            case PBASE_ADDR: pbase = value; break;
+            case VBASE_ADDR: vbase = value; break;
+            case DBASE_ADDR: dbase = value; break;
+            case PCURR_ADDR: pcurr = value; break;
+            case DCURR_ADDR: dcurr = value; break;
+            default: cog.setLong(reg, value);
+        }
+    }
+
+    /**
+     * Reads a branch offset: 7 bits, or 15 bits if the first byte has bit 7 set, sign-extended
+     */
+    private int getadrs() {
+        int op2 = rdbyte(pcurr++);
+        boolean wide = (op2 & 0x80) != 0;
+        op2 = (op2 << 25) >> 25;
+        if (wide) op2 = (op2 << 8) | rdbyte(pcurr++);
+        return op2;
+    }
+
+    /**
+     * Reads a base offset: 7 bits, or 15 bits if the first byte has bit 7 set, zero-extended
+     */
+    private int getadrz() {
+        int op2 = rdbyte(pcurr++);
+        boolean wide = (op2 & 0x80) != 0;
+        op2 &= 0x7F;
+        if (wide) op2 = (op2 << 8) | rdbyte(pcurr++);
+        return op2;
+    }
+
+    private void push(int x) {
+        wrlong(dcurr, x);
+        dcurr += 4;
+    }
+
+    private int pop() {
+        dcurr -= 4;
+        return rdlong(dcurr);
+    }
+
+    private int read(int size, int addr) {
+        switch (size) {
+            case 0: return rdbyte(addr);
+            case 1: return rdword(addr);
+            default: return rdlong(addr);
+        }
+    }
+
+    private void write(int size, int addr, int value) {
+        switch (size) {
+            case 0: wrbyte(addr, value); break;
+            case 1: wrword(addr, value); break;
+            default: wrlong(addr, value); break;
+        }
+    }
+
+    private int rdbyte(int addr) {
+        hubAccesses++;
+        return hub.getByte(addr);
+    }
+
+    private int rdword(int addr) {
+        hubAccesses++;
+        return hub.getWord(addr);
+    }
+
+    private int rdlong(int addr) {
+        hubAccesses++;
+        return hub.getLong(addr);
+    }
+
+    private void wrbyte(int addr, int value) {
+        hubAccesses++;
+        hub.setByte(addr, value);
+    }
+
+    private void wrword(int addr, int value) {
+        hubAccesses++;
+        hub.setWord(addr, value);
+    }
+
+    private void wrlong(int addr, int value) {
+        hubAccesses++;
+        hub.setLong(addr, value);
+    }
+}
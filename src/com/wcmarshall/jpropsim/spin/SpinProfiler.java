@@ -0,0 +1,270 @@
+package com.wcmarshall.jpropsim.spin;
+
+import com.wcmarshall.jpropsim.Cog;
+import com.wcmarshall.jpropsim.Hub;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Profiles Spin code run by the ROM interpreter, whether it runs as PASM or natively.
+ *
+ * Every time an interpreter cog fetches a bytecode, the cycles since its previous fetch are charged to the
+ * previous bytecode and to the method it belongs to. Methods are found from the object's method table at
+ * PBASE, as laid out in the .binary image, and are reported by object address and method number, since the
+ * image holds no names. All counts are kept in flat long arrays.
+ *
+ * Install with {@link Hub#setSpinProfiler(SpinProfiler)}.
+ */
+public class SpinProfiler {
+
+    private static final int NUM_COGS = 8;
+
+    private static final String[] LOWER_NAMES = {
+            "ANCHOR result", "ANCHOR", "ANCHOR try result", "ANCHOR try",
+            "JMP", "CALL sub", "CALL obj.sub", "CALL obj[].sub",
+            "TJZ", "DJNZ", "JZ", "JNZ",
+            "CASE done", "CASE value", "CASE range", "LOOK done",
+            "LOOKUP value", "LOOKDOWN value", "LOOKUP range", "LOOKDOWN range",
+            "POP", "RUN", "STRSIZE", "STRCOMP",
+            "BYTEFILL", "WORDFILL", "LONGFILL", "WAITPEQ",
+            "BYTEMOVE", "WORDMOVE", "LONGMOVE", "WAITPNE",
+            "CLKSET", "COGSTOP", "LOCKRET", "WAITCNT",
+            "SPR read", "SPR write", "SPR assign", "WAITVID",
+            "COGINIT push", "LOCKNEW push", "LOCKSET push", "LOCKCLR push",
+            "COGINIT", "LOCKNEW", "LOCKSET", "LOCKCLR",
+            "ABORT", "ABORT value", "RETURN", "RETURN value",
+            "CONSTANT -1", "CONSTANT 0", "CONSTANT 1", "CONSTANT mask",
+            "CONSTANT byte", "CONSTANT word", "CONSTANT 3 bytes", "CONSTANT long",
+            "<unused>", "REG[bit]", "REG[bit..bit]", "REG",
+    };
+
+    private static final String[] MATH_NAMES = {
+            "->", "<-", ">>", "<<", "|>", "<|", "- (negate)", "!",
+            "&", "||", "|", "^", "+", "-", "~>", "><",
+            "AND", ">|", "OR", "|<", "*", "**", "/", "//",
+            "^^", "<", ">", "<>", "==", "=<", "=>", "NOT",
+    };
+
+    private static final String[] OPERATIONS = { "read", "write", "assign", "address" };
+    private static final String[] SIZES = { "BYTE", "WORD", "LONG" };
+    private static final String[] BASES = { "[]", "PBASE", "VBASE", "DBASE" };
+
+    /**
+     * Methods of one object, identified by the object's PBASE
+     */
+    private static class ObjectProfile {
+        final int pbase;
+        // code offsets of the methods in ascending order, and their index in the method table
+        final int[] starts;
+        final int[] methods;
+        final long[] cycles, bytecodes, calls;
+
+        ObjectProfile(Hub hub, int pbase) {
+            this.pbase = pbase;
+
+            int count = ((hub.getLong(pbase) >>> 16) & 0xFF) - 1;
+            if (count < 1) count = 1;
+            long[] entries = new long[count];
+            for (int i = 0; i < count; i++) {
+                int offset = hub.getWord(pbase + 4 * (i + 1));
+                entries[i] = ((long) offset << 32) | (i + 1);
+            }
+            Arrays.sort(entries);
+
+            starts = new int[count];
+            methods = new int[count];
+            for (int i = 0; i < count; i++) {
+                starts[i] = (int) (entries[i] >>> 32);
+                methods[i] = (int) entries[i];
+            }
+            cycles = new long[count];
+            bytecodes = new long[count];
+            calls = new long[count];
+        }
+
+        int slot(int offset) {
+            int i = Arrays.binarySearch(starts, offset);
+            if (i >= 0) {
+                // several table entries can share an offset, take the last
+                while (i + 1 < starts.length && starts[i + 1] == offset)
+                    i++;
+                return i;
+            }
+            i = -i - 2;
+            return (i < 0) ? 0 : i;
+        }
+
+        int end(int slot) {
+            return (slot + 1 < starts.length) ? starts[slot + 1] : Integer.MAX_VALUE;
+        }
+    }
+
+    private final Hub hub;
+
+    private final HashMap<Integer, ObjectProfile> objects = new HashMap<>();
+
+    private final long[] bytecodeCounts = new long[256];
+    private final long[] bytecodeCycles = new long[256];
+
+    // per cog state of the bytecode being timed
+    private final ObjectProfile[] lastObject = new ObjectProfile[NUM_COGS];
+    private final int[] lastSlot = new int[NUM_COGS];
+    private final int[] lastEnd = new int[NUM_COGS];
+    private final int[] lastOpcode = new int[NUM_COGS];
+    private final long[] lastCycle = new long[NUM_COGS];
+
+    public SpinProfiler(Hub hub) {
+        this.hub = hub;
+    }
+
+    /**
+     * Called by an interpreter cog when it fetches a bytecode
+     *
+     * @param cog interpreter cog
+     * @param pbase base of the running object
+     * @param pcurr address of the bytecode being fetched
+     */
+    public void fetch(Cog cog, int pbase, int pcurr) {
+        int id = cog.getID();
+        long now = hub.getCycles();
+        pbase &= 0xFFFF;
+        pcurr &= 0xFFFF;
+
+        ObjectProfile object = lastObject[id];
+        int slot = lastSlot[id];
+        if (object != null) {
+            long elapsed = now - lastCycle[id];
+            object.cycles[slot] += elapsed;
+            bytecodeCycles[lastOpcode[id]] += elapsed;
+        }
+
+        int offset = pcurr - pbase;
+        if (object == null || object.pbase != pbase || offset < object.starts[slot] || offset >= lastEnd[id]) {
+            object = objects.get(pbase);
+            if (object == null) {
+                object = new ObjectProfile(hub, pbase);
+                objects.put(pbase, object);
+            }
+            slot = object.slot(offset);
+            if (offset == object.starts[slot])
+                object.calls[slot]++;
+            lastObject[id] = object;
+            lastSlot[id] = slot;
+            lastEnd[id] = object.end(slot);
+        }
+
+        int opcode = hub.getByte(pcurr);
+        object.bytecodes[slot]++;
+        bytecodeCounts[opcode]++;
+        lastOpcode[id] = opcode;
+        lastCycle[id] = now;
+    }
+
+    /**
+     * Discards everything counted so far
+     */
+    public void reset() {
+        objects.clear();
+        Arrays.fill(bytecodeCounts, 0);
+        Arrays.fill(bytecodeCycles, 0);
+        Arrays.fill(lastObject, null);
+    }
+
+    /**
+     * @return number of times each bytecode has been fetched, indexed by bytecode
+     */
+    public long[] getBytecodeCounts() {
+        return bytecodeCounts.clone();
+    }
+
+    /**
+     * @return cycles charged to each bytecode, indexed by bytecode
+     */
+    public long[] getBytecodeCycles() {
+        return bytecodeCycles.clone();
+    }
+
+    /**
+     * Cycles charged to a method
+     *
+     * @param pbase address of the object
+     * @param method index of the method in the object's method table, starting at 1
+     * @return cycles, or 0 if the method has not run
+     */
+    public long getMethodCycles(int pbase, int method) {
+        ObjectProfile object = objects.get(pbase & 0xFFFF);
+        if (object == null) return 0;
+        for (int i = 0; i < object.methods.length; i++) {
+            if (object.methods[i] == method)
+                return object.cycles[i];
+        }
+        return 0;
+    }
+
+    /**
+     * Writes cycles per method and per bytecode, most expensive first. Cycles are counted up to each
+     * cog's most recent fetch.
+     *
+     * @param out destination of the report
+     * @throws IOException if out does
+     */
+    public void report(Appendable out) throws IOException {
+        long total = 0;
+        List<long[]> rows = new ArrayList<>();
+        for (ObjectProfile object : objects.values()) {
+            for (int i = 0; i < object.starts.length; i++) {
+                if (object.bytecodes[i] == 0) continue;
+                rows.add(new long[] { object.cycles[i], object.bytecodes[i], object.calls[i],
+                        object.pbase, object.methods[i], object.starts[i] });
+                total += object.cycles[i];
+            }
+        }
+        rows.sort((a, b) -> Long.compare(b[0], a[0]));
+
+        out.append("Spin methods by cycles\n\n");
+        out.append(String.format("%14s %7s %12s %10s  %s%n", "cycles", "%", "bytecodes", "calls", "method"));
+        for (long[] row : rows) {
+            out.append(String.format("%14d %6.2f%% %12d %10d  $%04X #%d @$%04X%n", row[0], percent(row[0], total),
+                    row[1], row[2], row[3], row[4], (row[3] + row[5]) & 0xFFFF));
+        }
+
+        Integer[] opcodes = new Integer[256];
+        for (int i = 0; i < opcodes.length; i++)
+            opcodes[i] = i;
+        Arrays.sort(opcodes, (a, b) -> Long.compare(bytecodeCycles[b], bytecodeCycles[a]));
+
+        out.append("\nBytecodes by cycles\n\n");
+        out.append(String.format("%14s %7s %12s %8s  %s%n", "cycles", "%", "count", "average", "bytecode"));
+        for (int op : opcodes) {
+            if (bytecodeCounts[op] == 0) continue;
+            out.append(String.format("%14d %6.2f%% %12d %8d  $%02X %s%n", bytecodeCycles[op],
+                    percent(bytecodeCycles[op], total), bytecodeCounts[op], bytecodeCycles[op] / bytecodeCounts[op],
+                    op, bytecodeName(op)));
+        }
+    }
+
+    private static double percent(long part, long total) {
+        return (total == 0) ? 0 : 100.0 * part / total;
+    }
+
+    /**
+     * @param op bytecode
+     * @return short description of the bytecode
+     */
+    public static String bytecodeName(int op) {
+        op &= 0xFF;
+        if (op < 0x40)
+            return LOWER_NAMES[op];
+        if (op < 0x80)
+            return String.format("%s+%d %s", ((op & 0b100000) == 0) ? "VAR" : "LOCAL", op & 0b011100,
+                    OPERATIONS[op & 0b11]);
+        if (op < 0xE0)
+            return String.format("%s %s%s %s", SIZES[(op >> 5) & 0b11], BASES[(op >> 2) & 0b11],
+                    ((op & 0b10000) != 0) ? "[index]" : "", OPERATIONS[op & 0b11]);
+        return MATH_NAMES[op & 0b11111];
+    }
+}
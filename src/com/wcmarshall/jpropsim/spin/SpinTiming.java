@@ -0,0 +1,45 @@
+package com.wcmarshall.jpropsim.spin;
+
+/**
+ * Cycle costs charged by {@link SpinInterpreter} for each bytecode it executes natively.
+ *
+ * A bytecode costs {@link #bytecodeCycles}, plus {@link #hubAccessCycles} for every hub access it
+ * makes, including the opcode fetch, plus the extra cost of the long-running math loops. The
+ * defaults approximate the average cost of the ROM interpreter's PASM; exact per-bytecode timing
+ * requires running the interpreter as PASM.
+ */
+public class SpinTiming {
+
+    /**
+     * Dispatch and handler instructions outside of hub accesses
+     */
+    public int bytecodeCycles = 128;
+
+    /**
+     * Average cost of one hub access, between 8 and 23 cycles on hardware
+     */
+    public int hubAccessCycles = 16;
+
+    /**
+     * Extra cycles for *, **, / and //, which loop 32 times in the interpreter
+     */
+    public int multiplyDivideCycles = 512;
+
+    /**
+     * Extra cycles for ^^, which loops 16 times
+     */
+    public int squareRootCycles = 640;
+
+    /**
+     * Cycles between a WAITCNT, WAITPEQ or WAITPNE condition being met and the next bytecode
+     */
+    public int waitCycles = 6;
+
+    public SpinTiming() {
+    }
+
+    public SpinTiming(int bytecodeCycles, int hubAccessCycles) {
+        this.bytecodeCycles = bytecodeCycles;
+        this.hubAccessCycles = hubAccessCycles;
+    }
+}
@@ -0,0 +1,45 @@
+package com.wcmarshall.jpropsim.stimulus;
+
+/**
+ * A square wave on a single pin. The pin is driven high at the start time, held for highCycles,
+ * then low for lowCycles, repeating for the requested number of periods.
+ */
+public class ClockSource implements StimulusSource {
+
+    public static final long FOREVER = -1;
+
+    private final int pin;
+    private final long highCycles, lowCycles;
+    private long remainingEdges;
+
+    private long time;
+    private boolean state = true;
+
+    /**
+     * @param pin pin to drive
+     * @param start absolute cycle of the first rising edge
+     * @param highCycles cycles spent high each period
+     * @param lowCycles cycles spent low each period
+     * @param periods number of periods to generate, or {@link #FOREVER}
+     */
+    public ClockSource(int pin, long start, long highCycles, long lowCycles, long periods) {
+        if (highCycles <= 0 || lowCycles <= 0)
+            throw new IllegalArgumentException("Clock phases must be at least one cycle long");
+        this.pin = pin;
+        this.time = start;
+        this.highCycles = highCycles;
+        this.lowCycles = lowCycles;
+        this.remainingEdges = (periods == FOREVER) ? FOREVER : 2 * periods;
+    }
+
+    @Override
+    public PinChange next() {
+        if (remainingEdges == 0) return null;
+        if (remainingEdges > 0) remainingEdges--;
+
+        PinChange change = new PinChange(time, pin, state);
+        time += (state) ? highCycles : lowCycles;
+        state = !state;
+        return change;
+    }
+}
@@ -0,0 +1,32 @@
+package com.wcmarshall.jpropsim.stimulus;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An explicit list of pin changes, replayed in time order.
+ */
+public class EdgeSource implements StimulusSource {
+
+    private final List<PinChange> changes;
+
+    private int index = 0;
+
+    public EdgeSource(Collection<PinChange> changes) {
+        this.changes = new ArrayList<>(changes);
+        // stable sort keeps same-cycle changes in the order given
+        this.changes.sort(Comparator.comparingLong(PinChange::getTime));
+    }
+
+    public int size() {
+        return changes.size();
+    }
+
+    @Override
+    public PinChange next() {
+        if (index >= changes.size()) return null;
+        return changes.get(index++);
+    }
+}
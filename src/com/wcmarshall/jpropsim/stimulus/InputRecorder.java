@@ -0,0 +1,103 @@
+package com.wcmarshall.jpropsim.stimulus;
+
+import com.wcmarshall.jpropsim.Hub;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Records every change to a hub's input pins, so that a run can be repeated bit for bit with
+ * {@link InputReplay}.
+ *
+ * Installed with {@link Hub#setInputRecorder(InputRecorder)}, it sees each change made through
+ * {@link Hub#setPinIn(int, boolean)}, whether from stimulus, a peripheral or another chip, stamped with the
+ * cycle it is first seen on. The file starts with a header:
+ *
+ * <pre>
+ * "JPIR" &lt;version byte&gt; &lt;start cycle, 8 bytes&gt; &lt;input levels at the start, 4 bytes&gt;
+ * </pre>
+ *
+ * followed by one unsigned LEB128 varint per change, holding the cycles since the previous change (or the
+ * start) shifted left by 6, the level in bit 5 and the pin in bits 4 to 0. A change a few thousand cycles
+ * after the last takes 3 bytes.
+ */
+public class InputRecorder implements Closeable {
+
+    static final int MAGIC = 0x4A504952; // "JPIR"
+    static final int VERSION = 1;
+
+    private final DataOutputStream out;
+    private boolean started = false;
+    private long last = 0;
+    private long count = 0;
+
+    public InputRecorder(File file) throws IOException {
+        this(new FileOutputStream(file));
+    }
+
+    public InputRecorder(OutputStream out) {
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+    }
+
+    /**
+     * Called by the hub when the recorder is installed
+     *
+     * @param cycles current cycle count
+     * @param ina input levels driven from outside the chip
+     */
+    public void start(long cycles, int ina) {
+        if (started)
+            throw new IllegalStateException("Recorder has already been started");
+        started = true;
+        last = cycles;
+        try {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(cycles);
+            out.writeInt(ina);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Called by the hub when an input pin changes level
+     *
+     * @param time cycle the change is first seen on, no earlier than the last change
+     */
+    public void record(long time, int pin, boolean level) {
+        long word = ((time - last) << 6) | (level ? 1 << 5 : 0) | pin;
+        last = time;
+        count++;
+        try {
+            while ((word & ~0x7FL) != 0) {
+                out.writeByte((int) (word & 0x7F) | 0x80);
+                word >>>= 7;
+            }
+            out.writeByte((int) word);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return number of changes recorded
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Flushes and closes the file. The recorder should be removed from its hub first.
+     */
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,108 @@
+package com.wcmarshall.jpropsim.stimulus;
+
+import com.wcmarshall.jpropsim.Hub;
+import com.wcmarshall.jpropsim.jfr.FileReadEvent;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Reads back the input changes written by an {@link InputRecorder}, lazily, as a {@link StimulusSource}.
+ *
+ * Replayed on the hub the recording was made from, restored to the cycle it started on, the changes land on
+ * exactly the cycles they did first time round. Like any other stimulus they are queued one at a time on the
+ * hub's scheduler, so the hub skips straight between them when its cogs are idle.
+ */
+public class InputReplay implements StimulusSource, Closeable {
+
+    private final DataInputStream in;
+    private final long start;
+    private final int levels;
+    private long last;
+    private boolean done = false;
+
+    public InputReplay(File file) throws IOException {
+        FileReadEvent event = new FileReadEvent();
+        event.begin();
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        } finally {
+            if (event.shouldCommit()) {
+                event.path = file.getPath();
+                event.bytes = file.length();
+                event.commit();
+            }
+        }
+        try {
+            if (in.readInt() != InputRecorder.MAGIC || in.readUnsignedByte() != InputRecorder.VERSION)
+                throw new IOException("Not an input recording: " + file);
+            start = in.readLong();
+            levels = in.readInt();
+        } catch (IOException e) {
+            in.close();
+            throw (e instanceof EOFException) ? new IOException("Not an input recording: " + file) : e;
+        }
+        last = start;
+    }
+
+    /**
+     * Sets the input levels the recording started with and queues its changes on a hub
+     *
+     * @param hub hub to drive, at the cycle the recording started on
+     * @return the stimulus event, or null if nothing changed while recording
+     * @throws IllegalStateException if the hub is at a different cycle
+     */
+    public Stimulus attach(Hub hub) {
+        if (hub.getCycles() != start)
+            throw new IllegalStateException(String.format("Recording starts at cycle %d, not %d", start,
+                    hub.getCycles()));
+        for (int pin = 0; pin < 32; pin++)
+            hub.setPinIn(pin, ((levels >>> pin) & 1) != 0);
+        return Stimulus.attach(hub, this);
+    }
+
+    /**
+     * @return cycle the recording started on
+     */
+    public long getStart() {
+        return start;
+    }
+
+    @Override
+    public PinChange next() {
+        if (done)
+            return null;
+        try {
+            long word = 0;
+            int shift = 0;
+            int b = in.read();
+            if (b < 0) {
+                close();
+                return null;
+            }
+            while ((b & 0x80) != 0) {
+                word |= (long) (b & 0x7F) << shift;
+                shift += 7;
+                b = in.readUnsignedByte();
+            }
+            word |= (long) b << shift;
+            last += word >>> 6;
+            return new PinChange(last, (int) word & 0x1F, (word & (1 << 5)) != 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        done = true;
+        in.close();
+    }
+}
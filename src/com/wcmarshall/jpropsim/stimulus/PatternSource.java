@@ -0,0 +1,52 @@
+package com.wcmarshall.jpropsim.stimulus;
+
+/**
+ * A clocked bit pattern on a single pin, one bit every cyclesPerBit cycles. Only transitions are
+ * emitted, apart from the first bit which always is, so long runs cost nothing to replay.
+ */
+public class PatternSource implements StimulusSource {
+
+    private final int pin;
+    private final long start, cyclesPerBit;
+    private final boolean[] bits;
+
+    private int index = 0;
+
+    public PatternSource(int pin, long start, long cyclesPerBit, boolean[] bits) {
+        if (cyclesPerBit <= 0)
+            throw new IllegalArgumentException("Bits must be at least one cycle long");
+        this.pin = pin;
+        this.start = start;
+        this.cyclesPerBit = cyclesPerBit;
+        this.bits = bits.clone();
+    }
+
+    /**
+     * @param pattern string of '0' and '1' characters, other characters (e.g. '_' or ' ') are ignored
+     */
+    public PatternSource(int pin, long start, long cyclesPerBit, String pattern) {
+        this(pin, start, cyclesPerBit, parse(pattern));
+    }
+
+    private static boolean[] parse(String pattern) {
+        boolean[] bits = new boolean[pattern.length()];
+        int count = 0;
+        for (char c : pattern.toCharArray()) {
+            if (c == '0' || c == '1')
+                bits[count++] = c == '1';
+        }
+        boolean[] retval = new boolean[count];
+        System.arraycopy(bits, 0, retval, 0, count);
+        return retval;
+    }
+
+    @Override
+    public PinChange next() {
+        while (index < bits.length) {
+            int i = index++;
+            if (i == 0 || bits[i] != bits[i - 1])
+                return new PinChange(start + i * cyclesPerBit, pin, bits[i]);
+        }
+        return null;
+    }
+}
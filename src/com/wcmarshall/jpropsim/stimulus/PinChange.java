@@ -0,0 +1,33 @@
+package com.wcmarshall.jpropsim.stimulus;
+
+/**
+ * A single input pin transition, stamped with the absolute cycle it takes effect on.
+ */
+public class PinChange {
+
+    private final long time;
+    private final int pin;
+    private final boolean state;
+
+    public PinChange(long time, int pin, boolean state) {
+        this.time = time;
+        this.pin = pin;
+        this.state = state;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public int getPin() {
+        return pin;
+    }
+
+    public boolean getState() {
+        return state;
+    }
+
+    public String toString() {
+        return String.format("%d P%d=%d", time, pin, state ? 1 : 0);
+    }
+}
@@ -0,0 +1,72 @@
+package com.wcmarshall.jpropsim.stimulus;
+
+import com.wcmarshall.jpropsim.Event;
+import com.wcmarshall.jpropsim.Hub;
+
+/**
+ * Replays a {@link StimulusSource} onto a hub's input pins.
+ *
+ * Only the source's next pending change is ever queued on the hub's scheduler. When it fires, the
+ * change is applied through {@link Hub#setPinIn(int, boolean)} and the following change is pulled
+ * and queued in its place.
+ */
+public class Stimulus extends Event {
+
+    private final StimulusSource source;
+
+    private PinChange pending;
+
+    private boolean attached = false;
+
+    private Stimulus(StimulusSource source, PinChange first) {
+        super(first.getTime());
+        this.source = source;
+        this.pending = first;
+    }
+
+    /**
+     * Starts replaying a source on a hub.
+     *
+     * @param hub hub to drive
+     * @param source changes to apply
+     * @return handle that may be used to {@link #detach(Hub)} the source, or null if the source is empty
+     */
+    public static Stimulus attach(Hub hub, StimulusSource source) {
+        PinChange first = source.next();
+        if (first == null) return null;
+
+        Stimulus stimulus = new Stimulus(source, first);
+        stimulus.attached = true;
+        hub.schedule(stimulus);
+        return stimulus;
+    }
+
+    public void detach(Hub hub) {
+        if (attached) {
+            hub.cancel(this);
+            attached = false;
+        }
+    }
+
+    public boolean isAttached() {
+        return attached;
+    }
+
+    @Override
+    public void fire(Hub hub) {
+        long now = getTime();
+        // apply everything that shares this cycle so simultaneous edges land together
+        while (pending != null && pending.getTime() <= now) {
+            hub.setPinIn(pending.getPin(), pending.getState());
+            pending = source.next();
+        }
+
+        if (pending == null) {
+            attached = false;
+            return;
+        }
+
+        setTime(pending.getTime());
+        hub.schedule(this);
+    }
+}
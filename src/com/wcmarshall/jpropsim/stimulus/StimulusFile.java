@@ -0,0 +1,77 @@
+package com.wcmarshall.jpropsim.stimulus;
+
+import com.wcmarshall.jpropsim.jfr.FileReadEvent;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+
+/**
+ * Reads pin changes from a plain text file, one per line:
+ *
+ * <pre>
+ * # comment
+ * &lt;cnt&gt; &lt;pin&gt; &lt;0|1&gt;
+ * </pre>
+ *
+ * The time may be decimal, or hexadecimal with a $ or 0x prefix, and is an absolute cycle count.
+ */
+public class StimulusFile {
+
+    public static EdgeSource load(File file) throws IOException {
+        FileReadEvent event = new FileReadEvent();
+        event.begin();
+        try (Reader reader = new FileReader(file)) {
+            return load(reader);
+        } finally {
+            if (event.shouldCommit()) {
+                event.path = file.getPath();
+                event.bytes = file.length();
+                event.commit();
+            }
+        }
+    }
+
+    public static EdgeSource load(Reader in) throws IOException {
+        ArrayList<PinChange> changes = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(in);
+        String line;
+        int lineNumber = 0;
+
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            int comment = line.indexOf('#');
+            if (comment >= 0) line = line.substring(0, comment);
+            line = line.trim();
+            if (line.isEmpty()) continue;
+
+            String[] fields = line.split("\\s+");
+            if (fields.length != 3)
+                throw new IOException(String.format("Line %d: expected <cnt> <pin> <state>", lineNumber));
+
+            try {
+                long time = parseNumber(fields[0]);
+                int pin = Integer.parseInt(fields[1]);
+                int state = Integer.parseInt(fields[2]);
+                if (pin < 0 || pin > 31 || (state != 0 && state != 1))
+                    throw new NumberFormatException();
+                changes.add(new PinChange(time, pin, state == 1));
+            } catch (NumberFormatException e) {
+                throw new IOException(String.format("Line %d: malformed pin change \"%s\"", lineNumber, line));
+            }
+        }
+
+        return new EdgeSource(changes);
+    }
+
+    private static long parseNumber(String s) {
+        if (s.startsWith("$"))
+            return Long.parseLong(s.substring(1), 16);
+        if (s.startsWith("0x") || s.startsWith("0X"))
+            return Long.parseLong(s.substring(2), 16);
+        return Long.parseLong(s);
+    }
+}
@@ -0,0 +1,13 @@
+package com.wcmarshall.jpropsim.stimulus;
+
+/**
+ * Produces input pin changes in non-decreasing time order. Sources are pulled lazily, one change
+ * at a time, so generators may describe arbitrarily long (or endless) waveforms.
+ */
+public interface StimulusSource {
+
+    /**
+     * @return the next pin change, or null once the source is exhausted
+     */
+    PinChange next();
+}
@@ -0,0 +1,85 @@
+package com.wcmarshall.jpropsim.stimulus;
+
+/**
+ * An asynchronous serial byte stream (8 data bits, LSB first, no parity) on a single pin.
+ *
+ * Bit boundaries are computed from the start time rather than accumulated, so rounding error does
+ * not build up over long streams. The line idles high unless inverted.
+ */
+public class UartSource implements StimulusSource {
+
+    private final int pin;
+    private final long start, clkfreq, baud;
+    private final byte[] data;
+    private final int stopBits;
+    private final boolean inverted;
+
+    private final int bitsPerFrame;
+
+    private long bitIndex = -1;     // -1 emits the idle level at the start time
+    private boolean level;
+
+    public UartSource(int pin, long start, long clkfreq, long baud, byte[] data, int stopBits, boolean inverted) {
+        if (baud <= 0 || clkfreq < baud)
+            throw new IllegalArgumentException("Baud rate must be positive and no faster than the system clock");
+        if (stopBits < 1)
+            throw new IllegalArgumentException("At least one stop bit is required");
+        this.pin = pin;
+        this.start = start;
+        this.clkfreq = clkfreq;
+        this.baud = baud;
+        this.data = data.clone();
+        this.stopBits = stopBits;
+        this.inverted = inverted;
+        this.bitsPerFrame = 1 + 8 + stopBits;
+    }
+
+    public UartSource(int pin, long start, long clkfreq, long baud, byte[] data) {
+        this(pin, start, clkfreq, baud, data, 1, false);
+    }
+
+    /**
+     * @return absolute cycle at which the line returns to idle after the last stop bit
+     */
+    public long getEndTime() {
+        return bitTime((long) data.length * bitsPerFrame);
+    }
+
+    private long bitTime(long bit) {
+        return start + bit * clkfreq / baud;
+    }
+
+    private boolean bitLevel(long bit) {
+        int frameBit = (int) (bit % bitsPerFrame);
+        boolean value;
+        if (frameBit == 0) {
+            value = false;                                          // start bit
+        } else if (frameBit <= 8) {
+            value = ((data[(int) (bit / bitsPerFrame)] >> (frameBit - 1)) & 1) == 1;
+        } else {
+            value = true;                                           // stop bit(s)
+        }
+        return value != inverted;
+    }
+
+    @Override
+    public PinChange next() {
+        long totalBits = (long) data.length * bitsPerFrame;
+
+        if (bitIndex < 0) {
+            bitIndex = 0;
+            level = !inverted;
+            return new PinChange(start, pin, level);
+        }
+
+        while (bitIndex < totalBits) {
+            long bit = bitIndex++;
+            boolean value = bitLevel(bit);
+            if (value != level) {
+                level = value;
+                return new PinChange(bitTime(bit), pin, value);
+            }
+        }
+        return null;
+    }
+}
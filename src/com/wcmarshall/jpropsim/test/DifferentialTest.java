@@ -0,0 +1,345 @@
+package com.wcmarshall.jpropsim.test;
+
+import com.wcmarshall.jpropsim.Breakpoints;
+import com.wcmarshall.jpropsim.Cog;
+import com.wcmarshall.jpropsim.Fusions;
+import com.wcmarshall.jpropsim.Hub;
+import com.wcmarshall.jpropsim.stimulus.EdgeSource;
+import com.wcmarshall.jpropsim.stimulus.PinChange;
+import com.wcmarshall.jpropsim.stimulus.Stimulus;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Runs random PASM programs on one to three cogs under every execution tier and checks that each leaves hub
+ * RAM, pins and every cog's registers, flags and PC exactly as the reference does, at random checkpoints.
+ * The reference interprets every instruction and ticks the counters on every cycle; the tiers interpret
+ * with lazy counters, translate, fuse and skip idle cycles, alone and together.
+ *
+ * The programs mix ALU instructions with random flags and conditions, the idioms the standard fusions match,
+ * DJNZ loops, calls, hub reads and writes, WAITCNT, WAITPEQ, idle loops on pins and the hub, and counters in
+ * every mode, including those that read pins driven by the other cogs, the counters and a random stimulus.
+ *
+ * Run from the directory holding rom.bin and interpreter.bin:
+ * <pre>
+ * DifferentialTest [seeds] [cycles] [first seed]
+ * </pre>
+ * Exits with status 1 if any tier differs.
+ */
+public class DifferentialTest {
+
+    private static final int DATA = 0x180, DATA_COUNT = 32;
+    private static final int POINTERS = 0x1A0, POINTER_COUNT = 4;
+    private static final int COUNTERS = 0x1B0, COUNTER_COUNT = 8;
+    private static final int TEMP = 0x1B8;
+    // a register no program writes, watched to make the reference tick its counters on every cycle
+    private static final int UNUSED = 0x1E0;
+    private static final int CODE_LIMIT = 0x170;
+    private static final int SCRATCH = 0x6000;
+    private static final int STIMULUS_PINS = 4, FIRST_STIMULUS_PIN = 8;
+
+    private static final int IF_ALWAYS = 0b1111, IF_Z = 0b1010, IF_NZ = 0b0101;
+    private static final int[] CONDITIONS = { 0b0001, 0b0010, 0b0011, 0b0100, 0b0101, 0b0110, 0b0111, 0b1000,
+            0b1001, 0b1010, 0b1011, 0b1100, 0b1101, 0b1110 };
+
+    private static final int RDLONG = 0b000010, RDWORD = 0b000001, RDBYTE = 0b000000;
+    private static final int SHR = 0b001010, AND = 0b011000, MUXC = 0b011100, MUXNC = 0b011101;
+    private static final int JMPRET = 0b010111, ADD = 0b100000, MOV = 0b101000;
+    private static final int DJNZ = 0b111001, TJNZ = 0b111010, TJZ = 0b111011;
+    private static final int WAITPEQ = 0b111100, WAITPNE = 0b111101, WAITCNT = 0b111110;
+    private static final int[] ALU = { 0b001000, 0b001001, 0b001010, 0b001011, 0b001100, 0b001101, 0b001110,
+            0b001111, 0b010000, 0b010001, 0b010010, 0b010011, 0b010100, 0b010101, 0b010110, 0b011000, 0b011001,
+            0b011010, 0b011011, 0b011100, 0b011101, 0b011110, 0b011111, 0b100000, 0b100001, 0b100010, 0b100011,
+            0b100100, 0b100101, 0b100110, 0b100111, 0b101000, 0b101001, 0b101010, 0b101011, 0b101100, 0b101101,
+            0b101110, 0b101111, 0b110000, 0b110001, 0b110010, 0b110011, 0b110100, 0b110101, 0b110110, 0b110111,
+            0b111000 };
+    private static final int[] SOURCES = { Cog.PAR_ADDR, Cog.CNT_ADDR, Cog.INA_ADDR, Cog.PHSA_ADDR,
+            Cog.PHSB_ADDR, Cog.OUTA_ADDR };
+
+    private static final String[] TIERS = { "interpret", "translate", "fuse", "skip-idle", "translate+skip-idle",
+            "fuse+skip-idle" };
+
+    public static void main(String[] args) throws IOException {
+        int seeds = (args.length > 0) ? Integer.parseInt(args[0]) : 100;
+        long cycles = (args.length > 1) ? Long.parseLong(args[1]) : 20000;
+        long firstSeed = (args.length > 2) ? Long.parseLong(args[2]) : 1;
+
+        int failures = 0;
+        for (long seed = firstSeed; seed < firstSeed + seeds; seed++) {
+            Random random = new Random(seed);
+            int cogs = 1 + random.nextInt(3);
+            int[][] programs = new int[cogs][];
+            for (int c = 0; c < cogs; c++)
+                programs[c] = program(random, c);
+            List<PinChange> stimulus = stimulus(random, cycles);
+            long step = 500 + random.nextInt(2500);
+
+            List<String> expected = run(programs, stimulus, cycles, step, null);
+            for (String tier : TIERS) {
+                List<String> actual = run(programs, stimulus, cycles, step, tier);
+                for (int i = 0; i < expected.size(); i++) {
+                    if (!expected.get(i).equals(actual.get(i))) {
+                        System.out.printf("Seed %d, %s: differs at checkpoint %d%n  expected %s%n  actual   %s%n",
+                                seed, tier, i, expected.get(i), actual.get(i));
+                        failures++;
+                        break;
+                    }
+                }
+            }
+        }
+        System.out.printf("%d seeds, %d tiers, %d differences%n", seeds, TIERS.length, failures);
+        if (failures > 0)
+            System.exit(1);
+    }
+
+    /**
+     * Runs the programs, recording the state at every checkpoint
+     *
+     * @param tier tier to run, or null for the reference
+     */
+    private static List<String> run(int[][] programs, List<PinChange> stimulus, long cycles, long step,
+                                    String tier) throws IOException {
+        Hub hub = new Hub();
+        for (int c = 0; c < programs.length; c++) {
+            for (int i = 0; i < programs[c].length; i++)
+                hub.setLong(base(c) + 4 * i, programs[c][i]);
+        }
+        for (int c = 0; c < programs.length; c++)
+            hub.getCog(c).start(base(c), c, true);
+        if (tier == null) {
+            // after starting the cogs, which clear every register
+            Breakpoints breakpoints = new Breakpoints();
+            for (int c = 0; c < programs.length; c++)
+                breakpoints.addRegisterWatch(c, UNUSED);
+            hub.setBreakpoints(breakpoints);
+        } else {
+            if (tier.startsWith("fuse"))
+                hub.setFusions(Fusions.standard());
+            hub.setTranslation(tier.startsWith("translate") || tier.startsWith("fuse"));
+            hub.setIdleSkipping(tier.endsWith("skip-idle"));
+        }
+        Stimulus.attach(hub, new EdgeSource(stimulus));
+
+        List<String> states = new ArrayList<>();
+        while (hub.getCycles() < cycles) {
+            hub.run(Math.min(step, cycles - hub.getCycles()));
+            states.add(state(hub, programs.length));
+        }
+        return states;
+    }
+
+    private static String state(Hub hub, int cogs) {
+        StringBuilder state = new StringBuilder();
+        state.append(String.format("cycle %d RAM %08X OUTA %08X DIRA %08X", hub.getCycles(),
+                Arrays.hashCode(hub.getRam()), hub.getOuta(), hub.getDira()));
+        for (int c = 0; c < cogs; c++) {
+            Cog cog = hub.getCog(c);
+            cog.settle();
+            int[] cogram = cog.getCogram();
+            state.append(String.format(" | cog %d %s PC %03X %s%s RAM %08X", c, cog.isRunning() ? "running" : "stopped",
+                    cog.getPC(), cog.getZFlag() ? "Z" : "z", cog.getCFlag() ? "C" : "c", Arrays.hashCode(cogram)));
+            for (int r : new int[] { Cog.PHSA_ADDR, Cog.PHSB_ADDR })
+                state.append(String.format(" %03X=%08X", r, cogram[r]));
+        }
+        return state.toString();
+    }
+
+    private static int base(int cog) {
+        return 0x1000 + 0x800 * cog;
+    }
+
+    private static List<PinChange> stimulus(Random random, long cycles) {
+        List<PinChange> changes = new ArrayList<>();
+        for (int p = 0; p < STIMULUS_PINS; p++) {
+            boolean level = false;
+            for (long t = random.nextInt(3000); t < cycles; t += 50 + random.nextInt(3000)) {
+                level = !level;
+                changes.add(new PinChange(t, FIRST_STIMULUS_PIN + p, level));
+            }
+        }
+        return changes;
+    }
+
+    private static int op(int instr, int zcri, int cond, int d, int s) {
+        return instr << 26 | zcri << 22 | cond << 18 | (d & 0x1FF) << 9 | (s & 0x1FF);
+    }
+
+    /**
+     * @return image of a random program and its registers, to be loaded whole into a cog
+     */
+    private static int[] program(Random random, int id) {
+        int[] image = new int[0x1F0];
+        for (int r = DATA; r < DATA + DATA_COUNT; r++)
+            image[r] = random.nextBoolean() ? random.nextInt() : random.nextInt(64);
+        for (int r = 0; r < POINTER_COUNT; r++)
+            image[POINTERS + r] = SCRATCH + 4 * random.nextInt(64) + (random.nextBoolean() ? random.nextInt(4) : 0);
+        // pins 0 to 7 are driven by the cogs, each with a few of its own and some shared
+        image[DATA] = random.nextInt(256) & ((0b11 << (2 * id)) | random.nextInt(256));
+
+        List<Integer> code = new ArrayList<>();
+        List<int[]> calls = new ArrayList<>();
+        code.add(op(MOV, 0b0010, IF_ALWAYS, Cog.DIRA_ADDR, DATA));
+        counter(random, code, Cog.CTRA_ADDR);
+        counter(random, code, Cog.CTRB_ADDR);
+        int body = code.size();
+        int segments = 4 + random.nextInt(10);
+        for (int i = 0; i < segments && code.size() < CODE_LIMIT - 40; i++)
+            segment(random, code, calls);
+        code.add(op(JMPRET, 0b0001, IF_ALWAYS, 0, random.nextBoolean() ? 0 : body));
+
+        // subroutines, each ending in the RET its CALLs patch
+        for (int[] call : calls) {
+            int entry = code.size();
+            int length = 1 + random.nextInt(4);
+            for (int i = 0; i < length; i++)
+                code.add(alu(random));
+            int ret = code.size();
+            code.add(op(JMPRET, 0b0001, IF_ALWAYS, 0, 0));
+            code.set(call[0], op(JMPRET, 0b0011, IF_ALWAYS, ret, entry));
+        }
+        for (int i = 0; i < code.size(); i++)
+            image[i] = code.get(i);
+        return image;
+    }
+
+    private static int data(Random random) {
+        return DATA + 1 + random.nextInt(DATA_COUNT - 1);
+    }
+
+    private static int alu(Random random) {
+        int instr = ALU[random.nextInt(ALU.length)];
+        boolean immediate = random.nextInt(3) == 0;
+        int zcri = (random.nextInt(4) << 2) | ((random.nextInt(8) == 0) ? 0 : 0b10) | (immediate ? 1 : 0);
+        int cond = (random.nextInt(10) < 7) ? IF_ALWAYS : CONDITIONS[random.nextInt(CONDITIONS.length)];
+        int dest = (random.nextInt(12) == 0) ? Cog.OUTA_ADDR : data(random);
+        int source;
+        if (immediate)
+            source = random.nextInt(512);
+        else if (random.nextInt(5) == 0)
+            source = SOURCES[random.nextInt(SOURCES.length)];
+        else
+            source = data(random);
+        return op(instr, zcri, cond, dest, source);
+    }
+
+    /**
+     * Sets a counter going in any mode, more often one that reads pins, on pins the cogs or the stimulus drive
+     */
+    private static void counter(Random random, List<Integer> code, int ctr) {
+        int frq = (ctr == Cog.CTRA_ADDR) ? Cog.FRQA_ADDR : Cog.FRQB_ADDR;
+        code.add(op(MOV, 0b0010, IF_ALWAYS, TEMP, data(random)));
+        code.add(op(SHR, 0b0011, IF_ALWAYS, TEMP, random.nextInt(28)));
+        code.add(op(MOV, 0b0010, IF_ALWAYS, frq, TEMP));
+        int mode = random.nextBoolean() ? 0b01000 + random.nextInt(24) : random.nextInt(32);
+        int pins = random.nextInt(12) << 9 | random.nextInt(12);
+        code.add(op(MOV, 0b0011, IF_ALWAYS, TEMP, 0));
+        code.add(op(0b010110, 0b0011, IF_ALWAYS, TEMP, mode << 3 | random.nextInt(8))); // MOVI
+        code.add(op(0b010101, 0b0011, IF_ALWAYS, TEMP, pins >> 9)); // MOVD
+        code.add(op(0b010100, 0b0011, IF_ALWAYS, TEMP, pins & 0x1FF)); // MOVS
+        code.add(op(MOV, 0b0010, IF_ALWAYS, ctr, TEMP));
+    }
+
+    private static void segment(Random random, List<Integer> code, List<int[]> calls) {
+        int d = data(random), pointer = POINTERS + random.nextInt(POINTER_COUNT);
+        switch (random.nextInt(14)) {
+            case 0: {
+                int n = 1 + random.nextInt(6);
+                for (int i = 0; i < n; i++)
+                    code.add(alu(random));
+                break;
+            }
+            case 1:
+                // field extraction
+                code.add(op(SHR, 0b0011, IF_ALWAYS, d, random.nextInt(32)));
+                code.add(op(AND, 0b0011, IF_ALWAYS, d, random.nextInt(512)));
+                break;
+            case 2:
+                // copy a tested bit into a register or the pins
+                code.add(op(AND, 0b0100, IF_ALWAYS, data(random), random.nextBoolean() ? Cog.INA_ADDR : data(random)));
+                code.add(op(random.nextBoolean() ? MUXC : MUXNC, 0b0010 | (random.nextInt(4) == 0 ? 1 : 0), IF_ALWAYS,
+                        random.nextBoolean() ? Cog.OUTA_ADDR : d, data(random)));
+                break;
+            case 3: {
+                // step a hub pointer
+                int[] hubOps = { RDLONG, RDWORD, RDBYTE };
+                int read = random.nextBoolean() ? 0b0010 : 0;
+                code.add(op(hubOps[random.nextInt(3)], read | (random.nextInt(4) << 2), IF_ALWAYS, d, pointer));
+                code.add(op(ADD, 0b0011, IF_ALWAYS, pointer, 1 << random.nextInt(3)));
+                break;
+            }
+            case 4: {
+                // DJNZ loop
+                int counter = COUNTERS + random.nextInt(COUNTER_COUNT);
+                code.add(op(MOV, 0b0011, IF_ALWAYS, counter, 1 + random.nextInt(20)));
+                int loop = code.size();
+                int n = 1 + random.nextInt(3);
+                for (int i = 0; i < n; i++)
+                    code.add(random.nextInt(4) == 0 ? op(RDLONG, 0b0010, IF_ALWAYS, d, pointer) : alu(random));
+                code.add(op(DJNZ, 0b0011, IF_ALWAYS, counter, loop));
+                break;
+            }
+            case 5:
+                counter(random, code, random.nextBoolean() ? Cog.CTRA_ADDR : Cog.CTRB_ADDR);
+                break;
+            case 6:
+                // read a counter
+                code.add(op(random.nextBoolean() ? MOV : ADD, 0b0010 | (random.nextInt(4) << 2), IF_ALWAYS, d,
+                        random.nextBoolean() ? Cog.PHSA_ADDR : Cog.PHSB_ADDR));
+                break;
+            case 7:
+                // wait a while
+                code.add(op(MOV, 0b0010, IF_ALWAYS, TEMP, Cog.CNT_ADDR));
+                code.add(op(ADD, 0b0011, IF_ALWAYS, TEMP, 16 + random.nextInt(496)));
+                code.add(op(WAITCNT, 0b0011, IF_ALWAYS, TEMP, 0));
+                break;
+            case 8: {
+                // skip a few instructions
+                int skipped = 1 + random.nextInt(3);
+                code.add(op(random.nextBoolean() ? TJZ : TJNZ, 0b0001, IF_ALWAYS, d, code.size() + 1 + skipped));
+                for (int i = 0; i < skipped; i++)
+                    code.add(alu(random));
+                break;
+            }
+            case 9:
+                calls.add(new int[] { code.size() });
+                code.add(0);
+                break;
+            case 10: {
+                // idle until a stimulus pin is high
+                int pin = FIRST_STIMULUS_PIN + random.nextInt(STIMULUS_PINS);
+                code.add(op(MOV, 0b0011, IF_ALWAYS, TEMP, 1));
+                code.add(op(0b001011, 0b0011, IF_ALWAYS, TEMP, pin)); // SHL
+                int loop = code.size();
+                code.add(op(AND, 0b1000, IF_ALWAYS, TEMP, Cog.INA_ADDR));
+                code.add(op(JMPRET, 0b0001, IF_Z, 0, loop));
+                break;
+            }
+            case 11: {
+                // idle until a hub long is non-zero
+                int loop = code.size();
+                code.add(op(RDLONG, 0b1010, IF_ALWAYS, d, pointer));
+                code.add(op(JMPRET, 0b0001, IF_Z, 0, loop));
+                break;
+            }
+            case 12: {
+                // wait for a stimulus pin to be at a level
+                int pin = FIRST_STIMULUS_PIN + random.nextInt(STIMULUS_PINS);
+                code.add(op(MOV, 0b0011, IF_ALWAYS, TEMP, 1));
+                code.add(op(0b001011, 0b0011, IF_ALWAYS, TEMP, pin)); // SHL
+                code.add(op(random.nextBoolean() ? WAITPEQ : WAITPNE, 0b0000, IF_ALWAYS, TEMP, TEMP));
+                break;
+            }
+            default: {
+                // write the hub for the other cogs to see
+                int[] hubOps = { RDLONG, RDWORD, RDBYTE };
+                code.add(op(hubOps[random.nextInt(3)], 0b0000, IF_NZ, d, pointer));
+                code.add(op(hubOps[random.nextInt(3)], 0b0000, IF_ALWAYS, d, pointer));
+                break;
+            }
+        }
+    }
+}
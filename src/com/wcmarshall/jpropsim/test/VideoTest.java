@@ -0,0 +1,54 @@
+package com.wcmarshall.jpropsim.test;
+
+import com.wcmarshall.jpropsim.VideoGenerator;
+
+/**
+ * Checks the video generator's baseband composite output against the truth table of cog_vid.v, for every hue,
+ * chroma phase, modulate bit and luma, with CHROMA0 set and clear.
+ *
+ * Exits with status 1 if any combination differs.
+ */
+public class VideoTest {
+
+    private static final int CHROMA0 = 1 << 26;
+
+    public static void main(String[] args) {
+        int failures = 0;
+        for (int vcfg : new int[] { 0b10 << 29, 0b10 << 29 | CHROMA0 }) {
+            for (int phase = 0; phase < 16; phase++) {
+                for (int color = 0; color < 256; color++) {
+                    int expected = verilog(vcfg, phase, color);
+                    int actual = VideoGenerator.baseband(vcfg, phase, color);
+                    if (actual != expected) {
+                        System.out.printf("CHROMA0 %d phase %2d color $%02X: expected %4s, got %4s%n",
+                                (vcfg & CHROMA0) != 0 ? 1 : 0, phase, color, bits(expected), bits(actual));
+                        failures++;
+                    }
+                }
+            }
+        }
+        System.out.printf("%d combinations, %d differences%n", 2 * 16 * 256, failures);
+        if (failures != 0)
+            System.exit(1);
+    }
+
+    /**
+     * Bit for bit from cog_vid.v:
+     * <pre>
+     * colorphs = discrete[7:4] + phase
+     * colormod = discrete[2:0] + {discrete[3] &amp;&amp; colorphs[3], discrete[3] &amp;&amp; colorphs[3], discrete[3]}
+     * baseband = {discrete[3] &amp;&amp; colorphs[3], vid[26] ? colormod : discrete[2:0]}
+     * </pre>
+     */
+    private static int verilog(int vid, int phase, int discrete) {
+        int colorphs = ((discrete >>> 4) + phase) & 0xF;
+        int m = (discrete >>> 3) & 1;
+        int c = m & (colorphs >>> 3);
+        int colormod = ((discrete & 0b111) + (c << 2 | c << 1 | m)) & 0b111;
+        return c << 3 | ((((vid >>> 26) & 1) != 0) ? colormod : discrete & 0b111);
+    }
+
+    private static String bits(int nibble) {
+        return String.format("%4s", Integer.toBinaryString(nibble)).replace(' ', '0');
+    }
+}